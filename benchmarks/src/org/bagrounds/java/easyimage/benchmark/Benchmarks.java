@@ -0,0 +1,47 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with JMH's usual command line, adding the gc profiler and JSON results in easyimage-benchmarks.json
+ * unless the command line asks for other profilers or another result format. The JSON of two releases can be diffed.
+ * <p/>
+ * For example, after mvn package:
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar                           everything, at every size and density
+ *   java -jar benchmarks/target/benchmarks.jar Morphological -p size=1024
+ *   java -jar benchmarks/target/benchmarks.jar -p parallel=true           keep the shared parallel BandExecutor
+ *   java -jar benchmarks/target/benchmarks.jar -h                         JMH's options
+ * </pre>
+ */
+public class Benchmarks {
+  public static final String RESULT_FILE = "easyimage-benchmarks.json";
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+        || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+      try {
+        org.openjdk.jmh.Main.main(args);
+      } catch (Exception e) {
+        throw new RunnerException(e);
+      }
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (commandLine.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+    if (!commandLine.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+      if (!commandLine.getResult().hasValue()) options.result(RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,108 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.bagrounds.java.easyimage.ColorPixel;
+import org.bagrounds.java.easyimage.color.ColorKey;
+import org.bagrounds.java.easyimage.color.ColorSpace;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * The color processor, and the color space conversion it builds on.
+ */
+public class ColorProcessorBenchmark extends ImageBenchmark {
+  private static final ColorPixel RED = new ColorPixel(200, 40, 40);
+
+  @Benchmark
+  public Object quantize8Bit(Images.ColorCopy copy) {
+    copy.image.colorProcessor.quantize8Bit();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object quantize3Bit(Images.ColorCopy copy) {
+    copy.image.colorProcessor.quantize3Bit();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object quantize3BitIndexed(Images.ColorCopy copy) {
+    copy.image.colorProcessor.quantize3BitIndexed();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object quantizeMod(Images.ColorCopy copy) {
+    copy.image.colorProcessor.quantizeMod(32);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object hueKeeper(Images.ColorCopy copy) {
+    copy.image.colorProcessor.hueKeeper(RED, 30);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object colorKeeper(Images.ColorCopy copy) {
+    copy.image.colorProcessor.colorKeeper(RED, ColorPixel.BLACK, 60);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object colorFilter(Images.ColorCopy copy) {
+    copy.image.colorProcessor.colorFilter(RED, ColorPixel.BLACK, 60);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object mask(Images images) {
+    return images.color.colorProcessor.mask(new ColorKey().within(RED.rgbValue(), .3)
+        .within(ColorPixel.BLUE.rgbValue(), .2).hue(120, 20));
+  }
+
+  @Benchmark
+  public Object toPlanes(Images images) {
+    return images.color.colorSpaceProcessor.toPlanes(ColorSpace.LAB);
+  }
+
+  @Benchmark
+  public Object convertToGrayScale(Images.ColorCopy copy) {
+    copy.image.colorProcessor.convertToGrayScale();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object convertToBW(Images.GrayCopy copy) {
+    copy.image.colorProcessor.convertToBW(128);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object convertToBWOtsu(Images.GrayCopy copy) {
+    copy.image.colorProcessor.convertToBWOtsu();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object convertToBWSauvola(Images.GrayCopy copy) {
+    copy.image.colorProcessor.convertToBWSauvola(25);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object convertToBWBradley(Images.GrayCopy copy) {
+    copy.image.colorProcessor.convertToBWBradley(25);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object threshold(Images.GrayCopy copy) {
+    copy.image.colorProcessor.threshold(64, 192);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object invert(Images.ColorCopy copy) {
+    copy.image.colorProcessor.invert();
+    return copy.image;
+  }
+}
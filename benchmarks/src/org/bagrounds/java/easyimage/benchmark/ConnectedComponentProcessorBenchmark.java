@@ -0,0 +1,43 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Component labelling of the black and white image, and the filters built on it.
+ */
+public class ConnectedComponentProcessorBenchmark extends ImageBenchmark {
+  @Benchmark
+  public Object computeConnectedComponents(Images.BwCopy copy) {
+    return copy.image.connectedComponentProcessor.computeConnectedComponents();
+  }
+
+  @Benchmark
+  public Object keepLargestComponent(Images.BwCopy copy) {
+    copy.image.connectedComponentProcessor.keepLargestComponent();
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object filterComponentsBySize(Images.BwCopy copy) {
+    copy.image.connectedComponentProcessor.filterComponentsBySize(.0001, .01);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object filterComponentsByBoundingBoxArea(Images.BwCopy copy) {
+    copy.image.connectedComponentProcessor.filterComponentsByBoundingBoxArea(.0001, .01);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object filterComponentsByBoundingBoxHeight(Images.BwCopy copy) {
+    copy.image.connectedComponentProcessor.filterComponentsByBoundingBoxHeight(3, 20);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object filterComponentsByBoundingBoxWidth(Images.BwCopy copy) {
+    copy.image.connectedComponentProcessor.filterComponentsByBoundingBoxWidth(3, 20);
+    return copy.image;
+  }
+}
@@ -0,0 +1,131 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.bagrounds.java.easyimage.ColorPixel;
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.geometry.BoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * The public operations of EasyImage itself.
+ */
+public class EasyImageBenchmark extends ImageBenchmark {
+  private static final ColorPixel RED = new ColorPixel(200, 40, 40);
+
+  @Benchmark
+  public Object copy(Images images) {
+    return new EasyImage(images.color);
+  }
+
+  @Benchmark
+  public Object getBufferedImage(Images images) {
+    return images.color.getBufferedImage();
+  }
+
+  @Benchmark
+  public Object getPixelData(Images.ColorCopy copy) {
+    return copy.image.getPixelData();
+  }
+
+  @Benchmark
+  public Object setLayout(Images.ColorCopy copy) {
+    EasyImage image = copy.image;
+    boolean packed = image.getLayout() == PixelBuffer.Layout.PACKED_INT;
+    image.setLayout(packed ? PixelBuffer.Layout.INTERLEAVED : PixelBuffer.Layout.PACKED_INT);
+    return image;
+  }
+
+  @Benchmark
+  public Object addBorder(Images.ColorCopy copy) {
+    copy.image.addBorder(4);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object getSubImage(Images images) {
+    return images.color.getSubImage(images.quarter());
+  }
+
+  @Benchmark
+  public Object getSubImageView(Images images) {
+    return images.color.getSubImageView(images.quarter());
+  }
+
+  @Benchmark
+  public Object crop(Images images, Images.ColorCopy copy) {
+    copy.image.crop(images.quarter());
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object setSubImage(Images images, Images.ColorCopy copy) {
+    copy.image.setSubImage(new BoundingBox(0, images.size / 4, 0, images.size / 4), RED);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object keepPixelsWithValues(Images.GrayCopy copy) {
+    copy.image.keepPixelsWithValues(new byte[]{0, (byte) 128, (byte) 255});
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object logicalAnd(Images images, Images.GrayCopy copy) {
+    copy.image.logicalAnd(images.bw);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object histNormalize(Images.GrayCopy copy) {
+    copy.image.histNormalize();
+    return copy.image;
+  }
+
+  @Benchmark
+  public int min(Images images) {
+    return images.gray.min();
+  }
+
+  @Benchmark
+  public int max(Images images) {
+    return images.gray.max();
+  }
+
+  @Benchmark
+  public Object decimate(Images.ColorCopy copy) {
+    copy.image.decimate(2);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object getHorizontalGaps(Images images) {
+    return images.bw.getHorizontalGaps(5);
+  }
+
+  @Benchmark
+  public Object getColumnVector(Images images) {
+    return images.bw.getColumnVector(images.size / 2);
+  }
+
+  @Benchmark
+  public Object flipVertical(Images.ColorCopy copy) {
+    copy.image.flipVertical();
+    return copy.image;
+  }
+
+  @Benchmark
+  public boolean equalImages(Images images) {
+    return images.color.equals(images.color);
+  }
+
+  @Benchmark
+  public Object addNoise(Images.ColorCopy copy) {
+    copy.image.addNoise(7);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object pipeline(Images.GrayCopy copy) {
+    return copy.image.pipeline().invert().threshold(64, 192).histNormalize().dilate(1).run();
+  }
+}
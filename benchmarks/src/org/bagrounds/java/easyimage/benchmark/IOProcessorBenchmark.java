@@ -0,0 +1,27 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.bagrounds.java.easyimage.processors.IOProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.IOException;
+
+/**
+ * Reading and writing the color image as PNG.
+ */
+public class IOProcessorBenchmark extends ImageBenchmark {
+  @Benchmark
+  public Object writeImage(Images images) throws IOException {
+    IOProcessor.writeImage(images.outputFile, images.color, "png");
+    return images.outputFile;
+  }
+
+  @Benchmark
+  public Object readImage(Images images) throws IOException {
+    return IOProcessor.readImage(images.pngFile);
+  }
+
+  @Benchmark
+  public Object readSize(Images images) throws IOException {
+    return IOProcessor.readSize(images.pngFile);
+  }
+}
@@ -0,0 +1,214 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.geometry.BoundingBox;
+import org.bagrounds.java.easyimage.processors.BandExecutor;
+import org.bagrounds.java.easyimage.processors.IOProcessor;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic images of one size, density and layout. They are generated from a fixed seed, so every run and every
+ * release measures the same pixels. Benchmarks that only read an image take it from here; those that change it take a
+ * fresh copy from ColorCopy, GrayCopy or BwCopy.
+ */
+@State(Scope.Benchmark)
+public class Images {
+  public static final long SEED = 20150428L;
+
+  /**
+   * width and height of the images
+   */
+  @Param({"256", "1024"})
+  public int size;
+  /**
+   * fraction of pixels covered by foreground, the colored rectangles of color and the white of bw
+   */
+  @Param({"0.1", "0.5"})
+  public double density;
+  /**
+   * storage layout of the images
+   */
+  @Param({"INTERLEAVED"})
+  public PixelBuffer.Layout layout;
+  /**
+   * whether processors keep the shared parallel BandExecutor; by default they run on one thread, so the gc profiler
+   * sees everything they allocate in the benchmark thread's numbers
+   */
+  @Param({"false"})
+  public boolean parallel;
+
+  public EasyImage color;
+  public EasyImage gray;
+  public EasyImage bw;
+  /**
+   * color with every tenth sample changed, for the comparisons
+   */
+  public EasyImage otherColor;
+  /**
+   * a 16 by 16 piece of color, for findPattern
+   */
+  public EasyImage pattern;
+  /**
+   * color written as a PNG file, for the readers
+   */
+  public File pngFile;
+  /**
+   * where the writers write
+   */
+  public File outputFile;
+
+  private BandExecutor shared;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    if (size < 16) throw new IllegalArgumentException("size must be at least 16");
+    if (density < 0 || density > .9) throw new IllegalArgumentException("density must be between 0 and 0.9");
+    shared = BandExecutor.getShared();
+    if (!parallel) BandExecutor.setShared(BandExecutor.sequential());
+    Random random = new Random(SEED + size * 31 + (long) (density * 1000));
+
+    color = colorImage(size, density, random);
+    color.setLayout(layout);
+
+    gray = new EasyImage(color);
+    gray.colorProcessor.convertToGrayScale();
+    gray.setLayout(layout);
+
+    bw = bwImage(size, density, random);
+    bw.setLayout(layout);
+
+    otherColor = new EasyImage(color);
+    for (int j = 0; j < size; j++)
+      for (int i = j % 10; i < size; i += 10) otherColor.setChannel(i, j, i % 3, random.nextInt(256));
+
+    int p = Math.min(16, size);
+    pattern = color.getSubImage(new BoundingBox(size - p, size, size - p, size));
+
+    pngFile = File.createTempFile("easyimage-benchmark", ".png");
+    IOProcessor.writeImage(pngFile, color, "png");
+    outputFile = File.createTempFile("easyimage-benchmark", ".png");
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanUp() {
+    BandExecutor.setShared(shared);
+    pngFile.delete();
+    outputFile.delete();
+  }
+
+  public BoundingBox quarter() {
+    return new BoundingBox(size / 4, size / 2, size / 4, size / 2);
+  }
+
+  private static EasyImage colorImage(int size, double density, Random random) {
+    byte[] data = new byte[size * size * 3];
+    for (int j = 0, k = 0; j < size; j++)
+      for (int i = 0; i < size; i++) {
+        data[k++] = (byte) (i * 255 / size);
+        data[k++] = (byte) (j * 255 / size);
+        data[k++] = (byte) ((i + j) * 127 / size + random.nextInt(8));
+      }
+
+    long target = (long) (density * size * size);
+    long covered = 0;
+    int maxSide = Math.max(2, size / 16);
+    while (covered < target) {
+      int w = 1 + random.nextInt(maxSide);
+      int h = 1 + random.nextInt(maxSide);
+      int x = random.nextInt(size - w + 1);
+      int y = random.nextInt(size - h + 1);
+      int r = random.nextInt(256);
+      int g = random.nextInt(256);
+      int b = random.nextInt(256);
+      for (int j = y; j < y + h; j++)
+        for (int i = x; i < x + w; i++) {
+          int k = (j * size + i) * 3;
+          data[k] = (byte) r;
+          data[k + 1] = (byte) g;
+          data[k + 2] = (byte) b;
+        }
+      covered += w * h;
+    }
+
+    EasyImage image = new EasyImage(new InterleavedPixelBuffer(size, size, 3, data));
+    image.isGrayScale = false;
+    return image;
+  }
+
+  private static EasyImage bwImage(int size, double density, Random random) {
+    byte[] data = new byte[size * size];
+    long target = (long) (density * size * size);
+    long covered = 0;
+    int maxRadius = Math.max(1, size / 64);
+    while (covered < target) {
+      int radius = 1 + random.nextInt(maxRadius);
+      int cx = random.nextInt(size);
+      int cy = random.nextInt(size);
+      for (int j = Math.max(cy - radius, 0); j <= Math.min(cy + radius, size - 1); j++)
+        for (int i = Math.max(cx - radius, 0); i <= Math.min(cx + radius, size - 1); i++)
+          if ((i - cx) * (i - cx) + (j - cy) * (j - cy) <= radius * radius && data[j * size + i] == 0) {
+            data[j * size + i] = (byte) 255;
+            covered++;
+          }
+    }
+
+    EasyImage image = new EasyImage(new InterleavedPixelBuffer(size, size, 1, data));
+    image.isBW = true;
+    return image;
+  }
+
+  /*
+   * The operations that change their image touch a large part of it, which takes far longer than the timestamps that
+   * setup at the invocation level costs, so the copies below do not disturb the measurements.
+   */
+
+  /**
+   * A copy of Images.color, made before each invocation.
+   */
+  @State(Scope.Thread)
+  public static class ColorCopy {
+    public EasyImage image;
+
+    @Setup(Level.Invocation)
+    public void copy(Images images) {
+      image = new EasyImage(images.color);
+    }
+  }
+
+  /**
+   * A copy of Images.gray, made before each invocation.
+   */
+  @State(Scope.Thread)
+  public static class GrayCopy {
+    public EasyImage image;
+
+    @Setup(Level.Invocation)
+    public void copy(Images images) {
+      image = new EasyImage(images.gray);
+    }
+  }
+
+  /**
+   * A copy of Images.bw, made before each invocation.
+   */
+  @State(Scope.Thread)
+  public static class BwCopy {
+    public EasyImage image;
+
+    @Setup(Level.Invocation)
+    public void copy(Images images) {
+      image = new EasyImage(images.bw);
+    }
+  }
+}
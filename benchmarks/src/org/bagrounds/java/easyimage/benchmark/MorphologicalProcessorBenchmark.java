@@ -0,0 +1,40 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dilation, erosion, opening and closing of the black and white image, at radii far enough apart to show whether the
+ * cost grows with the radius.
+ */
+@State(Scope.Thread)
+public class MorphologicalProcessorBenchmark extends ImageBenchmark {
+  @Param({"1", "3", "25"})
+  public int radius;
+
+  @Benchmark
+  public Object dilate(Images.BwCopy copy) {
+    copy.image.morphologicalProcessor.dilate(radius);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object erode(Images.BwCopy copy) {
+    copy.image.morphologicalProcessor.erode(radius);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object open(Images.BwCopy copy) {
+    copy.image.morphologicalProcessor.open(radius);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object close(Images.BwCopy copy) {
+    copy.image.morphologicalProcessor.close(radius);
+    return copy.image;
+  }
+}
@@ -0,0 +1,28 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Pattern search and the comparisons between the color image and a slightly changed copy of it.
+ */
+public class SearchAndComparisonBenchmark extends ImageBenchmark {
+  @Benchmark
+  public Object findPattern(Images images) {
+    return images.color.searchProcessor.findPattern(images.pattern);
+  }
+
+  @Benchmark
+  public double meanSqrtDiff(Images images) {
+    return images.color.comparisonProcessor.meanSqrtDiff(images.otherColor);
+  }
+
+  @Benchmark
+  public double meanAbsDiff(Images images) {
+    return images.color.comparisonProcessor.meanAbsDiff(images.otherColor);
+  }
+
+  @Benchmark
+  public double imageSimilarity(Images images) {
+    return images.color.comparisonProcessor.imageSimilarity(images.otherColor);
+  }
+}
@@ -0,0 +1,101 @@
+package org.bagrounds.java.easyimage.benchmark;
+
+import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.processors.ConvolutionProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * The statistic processor's whole-image statistics and neighborhood filters, and the convolution engine its gradient
+ * filters run on.
+ */
+public class StatisticProcessorBenchmark extends ImageBenchmark {
+  @Benchmark
+  public Object hueHistogram(Images images) {
+    return images.color.statisticProcessor.hueHistogram();
+  }
+
+  @Benchmark
+  public byte mode(Images images) {
+    return images.gray.statisticProcessor.mode();
+  }
+
+  @Benchmark
+  public Object histogram(Images images) {
+    return images.gray.statisticProcessor.histogram();
+  }
+
+  @Benchmark
+  public Object histogramOfChannel(Images images) {
+    return images.color.statisticProcessor.histogram(1);
+  }
+
+  @Benchmark
+  public double norm2(Images images) {
+    return images.gray.statisticProcessor.norm2();
+  }
+
+  @Benchmark
+  public Object summarize(Images images) {
+    return images.color.statisticProcessor.summarize();
+  }
+
+  @Benchmark
+  public Object meanFilter(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.MEAN, 1);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object medianFilter(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.MEDIAN, 1);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object medianFilterRadius10(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.MEDIAN, 10);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object maxFilter(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.MAX, 2);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object norm2Filter(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.NORM2, 1);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object percentileFilter(Images.ColorCopy copy) {
+    copy.image.statisticProcessor.percentileFilter(.9, 3);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object boxMean(Images.GrayCopy copy) {
+    copy.image.statisticProcessor.boxMean(7, 7);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object gradientFilter(Images.ColorCopy copy) {
+    copy.image.statisticProcessor.filter(EasyVector.Stat.GRADIENT, 1);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object gaussianBlur(Images.ColorCopy copy) {
+    copy.image.convolutionProcessor.gaussianBlur(2, ConvolutionProcessor.BorderMode.REFLECT);
+    return copy.image;
+  }
+
+  @Benchmark
+  public Object borderlessNeighborhoodStat(Images images) {
+    return images.color.statisticProcessor.borderlessNeighborhoodStat(images.size / 2, images.size / 2, 3,
+        EasyVector.Stat.MEDIAN);
+  }
+}
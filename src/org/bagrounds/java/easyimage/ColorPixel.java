@@ -1,6 +1,8 @@
 package org.bagrounds.java.easyimage;
 
+import org.bagrounds.java.easyimage.math.DoubleVector;
 import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.math.IntVector;
 
 import java.awt.*;
 import java.util.Arrays;
@@ -54,6 +56,14 @@ public class ColorPixel {
 
 
     public static byte[] rgbFromHsi(double h, double s, double i) {
+        int rgb = packedRgbFromHsi(h, s, i);
+        return new byte[]{(byte) (rgb >> 16), (byte) (rgb >> 8), (byte) rgb};
+    }
+
+    /**
+     * Same as rgbFromHsi, but returns the color packed as 0xRRGGBB instead of allocating an array.
+     */
+    public static int packedRgbFromHsi(double h, double s, double i) {
         int r;
         int b;
         int g;
@@ -76,7 +86,7 @@ public class ColorPixel {
         r *= 255;
         g *= 255;
         b *= 255;
-        return new byte[]{(byte) r, (byte) g, (byte) b};
+        return ((r & 0xff) << 16) | ((g & 0xff) << 8) | (b & 0xff);
     }
 
     /**
@@ -86,34 +96,60 @@ public class ColorPixel {
      * @return distance between this and p
      */
     public double rgbDist(ColorPixel p) {
-        EasyVector v = rgbVector();
-        EasyVector u = p.rgbVector();
+        DoubleVector v = rgbIntVector().minus(p.rgbIntVector()).toDoubleVector().dividedBy(255);
 
-        v = v.minus(u);
-        v.dividedBy(255);
+        return v.norm(2) / Math.sqrt(3);
+    }
+
+    /**
+     * Same as rgbDist, for two colors packed as 0xRRGGBB.
+     */
+    public static double rgbDist(int rgb1, int rgb2) {
+        double dr = (((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff)) / 255.0;
+        double dg = (((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff)) / 255.0;
+        double db = ((rgb1 & 0xff) - (rgb2 & 0xff)) / 255.0;
 
-        return v.stat(EasyVector.Stat.NORM2) / Math.sqrt(3);
+        return Math.sqrt(dr * dr + dg * dg + db * db) / Math.sqrt(3);
     }
 
+    /**
+     * @deprecated boxes every channel; use rgbIntVector
+     */
+    @Deprecated
     public EasyVector rgbVector() {
         return new EasyVector(new int[]{r, g, b});
     }
 
+    public IntVector rgbIntVector() {
+        return new IntVector(new int[]{r, g, b});
+    }
+
     public double hueDist(ColorPixel p) {
-        double diff = Math.abs(this.getHue() - p.getHue());
+        return hueDist(this.getHue(), p.getHue());
+    }
+
+    public static double hueDist(double hue1, double hue2) {
+        double diff = Math.abs(hue1 - hue2);
         if (diff > 180) diff = 360 - diff;
         return diff;
     }
 
     public double getHue() {
-        return rgbToHue(new byte[]{(byte) this.r, (byte) this.g, (byte) this.b});
+        return hue(r, g, b);
     }
 
     public static double rgbToHue(byte[] rgb) {
+        return hue(rgb[0] & 0xff, rgb[1] & 0xff, rgb[2] & 0xff);
+    }
+
+    /**
+     * Computes the HSI hue, in degrees, of the color with the given unsigned channel values.
+     */
+    public static double hue(int r, int g, int b) {
         double hue;
-        double red = (rgb[0] & 0xff) / 255.0;
-        double green = (rgb[1] & 0xff) / 255.0;
-        double blue = (rgb[2] & 0xff) / 255.0;
+        double red = r / 255.0;
+        double green = g / 255.0;
+        double blue = b / 255.0;
 
         double n = .5 * ((red - green) + (red - blue));
         double d = Math.sqrt(Math.pow(red - green, 2) + (red - blue) * (green - blue));
@@ -126,6 +162,13 @@ public class ColorPixel {
         return hue;
     }
 
+    /**
+     * Returns this color packed as 0xRRGGBB, without an alpha component.
+     */
+    public int rgbValue() {
+        return (r << 16) | (g << 8) | b;
+    }
+
     public int intValue() {
         return color().getRGB();
     }
@@ -135,23 +178,31 @@ public class ColorPixel {
     }
 
     public byte[] byteArrayValue() {
-        byte[] array = new byte[3];
-        for (int i = 0; i < 3; i++) {
-            array[i] = rgbVector().get(i).byteValue();
-        }
-        return array;
+        return new byte[]{(byte) r, (byte) g, (byte) b};
     }
 
     public double getSaturation() {
-        EasyVector rgb = rgbVector();
-        rgb.dividedBy(255);
-        double sum = rgb.stat(EasyVector.Stat.SUM);
-        if (sum == 0) sum = .0000001;
-        return 1.0 - 3.0 * rgb.stat(EasyVector.Stat.MIN) / sum;
+        return saturation(r, g, b);
+    }
+
+    /**
+     * Computes the HSI saturation, between 0 and 1, of the color with the given unsigned channel values.
+     */
+    public static double saturation(int r, int g, int b) {
+        int sum = r + g + b;
+        if (sum == 0) return 1.0;
+        return 1.0 - 3.0 * Math.min(r, Math.min(g, b)) / sum;
     }
 
     public double getIntensity() {
-        return rgbVector().stat(EasyVector.Stat.MEAN) / 255.0;
+        return intensity(r, g, b);
+    }
+
+    /**
+     * Computes the HSI intensity, between 0 and 1, of the color with the given unsigned channel values.
+     */
+    public static double intensity(int r, int g, int b) {
+        return (r + g + b) / (3 * 255.0);
     }
 
     @Override
@@ -1,8 +1,20 @@
 package org.bagrounds.java.easyimage;
 
+import org.bagrounds.java.easyimage.buffer.BinaryPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.CopyOnWritePixelBuffer;
+import org.bagrounds.java.easyimage.buffer.IndexedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PackedIntPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PlanarPixelBuffer;
+import org.bagrounds.java.easyimage.color.ColorSpace;
 import org.bagrounds.java.easyimage.geometry.BoundingBox;
 import org.bagrounds.java.easyimage.geometry.Interval;
 import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.math.IntVector;
+import org.bagrounds.java.easyimage.math.ImageSummary;
+import org.bagrounds.java.easyimage.math.IntegralImage;
+import org.bagrounds.java.easyimage.pipeline.Pipeline;
 import org.bagrounds.java.easyimage.processors.*;
 
 import javax.swing.*;
@@ -29,7 +41,25 @@ public class EasyImage {
     public boolean isGrayScale;
     public boolean isBW;
     public int pixelLength;
-    public byte[] pixelData;
+
+    /**
+     * Storage for the samples of this image. Replace it through setPixels, which keeps width, height and pixelLength in
+     * step with it.
+     */
+    public PixelBuffer pixels;
+
+    /**
+     * Counts the changes to the samples made through this image's methods and processors, so that results computed
+     * from the samples can be cached until it moves on.
+     */
+    private int modCount;
+    private IntegralImage integralImage;
+    private int integralImageModCount;
+    private ImageSummary summary;
+    private int summaryModCount;
+    private PlanarPixelBuffer colorPlanes;
+    private ColorSpace colorPlanesSpace;
+    private int colorPlanesModCount;
 
     public IOProcessor ioProcessor = new IOProcessor(this);
     public SearchProcessor searchProcessor = new SearchProcessor(this);
@@ -38,133 +68,333 @@ public class EasyImage {
     public ComparisonProcessor comparisonProcessor = new ComparisonProcessor(this);
     public ColorProcessor colorProcessor = new ColorProcessor(this);
     public StatisticProcessor statisticProcessor = new StatisticProcessor(this);
+    public ConvolutionProcessor convolutionProcessor = new ConvolutionProcessor(this);
+    public ColorSpaceProcessor colorSpaceProcessor = new ColorSpaceProcessor(this);
 
 
     public EasyImage() {
-        width = 1;
-        height = 1;
         hasAlphaChannel = false;
         isGrayScale = false;
         isBW = true;
-        pixelData = new byte[]{0};
+        setPixels(new InterleavedPixelBuffer(1, 1, 1));
     }
 
+    /**
+     * Wraps the raster of image. Int and byte rasters are both shared rather than copied, so the EasyImage and the
+     * BufferedImage see each other's changes.
+     */
     public EasyImage(BufferedImage image) {
-        boolean dataIsInt = image.getRaster().getDataBuffer() instanceof DataBufferInt;
-        width = image.getWidth();
-        height = image.getHeight();
+        int w = image.getWidth();
+        int h = image.getHeight();
         hasAlphaChannel = image.getAlphaRaster() != null;
-        pixelData = new byte[width * height * 3];
-
 
-        if (dataIsInt) {
-            DataBufferInt dataBufferInt = (DataBufferInt) image.getRaster().getDataBuffer();
-            int[] intData = dataBufferInt.getData();
-
-            int pos = 0;
-            for (int i = 0; pos < intData.length; i += 3, pos++) {
-                pixelData[i] = (byte) ((intData[pos] >> 16) & 0xFF); //red
-                pixelData[i + 1] = (byte) ((intData[pos] >> 8) & 0xFF); //green
-                pixelData[i + 2] = (byte) (intData[pos] & 0xFF); //blue
-            }
+        if (image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            int[] intData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            setPixels(new PackedIntPixelBuffer(w, h, 3, intData));
         } else {
-            pixelData = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            byte[] byteData = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            setPixels(new InterleavedPixelBuffer(w, h, byteData.length / (w * h), byteData));
         }
 
-        pixelLength = 3;
         image.flush();
     }
 
+    /**
+     * Wraps buffer without copying it. Single channel buffers are treated as gray scale.
+     */
+    public EasyImage(PixelBuffer buffer) {
+        hasAlphaChannel = false;
+        isGrayScale = buffer.channels == 1;
+        isBW = false;
+        setPixels(buffer);
+    }
+
     public EasyImage(EasyImage image) {
-        width = image.width;
-        height = image.height;
         hasAlphaChannel = image.hasAlphaChannel;
         isGrayScale = image.isGrayScale;
         isBW = image.isBW;
 
-        pixelLength = image.pixelLength;
-        pixelData = image.pixelData.clone();
+        setPixels(image.pixels.copy());
+    }
+
+    /**
+     * Replaces the storage of this image and updates width, height and pixelLength to match it.
+     */
+    public void setPixels(PixelBuffer buffer) {
+        modified();
+        pixels = buffer;
+        width = buffer.width;
+        height = buffer.height;
+        pixelLength = buffer.channels;
+    }
+
+    /**
+     * Returns the number of changes to the samples of this image so far. Changes made through the storage itself, such
+     * as writes to the array getPixelData returns or to another image sharing the samples, are only counted if the
+     * writer calls modified afterwards.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Records a change to the samples of this image, so that cached results such as the integral image are recomputed.
+     */
+    public void modified() {
+        modCount++;
+    }
+
+    /**
+     * Returns the summed-area tables of this image, computing them the first time and again after each change.
+     */
+    public IntegralImage getIntegralImage() {
+        if (integralImage == null || integralImageModCount != modCount) {
+            integralImage = new IntegralImage(pixels);
+            integralImageModCount = modCount;
+        }
+        return integralImage;
+    }
+
+    /**
+     * Returns the histograms and summary statistics of this image, counting them the first time and again after each
+     * change, so asking for the minimum, maximum, mode and histogram together reads the samples once.
+     */
+    public ImageSummary getSummary() {
+        if (summary == null || summaryModCount != modCount) {
+            summary = statisticProcessor.summarize();
+            summaryModCount = modCount;
+        }
+        return summary;
+    }
+
+    /**
+     * Returns this image in space, one plane per channel, converting it the first time and again after each change or
+     * when another space is asked for. The planes are shared with later callers, so they must not be written to.
+     */
+    public PlanarPixelBuffer getColorPlanes(ColorSpace space) {
+        if (colorPlanes == null || colorPlanesSpace != space || colorPlanesModCount != modCount) {
+            colorPlanes = colorSpaceProcessor.toPlanes(space);
+            colorPlanesSpace = space;
+            colorPlanesModCount = modCount;
+        }
+        return colorPlanes;
+    }
+
+    /**
+     * Returns a pipeline that records operations on this image and runs them together when its run method is called.
+     */
+    public Pipeline pipeline() {
+        return new Pipeline(this);
+    }
+
+    public PixelBuffer.Layout getLayout() {
+        return pixels.layout();
+    }
 
+    /**
+     * Converts the storage of this image to the given layout. Nothing is copied if it already has that layout.
+     */
+    public void setLayout(PixelBuffer.Layout layout) {
+        setPixels(PixelBuffer.convert(pixels, layout));
+    }
+
+    /**
+     * Returns the storage of this image as interleaved bytes, converting it first if it has another layout. The
+     * conversion replaces the storage, so repeated calls do not copy.
+     */
+    public InterleavedPixelBuffer interleaved() {
+        setLayout(PixelBuffer.Layout.INTERLEAVED);
+        return (InterleavedPixelBuffer) pixels;
+    }
+
+    /**
+     * Returns the storage of this image as one array per channel, converting it first if it has another layout.
+     */
+    public PlanarPixelBuffer planar() {
+        setLayout(PixelBuffer.Layout.PLANAR);
+        return (PlanarPixelBuffer) pixels;
+    }
+
+    /**
+     * Returns the storage of this image as one int per pixel, converting it first if it has another layout.
+     */
+    public PackedIntPixelBuffer packed() {
+        setLayout(PixelBuffer.Layout.PACKED_INT);
+        return (PackedIntPixelBuffer) pixels;
+    }
+
+    /**
+     * Returns the storage of this image as one bit per pixel, converting it first if it has another layout. Only
+     * single channel images can be converted, and every non-zero sample becomes 255.
+     */
+    public BinaryPixelBuffer binary() {
+        setLayout(PixelBuffer.Layout.BINARY);
+        return (BinaryPixelBuffer) pixels;
+    }
+
+    /**
+     * Returns the storage of this image as a palette and one index per pixel, converting it first if it has another
+     * layout. Only three channel images of at most 256 colors can be converted, and the conversion fails with
+     * IllegalStateException on the 257th. ColorProcessor.quantizeIndexed produces this layout directly.
+     */
+    public IndexedPixelBuffer indexed() {
+        setLayout(PixelBuffer.Layout.INDEXED);
+        return (IndexedPixelBuffer) pixels;
+    }
+
+    /**
+     * Returns the samples of this image as interleaved bytes: pixelLength bytes per pixel, pixels in row-major order.
+     * The array is the storage itself, so writes to it change the image. A view has gaps between its rows, so it is
+     * copied first and stops sharing samples with its parent. The caller may write to the array, so it counts as a
+     * change to the image.
+     */
+    public byte[] getPixelData() {
+        modified();
+        InterleavedPixelBuffer buffer = interleaved();
+        if (!buffer.isContiguous()) {
+            buffer = (InterleavedPixelBuffer) buffer.copy();
+            setPixels(buffer);
+        }
+        return buffer.data;
+    }
+
+    /**
+     * Replaces the samples of this image with data, which holds pixelLength interleaved bytes per pixel for an image of
+     * the current width and height.
+     */
+    public void setPixelData(byte[] data, int pixelLength) {
+        setPixels(new InterleavedPixelBuffer(width, height, pixelLength, data));
     }
 
     public void addBorder(int thickness) {
         int newWidth = width + thickness * 2;
         int newHeight = height + thickness * 2;
-        int newSize = (newWidth) * (newHeight) * pixelLength;
-
-        byte[] newPixelData = new byte[newSize];
-        EasyImage newImage = new EasyImage();
-        newImage.pixelData = newPixelData;
-        newImage.pixelLength = pixelLength;
-        newImage.width = newWidth;
-        newImage.height = newHeight;
-
-        for (int i = thickness, k = 0; i < width + thickness; i++, k++)
-            for (int j = thickness, l = 0; j < height + thickness; j++, l++) {
-                newImage.setPixelArray(i, j, this.getPixelArray(k, l));
-            }
-        pixelData = newImage.pixelData;
-        width = newWidth;
-        height = newHeight;
+
+        PixelBuffer bordered = pixels.create(newWidth, newHeight, pixelLength);
+        byte[] row = new byte[width * pixelLength];
+
+        for (int j = 0; j < height; j++) {
+            pixels.getRow(0, j, width, row, 0);
+            bordered.setRow(thickness, j + thickness, width, row, 0);
+        }
+        setPixels(bordered);
     }
 
-    public byte[] getPixelArray(int x, int y) {
-        byte[] pixel = new byte[pixelLength];
+    /**
+     * Returns a single sample of pixel (x, y) as an unsigned value between 0 and 255.
+     */
+    public int getChannel(int x, int y, int channel) {
+        return pixels.get(x, y, channel);
+    }
 
-        int pos = (y * pixelLength * width) + (x * pixelLength);
+    public void setChannel(int x, int y, int channel, int value) {
+        modCount++;
+        pixels.set(x, y, channel, value);
+    }
 
-        for (int i = 0; i < pixelLength; i++) {
-            pixel[i] = pixelData[pos];
-            pos++;
-        }
+    /**
+     * Returns pixel (x, y) packed into an int as 0xRRGGBB, where R, G and B are the first three channels.
+     * Single channel images replicate their value into all three positions.
+     * Unlike getPixelArray, this does not allocate.
+     */
+    public int getRGB(int x, int y) {
+        return pixels.getRGB(x, y);
+    }
+
+    /**
+     * Sets pixel (x, y) from a value packed as 0xRRGGBB. Single channel images store the R component.
+     */
+    public void setRGB(int x, int y, int rgb) {
+        modCount++;
+        pixels.setRGB(x, y, rgb);
+    }
+
+    /**
+     * Copies the samples of length pixels, starting at (x, y) and running along the row, into dst.
+     */
+    public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+        pixels.getRow(x, y, length, dst, dstOffset);
+    }
+
+    /**
+     * Copies the samples of length pixels from src into the row starting at (x, y).
+     */
+    public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+        modCount++;
+        pixels.setRow(x, y, length, src, srcOffset);
+    }
+
+    /**
+     * Returns true if every channel of pixel (x, y) equals value.
+     */
+    public boolean isColor(int x, int y, int value) {
+        for (int i = 0; i < pixelLength; i++)
+            if (pixels.get(x, y, i) != (value & 0xff)) return false;
+        return true;
+    }
+
+    public byte[] getPixelArray(int x, int y) {
+        byte[] pixel = new byte[pixelLength];
+        pixels.getRow(x, y, 1, pixel, 0);
         return pixel;
     }
 
     public void setPixelArray(int x, int y, byte[] value) {
+        modCount++;
         if (value.length == pixelLength) {
-            for (int i = 0; i < pixelLength; i++) {
-                pixelData[x * pixelLength + y * pixelLength * width + i] = value[i];
-            }
+            pixels.setRow(x, y, 1, value, 0);
         } else System.err.println("pixel length mismatch");
     }
 
+    /**
+     * Returns a copy of the part of this image inside box. Only that part is read, so for tiled images only the tiles
+     * it overlaps are loaded.
+     */
     public EasyImage getSubImage(BoundingBox box) {
-        EasyImage subImage = new EasyImage(this);
-        subImage.crop(box);
+        EasyImage subImage = getSubImageView(box);
+        subImage.detach();
         return subImage;
     }
 
+    /**
+     * Returns the part of this image inside box without copying it. The view and this image share samples, so
+     * processing the view in place changes this image too.
+     */
+    public EasyImage getSubImageView(BoundingBox box) {
+        return getSubImageView(box, false);
+    }
+
+    /**
+     * Returns the part of this image inside box without copying it. If copyOnWrite is set, the view reads this image
+     * until it is first written to, and copies its samples at that point so the write does not reach this image.
+     */
+    public EasyImage getSubImageView(BoundingBox box, boolean copyOnWrite) {
+        PixelBuffer view = pixels.view(box.xMin, box.yMin, box.width(), box.height());
+        if (copyOnWrite) view = new CopyOnWritePixelBuffer(view);
+
+        EasyImage subImage = new EasyImage(view);
+        subImage.hasAlphaChannel = hasAlphaChannel;
+        subImage.isGrayScale = isGrayScale;
+        subImage.isBW = isBW;
+        return subImage;
+    }
+
+    /**
+     * Shrinks this image to the part inside b. The remaining samples are not copied.
+     */
     public void crop(BoundingBox b) {
-        int newWidth = b.xMax - b.xMin;
-        int newHeight = b.yMax - b.yMin;
-        int newSize = (newWidth) * (newHeight) * pixelLength;
-        byte[] cropped = new byte[newSize];
-
-        //System.out.println( b + "area = " + b.area() );
-        //System.out.println( "pixel length = " + pixelLength );
-        //System.out.println("newWidth = " + newWidth + ", newHeight = " + newHeight + " newSize = " + newSize + " nw*nh = " + newWidth*newHeight );
-        //System.out.println("pixeldata length = " + pixelData.length);
-
-        int p1;
-        int p2;
-
-        for (int j = b.yMin, l = 0; j < b.yMax; j++, l++) {
-            for (int i = b.xMin, k = 0; i < b.xMax; i++, k++) {
-                for (int a = 0; a < pixelLength; a++) {
-                    p1 = ((k) + l * newWidth) * pixelLength + a;
-                    p2 = ((i) + j * width) * pixelLength + a;
-                    //System.out.print("(" + k + ", " + l/* + "..." +p1 + "," + p2*/ + ").");
-                    cropped[p1] = pixelData[p2];
-                }
-            }
-            //System.out.println();
-        }
-        this.width = newWidth;
-        this.height = newHeight;
-        this.pixelData = cropped;
+        setPixels(pixels.view(b.xMin, b.yMin, b.width(), b.height()));
+    }
+
+    /**
+     * Replaces the samples of this image with a private copy, so a view stops sharing them with its parent.
+     */
+    public void detach() {
+        setPixels(pixels.copy());
     }
 
     public void setSubImage(BoundingBox box, EasyImage img) {
+        modified();
         int w = box.width();
         int h = box.height();
 
@@ -176,69 +406,62 @@ public class EasyImage {
     }
 
     public void setSubImage(BoundingBox box, ColorPixel color) {
+        modified();
         int w = box.width();
         int h = box.height();
+        int rgb = color.rgbValue();
 
         for (int i = 0; i < w + box.xMin; i++) {
             for (int j = 0; j <= h + box.yMin; j++) {
-                setPixelArray(i + w, j + h, color.byteArrayValue());
+                setRGB(i + w, j + h, rgb);
             }
         }
     }
 
     int getPixel(int x, int y) {
-        int pos = (y * pixelLength * width) + (x * pixelLength);
-
         int argb = -16777216; // 255 alpha
 
         int p = pixelLength;
+        int c = 0;
 
         if (hasAlphaChannel && !isGrayScale && !isBW) {
-            argb = (((int) pixelData[pos++] & 0xff) << 24); // alpha
+            argb = pixels.get(x, y, c++) << 24; // alpha
             p = 3;
         }
 
         for (int i = 0; i < p; i++) {
-            argb += (((int) pixelData[pos++] & 0xff) << i * 8);
+            argb += pixels.get(x, y, c++) << i * 8;
         }
         return argb;
     }
 
     public void addNoise(int spacing) {
-        byte[] white = new byte[pixelLength];
-
-        for (int i = 0; i < pixelLength; i++)
-            white[i] = (byte) 255;
-
+        modified();
         for (int i = 0; i < width; i += spacing)
-            for (int j = 0; j < height; j += spacing) {
-                setPixelArray(i, j, white);
-            }
+            for (int j = 0; j < height; j += spacing)
+                for (int a = 0; a < pixelLength; a++) pixels.set(i, j, a, 255);
     }
 
     public void keepPixelsWithValues(byte[] values) {
-        boolean pixelIsValue = false;
-
-        for (int i = 0; i < pixelData.length; i++) {
-            if (pixelData[i] != 0) {
-                for (byte value : values)
-                    if (pixelData[i] == value) {
-                        pixelIsValue = true;
-                        break;
-                    }
-                if (!pixelIsValue) pixelData[i] = (byte) 0;
-                pixelIsValue = false;
-            }
-        }
+        byte[] lut = new byte[256];
+        for (byte value : values) lut[value & 0xff] = value;
+        modified();
+
+        pixels.applyLut(lut);
     }
 
     public void logicalAnd(EasyImage img) {
         if (img.width * img.height != width * height) throw new InvalidParameterException();
+        modified();
 
-        byte[] black = new byte[pixelLength];
+        if (pixels instanceof BinaryPixelBuffer && img.pixels instanceof BinaryPixelBuffer && img.width == width) {
+            ((BinaryPixelBuffer) pixels).and((BinaryPixelBuffer) img.pixels);
+            return;
+        }
         for (int i = 0; i < width; i++)
             for (int j = 0; j < height; j++)
-                if (img.isColor(img.getPixelArray(i, j), (byte) 0)) this.setPixelArray(i, j, black);
+                if (img.isColor(i, j, 0))
+                    for (int a = 0; a < pixelLength; a++) pixels.set(i, j, a, 0);
     }
 
     public boolean isColor(byte[] pixel, byte value) {
@@ -258,13 +481,20 @@ public class EasyImage {
     public void histNormalize() {
         //if (!isGrayScale) throw new InvalidParameterException();
 
-        double max = max();
-        double min = min();
-        max = max - min;
-        for (int i = 0; i < pixelData.length; i++) {
-            double value = pixelData[i] & 0xff;
-            pixelData[i] = (byte) Math.floor((value - min) * 255 / max);
-        }
+        pixels.applyLut(histNormalizeLut(min(), max()));
+        modified();
+    }
+
+    /**
+     * Returns the table histNormalize applies to an image whose samples range from min to max.
+     */
+    public static byte[] histNormalizeLut(int min, int max) {
+        double range = max - min;
+
+        byte[] lut = new byte[256];
+        for (int value = 0; value < 256; value++)
+            lut[value] = (byte) Math.floor((value - min) * 255 / range);
+        return lut;
     }
 
     public int min() {
@@ -276,21 +506,19 @@ public class EasyImage {
     }
 
     public void decimate(int factor) {
-        byte[] newPixelData = new byte[pixelData.length / factor];
-        EasyImage newImage = new EasyImage();
-        newImage.pixelData = newPixelData;
-        newImage.pixelLength = pixelLength;
-        newImage.width = width / factor;
-        newImage.height = height / factor;
-
-        for (int i = 0; i < width / factor; i++) {
-            for (int j = 0; j < height / factor; j++) {
-                newImage.setPixelArray(i, j, getPixelArray(i * factor, j * factor));
-            }
+        int newWidth = width / factor;
+        int newHeight = height / factor;
+        PixelBuffer decimated = pixels.create(newWidth, newHeight, pixelLength);
+        byte[] row = new byte[width * pixelLength];
+        byte[] newRow = new byte[newWidth * pixelLength];
+
+        for (int j = 0; j < newHeight; j++) {
+            pixels.getRow(0, j * factor, width, row, 0);
+            for (int i = 0; i < newWidth; i++)
+                System.arraycopy(row, i * factor * pixelLength, newRow, i * pixelLength, pixelLength);
+            decimated.setRow(0, j, newWidth, newRow, 0);
         }
-        width /= factor;
-        height /= factor;
-        pixelData = newImage.pixelData;
+        setPixels(decimated);
     }
 
     public void displayImage(String title) {
@@ -327,22 +555,16 @@ public class EasyImage {
     }
 
     private int[] getIntRGBRasterArray() {
-        int[] raster;
-        if (isBW) {
-            System.out.println("length = " + pixelData.length);
-            raster = new int[pixelData.length * 3];
-
-            for (int i = 0, j = 0; i < pixelData.length; i++) {
-                raster[j++] = pixelData[i] & 0xff;
-                raster[j++] = pixelData[i] & 0xff;
-                raster[j++] = pixelData[i] & 0xff;
-            }
-        } else {
-            raster = new int[pixelData.length];
-
-            for (int i = 0; i < pixelData.length; i++) {
-                raster[i] = pixelData[i] & 0xff;
-            }
+        int rowLength = width * pixelLength;
+        int copies = isBW ? 3 : 1;
+        int[] raster = new int[rowLength * height * copies];
+        byte[] row = new byte[rowLength];
+
+        for (int j = 0, k = 0; j < height; j++) {
+            pixels.getRow(0, j, width, row, 0);
+            for (int i = 0; i < rowLength; i++)
+                for (int c = 0; c < copies; c++)
+                    raster[k++] = row[i] & 0xff;
         }
         return raster;
     }
@@ -352,7 +574,15 @@ public class EasyImage {
         LinkedList<Interval> intervals = new LinkedList<Interval>();
         LinkedList<Interval> largeEnoughIntervals = new LinkedList<Interval>();
 
-        for (int i = 0; i < width; i++) if (getColumn(i).stat(EasyVector.Stat.SUM) == 0) intervals.add(new Interval(i, i));
+        if (!isBW && !isGrayScale) throw new IllegalArgumentException("unsupported for color images");
+        // one pass down the rows, rather than summed-area tables of every channel for the sake of one row of sums
+        long[] columnSums = new long[width];
+        byte[] row = new byte[width * pixelLength];
+        for (int j = 0; j < height; j++) {
+            pixels.getRow(0, j, width, row, 0);
+            for (int i = 0, k = 0; i < width; i++, k += pixelLength) columnSums[i] += row[k] & 0xff;
+        }
+        for (int i = 0; i < width; i++) if (columnSums[i] == 0) intervals.add(new Interval(i, i));
 
         for (int i = 0; i < intervals.size() - 1; i++)
             if (intervals.get(i).isAdjacentTo(intervals.get(i + 1)))
@@ -368,30 +598,51 @@ public class EasyImage {
 
     // comparison processing
 
+    /**
+     * @deprecated boxes every sample; use getColumnVector
+     */
+    @Deprecated
     public EasyVector getColumn(int col) {
-        EasyVector vector = new EasyVector();
+        return new EasyVector(getColumnVector(col).toArray());
+    }
+
+    /**
+     * Returns the samples of column col, top to bottom, for black and white or gray scale images.
+     */
+    public IntVector getColumnVector(int col) {
+        IntVector vector = new IntVector(height);
         if (col < 0 || col > width - 1) throw new IllegalArgumentException("coloumn out of easyimage bounds");
         if (!isBW && !isGrayScale) throw new IllegalArgumentException("unsupported for color images");
 
         for (int j = 0; j < height; j++) {
-            vector.add(getPixelArray(col, j)[0] & 0xff);
+            vector.add(getChannel(col, j, 0));
         }
         return vector;
     }
 
     public void flipVertical() {
-        byte[] temp;
+        int temp;
+        modified();
 
         for (int i = 0; i < width; i++)
-            for (int j = 0; j < height / 2; j++) {
-                temp = getPixelArray(i, j);
-                setPixelArray(i, j, getPixelArray(width - 1 - i, height - 1 - j));
-                setPixelArray(width - 1 - i, height - 1 - j, temp);
-            }
+            for (int j = 0; j < height / 2; j++)
+                for (int c = 0; c < pixelLength; c++) {
+                    temp = pixels.get(i, j, c);
+                    pixels.set(i, j, c, pixels.get(width - 1 - i, height - 1 - j, c));
+                    pixels.set(width - 1 - i, height - 1 - j, c, temp);
+                }
     }
 
     public boolean equals(EasyImage obj) {
-        return Arrays.equals(pixelData, obj.pixelData);
+        if (obj.width != width || obj.height != height || obj.pixelLength != pixelLength) return false;
+
+        byte[] row = new byte[width * pixelLength];
+        byte[] otherRow = new byte[width * pixelLength];
+        for (int j = 0; j < height; j++) {
+            pixels.getRow(0, j, width, row, 0);
+            obj.pixels.getRow(0, j, width, otherRow, 0);
+            if (!Arrays.equals(row, otherRow)) return false;
+        }
+        return true;
     }
 }
-
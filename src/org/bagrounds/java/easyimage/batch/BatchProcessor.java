@@ -0,0 +1,185 @@
+package org.bagrounds.java.easyimage.batch;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.pipeline.Pipeline;
+import org.bagrounds.java.easyimage.processors.IOProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads, processes and writes many image files concurrently. Every file runs as its own task, on a virtual thread where
+ * the runtime has them and on a pool of one thread per processor otherwise.
+ * <p/>
+ * The pixels in flight are bounded by memoryBudget. Before a file is decoded, its size is read from its header and
+ * bytesPerPixel bytes per pixel are reserved for it until it has been written. bytesPerPixel must cover the decoded
+ * image, the copies the operation makes and the encoder. A file larger than the whole budget runs on its own.
+ * <p/>
+ * A file that fails does not stop the batch. Its error is recorded in the report and the other files carry on.
+ */
+public class BatchProcessor {
+  /**
+   * covers the decoded and three channel copies made by IOProcessor.readImage, the int raster and image made by the
+   * encoder, and one more copy for the operation
+   */
+  public static final int DEFAULT_BYTES_PER_PIXEL = 24;
+
+  public final long memoryBudget;
+  public final int bytesPerPixel;
+  public final String format;
+
+  private Listener listener;
+
+  /**
+   * Writes PNG files and reserves DEFAULT_BYTES_PER_PIXEL bytes per pixel.
+   */
+  public BatchProcessor(long memoryBudget) {
+    this(memoryBudget, DEFAULT_BYTES_PER_PIXEL, "png");
+  }
+
+  /**
+   * @param memoryBudget  - bytes of pixel memory all files in flight may use together
+   * @param bytesPerPixel - bytes reserved per pixel of a file while it is in flight
+   * @param format        - ImageIO format name of the files written, which also becomes their extension
+   */
+  public BatchProcessor(long memoryBudget, int bytesPerPixel, String format) {
+    if (memoryBudget < 1 || bytesPerPixel < 1) throw new IllegalArgumentException("budget must be positive");
+    this.memoryBudget = memoryBudget;
+    this.bytesPerPixel = bytesPerPixel;
+    this.format = format;
+  }
+
+  public interface Listener {
+    /**
+     * Called from the task that processed a file, as soon as it is done.
+     */
+    void fileDone(BatchReport.FileResult result);
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the files in directory that ImageIO can read, judged by their extension, sorted by name.
+   */
+  public static List<File> listImages(File directory) {
+    Set<String> suffixes = new HashSet<String>();
+    for (String suffix : ImageIO.getReaderFileSuffixes()) suffixes.add(suffix.toLowerCase());
+
+    List<File> images = new ArrayList<File>();
+    File[] files = directory.listFiles();
+    if (files == null) return images;
+    Arrays.sort(files);
+    for (File file : files) {
+      String name = file.getName();
+      int dot = name.lastIndexOf('.');
+      if (file.isFile() && dot >= 0 && suffixes.contains(name.substring(dot + 1).toLowerCase())) images.add(file);
+    }
+    return images;
+  }
+
+  /**
+   * Reads every file in inputs, applies operation to it and writes the result to outputDirectory under the same name
+   * with the extension of the format. If outputDirectory is null nothing is written, which suits operations that only
+   * measure their images.
+   *
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the batch
+   */
+  public BatchReport process(List<File> inputs, final File outputDirectory, final Pipeline.Operation operation)
+      throws InterruptedException {
+    final int totalPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget >> 10));
+    final Semaphore memory = new Semaphore(totalPermits, true);
+    long start = System.nanoTime();
+
+    ExecutorService executor = newExecutor();
+    List<Future<BatchReport.FileResult>> futures = new ArrayList<Future<BatchReport.FileResult>>(inputs.size());
+    try {
+      for (final File input : inputs)
+        futures.add(executor.submit(new Callable<BatchReport.FileResult>() {
+          @Override
+          public BatchReport.FileResult call() throws InterruptedException {
+            BatchReport.FileResult result = processFile(input, outputDirectory, operation, memory, totalPermits);
+            if (listener != null) listener.fileDone(result);
+            return result;
+          }
+        }));
+
+      List<BatchReport.FileResult> results = new ArrayList<BatchReport.FileResult>(inputs.size());
+      for (Future<BatchReport.FileResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("batch task failed", e.getCause());
+        }
+      }
+      return new BatchReport(results, System.nanoTime() - start);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private BatchReport.FileResult processFile(File input, File outputDirectory, Pipeline.Operation operation,
+                                             Semaphore memory, int totalPermits) throws InterruptedException {
+    long start = System.nanoTime();
+    File output = outputDirectory == null ? null : new File(outputDirectory, outputName(input));
+    int width = 0;
+    int height = 0;
+    try {
+      Dimension size = IOProcessor.readSize(input);
+      width = size.width;
+      height = size.height;
+    } catch (Exception e) {
+      return new BatchReport.FileResult(input, output, width, height, System.nanoTime() - start, e);
+    }
+
+    long bytes = (long) width * height * bytesPerPixel;
+    int permits = (int) Math.min(totalPermits, Math.max(1, bytes >> 10));
+    memory.acquire(permits);
+    Throwable error = null;
+    try {
+      EasyImage image = IOProcessor.readImage(input);
+      operation.apply(image);
+      if (output != null) IOProcessor.writeImage(output, image, format);
+    } catch (Exception e) {
+      error = e;
+    } catch (OutOfMemoryError e) {
+      error = e;
+    } finally {
+      memory.release(permits);
+    }
+    return new BatchReport.FileResult(input, output, width, height, System.nanoTime() - start, error);
+  }
+
+  private String outputName(File input) {
+    String name = input.getName();
+    int dot = name.lastIndexOf('.');
+    return (dot > 0 ? name.substring(0, dot) : name) + "." + format;
+  }
+
+  /**
+   * Returns a virtual thread per task executor if the runtime has one, looked up by reflection so the library still
+   * runs on older versions, and a pool of one thread per processor otherwise.
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (Exception e) {
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package org.bagrounds.java.easyimage.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a batch: one FileResult per input, in input order, and the throughput of the batch as a whole.
+ */
+public class BatchReport {
+  public final List<FileResult> results;
+  public final long elapsedNanos;
+
+  public BatchReport(List<FileResult> results, long elapsedNanos) {
+    this.results = Collections.unmodifiableList(new ArrayList<FileResult>(results));
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * The outcome of a single file. error is null if it was read, processed and written without a problem.
+   */
+  public static class FileResult {
+    public final File input;
+    public final File output;
+    public final int width;
+    public final int height;
+    public final long nanos;
+    public final Throwable error;
+
+    public FileResult(File input, File output, int width, int height, long nanos, Throwable error) {
+      this.input = input;
+      this.output = output;
+      this.width = width;
+      this.height = height;
+      this.nanos = nanos;
+      this.error = error;
+    }
+
+    public boolean succeeded() {
+      return error == null;
+    }
+
+    @Override
+    public String toString() {
+      return input + (error == null ? " -> " + output : " failed: " + error) + " (" + nanos / 1000000 + " ms)";
+    }
+  }
+
+  public int succeeded() {
+    int count = 0;
+    for (FileResult result : results) if (result.succeeded()) count++;
+    return count;
+  }
+
+  public List<FileResult> failures() {
+    List<FileResult> failures = new ArrayList<FileResult>();
+    for (FileResult result : results) if (!result.succeeded()) failures.add(result);
+    return failures;
+  }
+
+  /**
+   * Returns the number of pixels in the images that were processed successfully.
+   */
+  public long pixels() {
+    long pixels = 0;
+    for (FileResult result : results) if (result.succeeded()) pixels += (long) result.width * result.height;
+    return pixels;
+  }
+
+  public double imagesPerSecond() {
+    return elapsedNanos == 0 ? 0 : succeeded() * 1e9 / elapsedNanos;
+  }
+
+  public double megapixelsPerSecond() {
+    return elapsedNanos == 0 ? 0 : pixels() * 1e3 / elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d of %d images in %.2f s, %.1f images/s, %.2f megapixels/s, %d failed",
+        succeeded(), results.size(), elapsedNanos / 1e9, imagesPerSecond(), megapixelsPerSecond(),
+        results.size() - succeeded());
+  }
+}
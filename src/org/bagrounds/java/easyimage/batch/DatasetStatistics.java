@@ -0,0 +1,84 @@
+package org.bagrounds.java.easyimage.batch;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.math.Histogram;
+import org.bagrounds.java.easyimage.math.ImageSummary;
+import org.bagrounds.java.easyimage.math.Moments;
+import org.bagrounds.java.easyimage.math.QuantileSketch;
+import org.bagrounds.java.easyimage.pipeline.Pipeline;
+
+/**
+ * Statistics of a whole collection of images, or of the frames of a video, gathered in one pass in memory that does
+ * not grow with the collection. Pass it to BatchProcessor.process as the operation, with no output directory, or apply
+ * it to each frame.
+ * <p/>
+ * Every image updates the sketches as it is processed and is then dropped, so nothing is kept per image. All sketches
+ * can be updated from many threads at once, and statistics gathered in parts, on different machines or for different
+ * days, merge into those of the whole in any order.
+ */
+public class DatasetStatistics implements Pipeline.Operation {
+  /**
+   * samples of all channels of all images
+   */
+  public final Histogram histogram = new Histogram();
+  /**
+   * hue of every pixel, in the 256 bins of StatisticProcessor.hueHistogram; only gathered if asked for
+   */
+  public final Histogram hue = new Histogram();
+  /**
+   * mean, variance and range of the samples of all channels of all images
+   */
+  public final Moments samples = new Moments();
+  /**
+   * the mean sample of each image, one value per image
+   */
+  public final QuantileSketch imageMeans;
+  public final boolean gathersHue;
+
+  /**
+   * Gathers everything but the hue histogram, which converts every pixel to hue and so costs more than the rest.
+   */
+  public DatasetStatistics() {
+    this(false, QuantileSketch.DEFAULT_K);
+  }
+
+  /**
+   * @param gathersHue - whether to gather the hue histogram
+   * @param k          - accuracy of imageMeans, see QuantileSketch
+   */
+  public DatasetStatistics(boolean gathersHue, int k) {
+    this.gathersHue = gathersHue;
+    imageMeans = new QuantileSketch(k);
+  }
+
+  @Override
+  public void apply(EasyImage image) {
+    ImageSummary summary = image.getSummary();
+    histogram.add(summary);
+    double sum = 0;
+    for (int c = 0; c < summary.channels; c++) {
+      samples.add(summary, c);
+      sum += summary.mean(c);
+    }
+    if (summary.count > 0) imageMeans.add(sum / summary.channels);
+    if (gathersHue) hue.add(image.statisticProcessor.hueHistogram());
+  }
+
+  /**
+   * Adds the statistics gathered by other.
+   */
+  public void merge(DatasetStatistics other) {
+    histogram.merge(other.histogram);
+    hue.merge(other.hue);
+    samples.merge(other.samples);
+    imageMeans.merge(other.imageMeans);
+  }
+
+  @Override
+  public String toString() {
+    if (samples.count() == 0) return "no samples";
+    return String.format("%d images, %d samples, mean %.2f, sd %.2f, median %d, 99th percentile %d, median image mean %.2f",
+        imageMeans.count(), samples.count(), samples.mean(), samples.standardDeviation(), histogram.quantile(0.5),
+        histogram.quantile(0.99), imageMeans.quantile(0.5));
+  }
+}
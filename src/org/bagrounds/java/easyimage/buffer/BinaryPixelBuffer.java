@@ -0,0 +1,251 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.util.Arrays;
+
+/**
+ * Stores a black and white image in one bit per pixel, 64 pixels to a long, an eighth of the memory of a single
+ * channel byte buffer. Samples read as 0 or 255 and any non-zero value is stored as 255.
+ * <p/>
+ * Pixel x of row y is bit x % 64 of words[y * wordsPerRow + x / 64], counting from the least significant bit. Every
+ * row starts on a new word and the bits past the end of a row are always 0, so whole words can be combined, shifted
+ * and counted without looking at the width. The logical operations, lookup tables, dilation and erosion, histograms and
+ * counts all work a word at a time.
+ */
+public class BinaryPixelBuffer extends PixelBuffer {
+  public final long[] words;
+  public final int wordsPerRow;
+  /**
+   * the bits of the last word of each row that hold pixels
+   */
+  private final long lastWordMask;
+
+  public BinaryPixelBuffer(int width, int height) {
+    this(width, height, new long[wordsPerRow(width) * height]);
+  }
+
+  /**
+   * Wraps words without copying it. The bits past the end of each row must be 0.
+   */
+  public BinaryPixelBuffer(int width, int height, long[] words) {
+    super(width, height, 1);
+    wordsPerRow = wordsPerRow(width);
+    if (words.length < wordsPerRow * height) throw new IllegalArgumentException("words too short for " + width + "x" + height);
+    this.words = words;
+    lastWordMask = width % 64 == 0 ? -1L : (1L << width % 64) - 1;
+  }
+
+  public static int wordsPerRow(int width) {
+    return (width + 63) >>> 6;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.BINARY;
+  }
+
+  public boolean isSet(int x, int y) {
+    return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return isSet(x, y) ? 255 : 0;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    int i = y * wordsPerRow + (x >>> 6);
+    if ((value & 0xff) != 0) words[i] |= 1L << x;
+    else words[i] &= ~(1L << x);
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    int row = y * wordsPerRow;
+    for (int i = 0; i < length; i++, x++)
+      dst[dstOffset + i] = (words[row + (x >>> 6)] & (1L << x)) != 0 ? (byte) 255 : 0;
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    int row = y * wordsPerRow;
+    if (x == 0 && length == width) {
+      for (int k = 0, p = srcOffset; k < wordsPerRow; k++) {
+        long word = 0;
+        for (int b = 0, end = Math.min(64, width - k * 64); b < end; b++, p++)
+          if (src[p] != 0) word |= 1L << b;
+        words[row + k] = word;
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) set(x + i, y, 0, src[srcOffset + i]);
+  }
+
+  /**
+   * Applies lut to the 0 and 255 a pixel can hold, which leaves each row cleared, set, unchanged or inverted.
+   */
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    boolean zero = lut[0] != 0;
+    boolean one = lut[255] != 0;
+    if (!zero && one) return;
+    if (zero && !one) {
+      invert();
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      int row = y * wordsPerRow;
+      Arrays.fill(words, row, row + wordsPerRow, one ? -1L : 0);
+      if (one && wordsPerRow > 0) words[row + wordsPerRow - 1] &= lastWordMask;
+    }
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    applyLut(0, lut);
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    long ones = count();
+    histogram[255] += (int) ones;
+    histogram[0] += (int) ((long) width * height - ones);
+  }
+
+  /**
+   * Returns the number of set pixels.
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0, end = wordsPerRow * height; i < end; i++) count += Long.bitCount(words[i]);
+    return count;
+  }
+
+  /**
+   * Returns the number of set pixels in row y.
+   */
+  public int count(int y) {
+    int count = 0;
+    for (int i = y * wordsPerRow, end = i + wordsPerRow; i < end; i++) count += Long.bitCount(words[i]);
+    return count;
+  }
+
+  public void invert() {
+    for (int y = 0; y < height; y++) {
+      int row = y * wordsPerRow;
+      for (int k = row; k < row + wordsPerRow; k++) words[k] = ~words[k];
+      if (wordsPerRow > 0) words[row + wordsPerRow - 1] &= lastWordMask;
+    }
+  }
+
+  /**
+   * Clears every pixel that is clear in other, which must have the same size.
+   */
+  public void and(BinaryPixelBuffer other) {
+    checkSize(other);
+    for (int i = 0, end = wordsPerRow * height; i < end; i++) words[i] &= other.words[i];
+  }
+
+  /**
+   * Sets every pixel that is set in other, which must have the same size.
+   */
+  public void or(BinaryPixelBuffer other) {
+    checkSize(other);
+    for (int i = 0, end = wordsPerRow * height; i < end; i++) words[i] |= other.words[i];
+  }
+
+  /**
+   * Flips every pixel that is set in other, which must have the same size.
+   */
+  public void xor(BinaryPixelBuffer other) {
+    checkSize(other);
+    for (int i = 0, end = wordsPerRow * height; i < end; i++) words[i] ^= other.words[i];
+  }
+
+  private void checkSize(BinaryPixelBuffer other) {
+    if (other.width != width || other.height != height) throw new IllegalArgumentException("buffer size mismatch");
+  }
+
+  /**
+   * largest distance dilate reaches by passes over words. A pass does 64 pixels at a time, and on a 1000 by 1000
+   * buffer about 150 of them cost as much as measuring the distances, so up to here the passes are cheaper.
+   */
+  static final int MAX_WORD_PASSES = 128;
+
+  /**
+   * Sets every pixel within a city block distance of n of a set pixel. Up to MAX_WORD_PASSES, that is one pass over the
+   * four direct neighbors of 64 pixels at a time for each step of distance; further than that, a threshold of the
+   * distances to the set pixels, which costs the same for any n. Pixels outside the buffer count as clear.
+   */
+  public void dilate(int n) {
+    if (n < 1 || height == 0 || wordsPerRow == 0) return;
+    if (n > MAX_WORD_PASSES) {
+      dilateByDistance(n);
+      return;
+    }
+    long[] above = new long[wordsPerRow];
+    long[] row = new long[wordsPerRow];
+    long[] swap;
+
+    for (int pass = 0; pass < n; pass++) {
+      Arrays.fill(above, 0);
+      System.arraycopy(words, 0, row, 0, wordsPerRow);
+      for (int y = 0; y < height; y++) {
+        int base = y * wordsPerRow;
+        int below = base + wordsPerRow;
+        boolean last = y == height - 1;
+        for (int k = 0; k < wordsPerRow; k++) {
+          long word = row[k];
+          long left = word << 1 | (k > 0 ? row[k - 1] >>> 63 : 0);
+          long right = word >>> 1 | (k < wordsPerRow - 1 ? row[k + 1] << 63 : 0);
+          words[base + k] = word | left | right | above[k] | (last ? 0 : words[below + k]);
+        }
+        words[base + wordsPerRow - 1] &= lastWordMask;
+
+        // the row just written becomes the row above, as it was before this pass
+        swap = above;
+        above = row;
+        row = swap;
+        if (!last) System.arraycopy(words, below, row, 0, wordsPerRow);
+      }
+    }
+  }
+
+  private void dilateByDistance(int n) {
+    ScratchPool pool = ScratchPool.get();
+    int cap = CityBlockDistance.cap(n, width, height);
+    int[] distances = pool.borrowInts(width * height);
+    byte[] row = pool.borrowBytes(width);
+    for (int y = 0; y < height; y++) {
+      getRow(0, y, width, row, 0);
+      CityBlockDistance.rowDistances(row, 0, width, 1, cap, distances, y * width);
+    }
+    CityBlockDistance.columnDistances(distances, width, height);
+    for (int y = 0; y < height; y++) {
+      CityBlockDistance.threshold(distances, y * width, width, cap, row, 0);
+      setRow(0, y, width, row, 0);
+    }
+    pool.giveBack(row);
+    pool.giveBack(distances);
+  }
+
+  /**
+   * Clears every pixel within a city block distance of n of a clear pixel. Pixels outside the buffer do not count.
+   */
+  public void erode(int n) {
+    invert();
+    dilate(n);
+    invert();
+  }
+
+  @Override
+  public PixelBuffer copy() {
+    return new BinaryPixelBuffer(width, height, Arrays.copyOf(words, wordsPerRow * height));
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    if (channels != 1) throw new IllegalArgumentException("binary buffers hold one channel");
+    return new BinaryPixelBuffer(width, height);
+  }
+}
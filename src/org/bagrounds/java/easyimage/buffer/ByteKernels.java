@@ -0,0 +1,196 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Loops over runs of unsigned bytes that work on eight of them at a time, packed into a long (SIMD within a register).
+ * Each byte of a long is handled as its own lane, with the carries and borrows kept from crossing into the next one,
+ * so the results are exactly those of the byte at a time loops they replace.
+ * <p/>
+ * Lookup tables are sorted into kinds when a Lut is made: tables that leave samples alone, tables that flip the same
+ * bits of every sample, such as invert, and tables with two outputs chosen by whether the sample lies in a range, such
+ * as the thresholds. Any other table falls back to one lookup per byte. Setting the system property
+ * easyimage.scalarKernels to true at startup makes every kernel use the byte at a time loop.
+ */
+public final class ByteKernels {
+  public static final boolean SCALAR = Boolean.getBoolean("easyimage.scalarKernels");
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH = 0x8080808080808080L;
+  private static final long LOW = 0x7f7f7f7f7f7f7f7fL;
+  private static final long EVEN = 0x00ff00ff00ff00ffL;
+  /**
+   * shorter runs are not worth wrapping in a ByteBuffer
+   */
+  private static final int MIN_WORDS = 2;
+  /**
+   * words summed into 16 bit lanes before they could overflow: 2 bytes of at most 255 per lane per word
+   */
+  private static final int SUM_WORDS = 128;
+
+  private ByteKernels() {
+  }
+
+  private static ByteBuffer wrap(byte[] data) {
+    return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns the high bit of each byte of x set where that byte is at least the matching byte of y, both unsigned.
+   */
+  static long atLeast(long x, long y) {
+    long xHigh = x & HIGH;
+    long yHigh = y & HIGH;
+    // (x & LOW | HIGH) - (y & LOW) cannot borrow across bytes, and keeps its high bit where the low 7 bits of x >= y
+    long lowAtLeast = ((x & LOW | HIGH) - (y & LOW)) & HIGH;
+    return xHigh & ~yHigh | ~(xHigh ^ yHigh) & lowAtLeast;
+  }
+
+  /**
+   * Spreads the high bit of each byte of x over the whole byte.
+   */
+  static long spread(long x) {
+    return ((x & HIGH) >>> 7) * 0xff;
+  }
+
+  /**
+   * Returns x - y for each byte, wrapping within the byte.
+   */
+  static long subtract(long x, long y) {
+    return ((x | HIGH) - (y & LOW)) ^ ((x ^ ~y) & HIGH);
+  }
+
+  /**
+   * Returns the sum of |a[i] - b[i]| over length unsigned bytes starting at aOffset and bOffset.
+   */
+  public static long sumAbsDiff(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+    return sumAbsDiff(a, aOffset, b, bOffset, length, SCALAR);
+  }
+
+  /**
+   * Same as sumAbsDiff(a, aOffset, b, bOffset, length), with the byte at a time loop if scalar is set, whatever SCALAR
+   * is, so that the two loops can be compared in one run.
+   */
+  static long sumAbsDiff(byte[] a, int aOffset, byte[] b, int bOffset, int length, boolean scalar) {
+    int words = scalar ? 0 : length >>> 3;
+    long sum = 0;
+    if (words >= MIN_WORDS) {
+      ByteBuffer aWords = wrap(a);
+      ByteBuffer bWords = wrap(b);
+      for (int w = 0; w < words; ) {
+        long lanes = 0;
+        for (int end = Math.min(words, w + SUM_WORDS); w < end; w++) {
+          long x = aWords.getLong(aOffset + 8 * w);
+          long y = bWords.getLong(bOffset + 8 * w);
+          long xBigger = spread(atLeast(x, y));
+          long difference = subtract(x, y) & xBigger | subtract(y, x) & ~xBigger;
+          lanes += (difference & EVEN) + (difference >>> 8 & EVEN);
+        }
+        sum += (lanes & 0xffff) + (lanes >>> 16 & 0xffff) + (lanes >>> 32 & 0xffff) + (lanes >>> 48);
+      }
+    } else {
+      words = 0;
+    }
+    for (int i = 8 * words; i < length; i++) sum += Math.abs((a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff));
+    return sum;
+  }
+
+  /**
+   * A lookup table, sorted into the kind of kernel that can apply it.
+   */
+  public static final class Lut {
+    enum Kind {IDENTITY, XOR, SELECT, TABLE}
+
+    public final byte[] table;
+    final Kind kind;
+    /**
+     * XOR: the bits flipped
+     */
+    private final long flip;
+    /**
+     * SELECT: samples in [from, to) map to inside, and the others to outside
+     */
+    private final int from;
+    private final int to;
+    private final long inside;
+    private final long outside;
+
+    public Lut(byte[] table) {
+      this.table = table;
+
+      int flip = table[0] & 0xff;
+      boolean identity = true;
+      boolean xor = true;
+      for (int v = 0; v < 256; v++) {
+        identity &= (table[v] & 0xff) == v;
+        xor &= ((table[v] & 0xff) ^ v) == flip;
+      }
+      Kind kind = identity ? Kind.IDENTITY : xor ? Kind.XOR : Kind.TABLE;
+      // ranges of signed samples need no case of their own: with the values taken in a circle, they are ranges of
+      // unsigned samples or the complement of one, and range finds both
+      int[] range = kind == Kind.TABLE ? range(table) : null;
+      if (range != null) kind = Kind.SELECT;
+      this.kind = kind;
+      this.flip = flip * ONES;
+      from = range == null ? 0 : range[0];
+      to = range == null ? 256 : range[1];
+      inside = (table[from] & 0xff) * ONES;
+      outside = (table[0] & 0xff) * ONES;
+    }
+
+    /**
+     * Returns {from, to} if table takes one value on the samples in [from, to) and another everywhere else, or {0, 256}
+     * if it takes a single value; otherwise null.
+     */
+    private static int[] range(byte[] table) {
+      byte first = table[0];
+      int change = 1;
+      while (change < 256 && table[change] == first) change++;
+      if (change == 256) return new int[]{0, 256};
+      byte second = table[change];
+      int back = change;
+      while (back < 256 && table[back] == second) back++;
+      for (int v = back; v < 256; v++) if (table[v] != first) return null;
+      return new int[]{change, back};
+    }
+
+    /**
+     * Applies the table to the bytes of data from start up to end.
+     */
+    public void apply(byte[] data, int start, int end) {
+      apply(data, start, end, SCALAR);
+    }
+
+    /**
+     * Same as apply(data, start, end), with the byte at a time loop if scalar is set, whatever SCALAR is.
+     */
+    void apply(byte[] data, int start, int end, boolean scalar) {
+      int words = (end - start) >>> 3;
+      if (scalar || kind == Kind.TABLE || words < MIN_WORDS) {
+        if (kind != Kind.IDENTITY)
+          for (int i = start; i < end; i++) data[i] = table[data[i] & 0xff];
+        return;
+      }
+      if (kind == Kind.IDENTITY) return;
+
+      ByteBuffer buffer = wrap(data);
+      int i = start;
+      if (kind == Kind.XOR) {
+        for (int w = 0; w < words; w++, i += 8) buffer.putLong(i, buffer.getLong(i) ^ flip);
+      } else {
+        long lower = from * ONES;
+        long upper = to * ONES;
+        boolean bounded = to < 256;
+        for (int w = 0; w < words; w++, i += 8) {
+          long x = buffer.getLong(i);
+          long in = atLeast(x, lower);
+          if (bounded) in &= ~atLeast(x, upper);
+          long mask = spread(in);
+          buffer.putLong(i, inside & mask | outside & ~mask);
+        }
+      }
+      for (; i < end; i++) data[i] = table[data[i] & 0xff];
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * The city block distance from every sample to the nearest non-zero sample of the same channel, computed in two
+ * separable steps of two sweeps each: along every row with rowDistances, then down and back up every column with
+ * columnDistances. Each sweep is a few operations per sample whatever the distances, and the result is exact, so
+ * dilating by a diamond of any radius n is a threshold of the distances at n.
+ * <p/>
+ * Distances are capped: anything at cap or beyond reads as cap, which also stands for channels with no non-zero sample.
+ * Rows are independent in the first step and can be computed on different threads.
+ */
+public final class CityBlockDistance {
+  private CityBlockDistance() {
+  }
+
+  /**
+   * Returns the cap for dilating a width by height image by n: n + 1, or less when no distance in the image can reach
+   * it, so the distances fit an int for any n.
+   */
+  public static int cap(int n, int width, int height) {
+    return (int) Math.min(n + 1L, (long) width + height);
+  }
+
+  /**
+   * Writes to dst from dstOffset the distance along the row from each sample of row, width pixels of channels
+   * interleaved samples from offset, to the nearest non-zero sample of the same channel in the row.
+   */
+  public static void rowDistances(byte[] row, int offset, int width, int channels, int cap, int[] dst,
+                                  int dstOffset) {
+    int rowLength = width * channels;
+    for (int c = 0; c < channels; c++) {
+      int run = cap;
+      for (int p = c; p < rowLength; p += channels) {
+        run = row[offset + p] != 0 ? 0 : Math.min(run + 1, cap);
+        dst[dstOffset + p] = run;
+      }
+      run = cap;
+      for (int p = rowLength - channels + c; p >= 0; p -= channels) {
+        run = Math.min(run + 1, dst[dstOffset + p]);
+        dst[dstOffset + p] = run;
+      }
+    }
+  }
+
+  /**
+   * Turns the row distances of height rows of rowLength samples each, as rowDistances wrote them to distances, into
+   * distances in the plane.
+   */
+  public static void columnDistances(int[] distances, int rowLength, int height) {
+    for (int y = 1; y < height; y++)
+      for (int p = y * rowLength, q = p - rowLength, end = p + rowLength; p < end; p++, q++)
+        if (distances[q] < distances[p] - 1) distances[p] = distances[q] + 1;
+    for (int y = height - 2; y >= 0; y--)
+      for (int p = y * rowLength, q = p + rowLength, end = p + rowLength; p < end; p++, q++)
+        if (distances[q] < distances[p] - 1) distances[p] = distances[q] + 1;
+  }
+
+  /**
+   * Writes to dst from dstOffset 255 for each of the length distances from offset that are below cap, and 0 for the
+   * others.
+   */
+  public static void threshold(int[] distances, int offset, int length, int cap, byte[] dst, int dstOffset) {
+    for (int i = 0; i < length; i++) dst[dstOffset + i] = distances[offset + i] < cap ? (byte) 255 : 0;
+  }
+}
@@ -0,0 +1,110 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * Reads through to another buffer, usually a view, until the first write, which first copies the samples so the write
+ * stays private. Until then changes made to the shared samples elsewhere are visible through this buffer too.
+ */
+public class CopyOnWritePixelBuffer extends PixelBuffer {
+  private volatile PixelBuffer target;
+  private volatile boolean copied;
+
+  public CopyOnWritePixelBuffer(PixelBuffer shared) {
+    super(shared.width, shared.height, shared.channels);
+    target = shared;
+  }
+
+  /**
+   * Returns true once a write has separated this buffer from the samples it was created on.
+   */
+  public boolean isCopied() {
+    return copied;
+  }
+
+  private PixelBuffer writable() {
+    if (!copied) {
+      synchronized (this) {
+        if (!copied) {
+          target = target.copy();
+          copied = true;
+        }
+      }
+    }
+    return target;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.VIEW;
+  }
+
+  @Override
+  public boolean allowsParallelRows() {
+    return target.allowsParallelRows();
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return target.get(x, y, channel);
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    writable().set(x, y, channel, value);
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return target.getRGB(x, y);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    writable().setRGB(x, y, rgb);
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    target.getRow(x, y, length, dst, dstOffset);
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    writable().setRow(x, y, length, src, srcOffset);
+  }
+
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    writable().applyLut(channel, lut);
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    writable().applyLut(lut);
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    target.histogram(channel, histogram);
+  }
+
+  @Override
+  public void histogram(int[] histogram) {
+    target.histogram(histogram);
+  }
+
+  @Override
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new CopyOnWritePixelBuffer(target.view(x, y, width, height));
+  }
+
+  @Override
+  public PixelBuffer copy() {
+    return target.copy();
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return target.create(width, height, channels);
+  }
+}
@@ -0,0 +1,200 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores interleaved samples outside the Java heap, either in direct memory or in a memory-mapped file. Sample
+ * positions are longs and the storage is split into chunks of CHUNK_SIZE bytes, so an image is not limited by the 2 GB
+ * size of a single array or ByteBuffer, and its pixels add nothing to garbage collection pauses.
+ * <p/>
+ * The memory is released when the buffer is garbage collected. Changes to a mapped buffer reach the file when the
+ * operating system writes them back, or when force is called.
+ */
+public class DirectPixelBuffer extends PixelBuffer {
+  public static final int CHUNK_SHIFT = 30;
+  public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final ByteBuffer[] chunks;
+
+  private DirectPixelBuffer(int width, int height, int channels, ByteBuffer[] chunks) {
+    super(width, height, channels);
+    this.chunks = chunks;
+  }
+
+  /**
+   * Allocates a zero-filled buffer in direct memory.
+   */
+  public static DirectPixelBuffer allocate(int width, int height, int channels) {
+    long size = (long) width * height * channels;
+    ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+    for (int i = 0; i < chunks.length; i++)
+      chunks[i] = ByteBuffer.allocateDirect(chunkLength(size, i));
+    return new DirectPixelBuffer(width, height, channels, chunks);
+  }
+
+  /**
+   * Maps a raw file of interleaved samples, with no header, straight into memory. A writable mapping grows the file to
+   * the size of the image if it is shorter, and writes to the buffer go to the file.
+   */
+  public static DirectPixelBuffer map(File file, int width, int height, int channels, boolean writable)
+      throws IOException {
+    long size = (long) width * height * channels;
+    RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+    try {
+      if (raf.length() < size) {
+        if (!writable)
+          throw new IOException(file + " is shorter than a " + width + "x" + height + "x" + channels + " image");
+        raf.setLength(size);
+      }
+      FileChannel channel = raf.getChannel();
+      FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+      ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+      for (int i = 0; i < chunks.length; i++)
+        chunks[i] = channel.map(mode, (long) i << CHUNK_SHIFT, chunkLength(size, i));
+      return new DirectPixelBuffer(width, height, channels, chunks);
+    } finally {
+      raf.close(); // mappings stay valid after the file is closed
+    }
+  }
+
+  private static int chunkCount(long size) {
+    return (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+  }
+
+  private static int chunkLength(long size, int chunk) {
+    return (int) Math.min(CHUNK_SIZE, size - ((long) chunk << CHUNK_SHIFT));
+  }
+
+  /**
+   * Writes any changes to a mapped buffer back to its file. Does nothing for buffers in direct memory.
+   */
+  public void force() {
+    for (ByteBuffer chunk : chunks)
+      if (chunk instanceof MappedByteBuffer) ((MappedByteBuffer) chunk).force();
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.DIRECT;
+  }
+
+  public long indexOf(int x, int y) {
+    return ((long) y * width + x) * channels;
+  }
+
+  private byte read(long index) {
+    return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+  }
+
+  private void write(long index, byte value) {
+    chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return read(indexOf(x, y) + channel) & 0xff;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    write(indexOf(x, y) + channel, (byte) value);
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    long index = indexOf(x, y);
+    int remaining = length * channels;
+    while (remaining > 0) {
+      int offset = (int) (index & CHUNK_MASK);
+      int n = Math.min(remaining, CHUNK_SIZE - offset);
+      ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)].duplicate();
+      chunk.position(offset);
+      chunk.get(dst, dstOffset, n);
+      index += n;
+      dstOffset += n;
+      remaining -= n;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    long index = indexOf(x, y);
+    int remaining = length * channels;
+    while (remaining > 0) {
+      int offset = (int) (index & CHUNK_MASK);
+      int n = Math.min(remaining, CHUNK_SIZE - offset);
+      ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)].duplicate();
+      chunk.position(offset);
+      chunk.put(src, srcOffset, n);
+      index += n;
+      srcOffset += n;
+      remaining -= n;
+    }
+  }
+
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    long start = channel;
+    for (ByteBuffer chunk : chunks) {
+      int limit = chunk.capacity();
+      // chunk sizes are not multiples of channels, so carry the sample position across chunks
+      int i = (int) (start & CHUNK_MASK);
+      for (; i < limit; i += channels) chunk.put(i, lut[chunk.get(i) & 0xff]);
+      start += i - (start & CHUNK_MASK);
+    }
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    for (ByteBuffer chunk : chunks) {
+      int limit = chunk.capacity();
+      for (int i = 0; i < limit; i++) chunk.put(i, lut[chunk.get(i) & 0xff]);
+    }
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    long start = channel;
+    for (ByteBuffer chunk : chunks) {
+      int limit = chunk.capacity();
+      int i = (int) (start & CHUNK_MASK);
+      for (; i < limit; i += channels) histogram[chunk.get(i) & 0xff]++;
+      start += i - (start & CHUNK_MASK);
+    }
+  }
+
+  @Override
+  public void histogram(int[] histogram) {
+    for (ByteBuffer chunk : chunks) {
+      int limit = chunk.capacity();
+      for (int i = 0; i < limit; i++) histogram[chunk.get(i) & 0xff]++;
+    }
+  }
+
+  /**
+   * Returns a copy in direct memory, even if this buffer is mapped from a file.
+   */
+  @Override
+  public PixelBuffer copy() {
+    DirectPixelBuffer copy = allocate(width, height, channels);
+    for (int i = 0; i < chunks.length; i++) {
+      ByteBuffer source = chunks[i].duplicate();
+      source.clear();
+      ByteBuffer target = copy.chunks[i].duplicate();
+      target.clear();
+      target.put(source);
+    }
+    return copy;
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return allocate(width, height, channels);
+  }
+}
@@ -0,0 +1,86 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes regions of an image file through ImageIO, producing three channel RGB samples like IOProcessor.loadImage.
+ * Only the requested region is kept in memory, although some formats still have to decode the rows above it.
+ */
+public class ImageIOTileSource implements TileSource {
+  private final File file;
+  private final int width;
+  private final int height;
+
+  public ImageIOTileSource(File file) throws IOException {
+    this.file = file;
+    ImageReader reader = open();
+    try {
+      width = reader.getWidth(0);
+      height = reader.getHeight(0);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private ImageReader open() throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(file);
+    if (input == null) throw new IOException("cannot read file: " + file);
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext()) {
+      input.close();
+      throw new IOException("no image reader for " + file);
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(input, true, true);
+    return reader;
+  }
+
+  private static void close(ImageReader reader) throws IOException {
+    Object input = reader.getInput();
+    reader.dispose();
+    if (input instanceof ImageInputStream) ((ImageInputStream) input).close();
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getChannels() {
+    return 3;
+  }
+
+  @Override
+  public void read(int x, int y, int w, int h, byte[] dst) throws IOException {
+    ImageReader reader = open();
+    try {
+      ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceRegion(new Rectangle(x, y, w, h));
+      BufferedImage region = reader.read(0, param);
+
+      int[] rgb = region.getRGB(0, 0, w, h, null, 0, w);
+      for (int i = 0, pos = 0; i < rgb.length; i++) {
+        dst[pos++] = (byte) (rgb[i] >> 16);
+        dst[pos++] = (byte) (rgb[i] >> 8);
+        dst[pos++] = (byte) rgb[i];
+      }
+      region.flush();
+    } finally {
+      close(reader);
+    }
+  }
+}
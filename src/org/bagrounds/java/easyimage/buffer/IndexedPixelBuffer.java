@@ -0,0 +1,253 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.util.Arrays;
+
+/**
+ * Stores a color image as a palette of at most 256 colors, packed as 0xRRGGBB, and one index into it per pixel: a
+ * byte, or half a byte when the palette can hold no more than 16 colors. That is a third or a sixth of the memory of
+ * interleaved storage. Reads go through the palette, so the buffer always has three channels.
+ * <p/>
+ * Lookup tables and histograms work on the palette and the counts of each index instead of on every pixel, and so does
+ * ColorProcessor.mapColors, which rewrites the palette entries rather than the pixels.
+ * <p/>
+ * Writing a color that is not in the palette adds it, and fails with IllegalStateException once the palette is full,
+ * so the processors that compute samples from several pixels, such as the neighborhood filters, convolutions, local
+ * thresholds and morphology, convert indexed images to interleaved storage first. Since any write may grow the
+ * palette, which all rows share, this buffer does not allow parallel rows.
+ * <p/>
+ * With 8 bits, the index of pixel x of row y is indices[y * rowBytes + x]. With 4 bits it is the low half of
+ * indices[y * rowBytes + x / 2] for even x and the high half for odd x, and every row starts on a new byte.
+ */
+public class IndexedPixelBuffer extends PixelBuffer {
+  public final int bitsPerIndex;
+  public final int rowBytes;
+  public final byte[] indices;
+  private int[] palette;
+  private int paletteSize;
+  /**
+   * the last color written and its index, which saves the search of the palette on runs of one color
+   */
+  private int lastColor = -1;
+  private int lastIndex;
+
+  /**
+   * Makes a buffer of index 0 everywhere.
+   *
+   * @param bitsPerIndex - 4 or 8
+   * @param palette      - the colors of the first entries of the palette, of which there may be up to 2^bitsPerIndex
+   */
+  public IndexedPixelBuffer(int width, int height, int bitsPerIndex, int... palette) {
+    this(width, height, bitsPerIndex, palette, new byte[rowBytes(width, bitsPerIndex) * height]);
+  }
+
+  /**
+   * Wraps indices without copying it. Every index must be less than palette.length.
+   */
+  public IndexedPixelBuffer(int width, int height, int bitsPerIndex, int[] palette, byte[] indices) {
+    super(width, height, 3);
+    if (bitsPerIndex != 4 && bitsPerIndex != 8)
+      throw new IllegalArgumentException("indices have 4 or 8 bits, not " + bitsPerIndex);
+    if (palette.length < 1 || palette.length > 1 << bitsPerIndex)
+      throw new IllegalArgumentException(bitsPerIndex + " bit indices address 1 to " + (1 << bitsPerIndex)
+          + " colors: " + palette.length);
+    this.bitsPerIndex = bitsPerIndex;
+    rowBytes = rowBytes(width, bitsPerIndex);
+    if (indices.length < rowBytes * height)
+      throw new IllegalArgumentException("indices too short for " + width + "x" + height);
+    this.indices = indices;
+    this.palette = new int[1 << bitsPerIndex];
+    for (int i = 0; i < palette.length; i++) this.palette[i] = palette[i] & 0xffffff;
+    paletteSize = palette.length;
+  }
+
+  public static int rowBytes(int width, int bitsPerIndex) {
+    return bitsPerIndex == 8 ? width : (width + 1) >>> 1;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.INDEXED;
+  }
+
+  @Override
+  public boolean allowsParallelRows() {
+    return false;
+  }
+
+  public int getIndex(int x, int y) {
+    if (bitsPerIndex == 8) return indices[y * rowBytes + x] & 0xff;
+    return (indices[y * rowBytes + (x >>> 1)] >> ((x & 1) << 2)) & 0xf;
+  }
+
+  public void setIndex(int x, int y, int index) {
+    if (index < 0 || index >= paletteSize) throw new IndexOutOfBoundsException(index + " of " + paletteSize);
+    if (bitsPerIndex == 8) {
+      indices[y * rowBytes + x] = (byte) index;
+    } else {
+      int i = y * rowBytes + (x >>> 1);
+      int shift = (x & 1) << 2;
+      indices[i] = (byte) ((indices[i] & ~(0xf << shift)) | (index << shift));
+    }
+  }
+
+  /**
+   * Copies the indices of length pixels, starting at (x, y) and running along the row, into dst.
+   */
+  public void getIndexRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    if (bitsPerIndex == 8) {
+      System.arraycopy(indices, y * rowBytes + x, dst, dstOffset, length);
+      return;
+    }
+    for (int i = 0; i < length; i++) dst[dstOffset + i] = (byte) getIndex(x + i, y);
+  }
+
+  public int paletteSize() {
+    return paletteSize;
+  }
+
+  /**
+   * Returns the color of a palette entry packed as 0xRRGGBB.
+   */
+  public int paletteColor(int index) {
+    if (index >= paletteSize) throw new IndexOutOfBoundsException(index + " of " + paletteSize);
+    return palette[index];
+  }
+
+  /**
+   * Changes the color of a palette entry, and so of every pixel with that index.
+   */
+  public void setPaletteColor(int index, int rgb) {
+    if (index >= paletteSize) throw new IndexOutOfBoundsException(index + " of " + paletteSize);
+    palette[index] = rgb & 0xffffff;
+    lastColor = -1;
+  }
+
+  /**
+   * Returns a copy of the palette.
+   */
+  public int[] palette() {
+    return Arrays.copyOf(palette, paletteSize);
+  }
+
+  /**
+   * Returns the index of the first palette entry of color rgb, adding an entry if there is none.
+   *
+   * @throws IllegalStateException if the color is new and the palette is full
+   */
+  public int indexOf(int rgb) {
+    rgb &= 0xffffff;
+    if (rgb == lastColor) return lastIndex;
+    int index = 0;
+    while (index < paletteSize && palette[index] != rgb) index++;
+    if (index == paletteSize) {
+      if (paletteSize == palette.length)
+        throw new IllegalStateException("the palette of " + paletteSize + " colors is full");
+      palette[paletteSize++] = rgb;
+    }
+    lastColor = rgb;
+    lastIndex = index;
+    return index;
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return (palette[getIndex(x, y)] >> (16 - 8 * channel)) & 0xff;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    int shift = 16 - 8 * channel;
+    setRGB(x, y, (getRGB(x, y) & ~(0xff << shift)) | ((value & 0xff) << shift));
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return palette[getIndex(x, y)];
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    setIndex(x, y, indexOf(rgb));
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    for (int i = 0; i < length; i++) {
+      int rgb = palette[getIndex(x + i, y)];
+      dst[dstOffset++] = (byte) (rgb >> 16);
+      dst[dstOffset++] = (byte) (rgb >> 8);
+      dst[dstOffset++] = (byte) rgb;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    for (int i = 0; i < length; i++, srcOffset += 3)
+      setIndex(x + i, y, indexOf(((src[srcOffset] & 0xff) << 16) | ((src[srcOffset + 1] & 0xff) << 8)
+          | (src[srcOffset + 2] & 0xff)));
+  }
+
+  /**
+   * Applies lut to the given channel of every palette entry, leaving the indices alone.
+   */
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    int shift = 16 - 8 * channel;
+    for (int i = 0; i < paletteSize; i++)
+      palette[i] = (palette[i] & ~(0xff << shift)) | ((lut[(palette[i] >> shift) & 0xff] & 0xff) << shift);
+    lastColor = -1;
+  }
+
+  /**
+   * Adds the number of pixels with each index to counts, which must have paletteSize entries at least.
+   */
+  public void indexHistogram(long[] counts) {
+    if (bitsPerIndex == 8) {
+      for (int y = 0; y < height; y++)
+        for (int i = y * rowBytes, end = i + width; i < end; i++) counts[indices[i] & 0xff]++;
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      int row = y * rowBytes;
+      for (int i = row, end = row + width / 2; i < end; i++) {
+        counts[indices[i] & 0xf]++;
+        counts[(indices[i] >> 4) & 0xf]++;
+      }
+      if ((width & 1) != 0) counts[indices[row + width / 2] & 0xf]++;
+    }
+  }
+
+  /**
+   * Counts the pixels of each index, then adds each count to the value of the channel in its palette entry.
+   */
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    long[] counts = new long[paletteSize];
+    indexHistogram(counts);
+    int shift = 16 - 8 * channel;
+    for (int i = 0; i < paletteSize; i++) histogram[(palette[i] >> shift) & 0xff] += (int) counts[i];
+  }
+
+  @Override
+  public void histogram(int[] histogram) {
+    long[] counts = new long[paletteSize];
+    indexHistogram(counts);
+    for (int i = 0; i < paletteSize; i++)
+      for (int shift = 16; shift >= 0; shift -= 8) histogram[(palette[i] >> shift) & 0xff] += (int) counts[i];
+  }
+
+  @Override
+  public PixelBuffer copy() {
+    return new IndexedPixelBuffer(width, height, bitsPerIndex, palette(), Arrays.copyOf(indices, rowBytes * height));
+  }
+
+  /**
+   * Returns an indexed buffer of black pixels with 8 bit indices. Other numbers of channels than 3 cannot be indexed,
+   * so for them it returns an interleaved buffer.
+   */
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    if (channels != 3) return new InterleavedPixelBuffer(width, height, channels);
+    return new IndexedPixelBuffer(width, height, 8, 0);
+  }
+}
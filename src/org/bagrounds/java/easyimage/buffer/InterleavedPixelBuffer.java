@@ -0,0 +1,161 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * Stores one byte per sample, with the channels of each pixel next to each other and the pixels in row-major order.
+ * This is the layout EasyImage has always used, and the one BufferedImage byte rasters use.
+ * <p/>
+ * Row y starts at data[offset + y * stride]. A buffer created by view shares data with its parent and only differs in
+ * offset, stride and size.
+ */
+public class InterleavedPixelBuffer extends PixelBuffer {
+  public final byte[] data;
+  public final int offset;
+  public final int stride;
+
+  public InterleavedPixelBuffer(int width, int height, int channels) {
+    this(width, height, channels, new byte[arraySize(width, height, channels)]);
+  }
+
+  private static int arraySize(int width, int height, int channels) {
+    long size = (long) width * height * channels;
+    if (size > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException(
+          width + "x" + height + "x" + channels + " does not fit in an array, use a DirectPixelBuffer");
+    return (int) size;
+  }
+
+  /**
+   * Wraps data without copying it.
+   */
+  public InterleavedPixelBuffer(int width, int height, int channels, byte[] data) {
+    this(width, height, channels, data, 0, width * channels);
+  }
+
+  /**
+   * Wraps data without copying it. Row y starts at data[offset + y * stride], and stride is counted in bytes.
+   */
+  public InterleavedPixelBuffer(int width, int height, int channels, byte[] data, int offset, int stride) {
+    super(width, height, channels);
+    if (height > 0 && data.length < offset + (height - 1) * stride + width * channels)
+      throw new IllegalArgumentException("pixel data too short for " + width + "x" + height + "x" + channels);
+    this.data = data;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.INTERLEAVED;
+  }
+
+  /**
+   * Returns true if the samples fill data from its start with no gaps between rows.
+   */
+  public boolean isContiguous() {
+    return offset == 0 && stride == width * channels;
+  }
+
+  public int indexOf(int x, int y) {
+    return offset + y * stride + x * channels;
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return data[indexOf(x, y) + channel] & 0xff;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    data[indexOf(x, y) + channel] = (byte) value;
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    int pos = indexOf(x, y);
+    if (channels < 3) {
+      int v = data[pos] & 0xff;
+      return (v << 16) | (v << 8) | v;
+    }
+    return ((data[pos] & 0xff) << 16) | ((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    int pos = indexOf(x, y);
+    data[pos] = (byte) (rgb >> 16);
+    if (channels >= 3) {
+      data[pos + 1] = (byte) (rgb >> 8);
+      data[pos + 2] = (byte) rgb;
+    }
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    System.arraycopy(data, indexOf(x, y), dst, dstOffset, length * channels);
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    System.arraycopy(src, srcOffset, data, indexOf(x, y), length * channels);
+  }
+
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    if (channels == 1) {
+      applyLut(lut);
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      int start = indexOf(0, y);
+      for (int i = start + channel, end = start + width * channels; i < end; i += channels)
+        data[i] = lut[data[i] & 0xff];
+    }
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    ByteKernels.Lut kernel = new ByteKernels.Lut(lut);
+    if (isContiguous()) {
+      kernel.apply(data, 0, width * channels * height);
+      return;
+    }
+    for (int y = 0; y < height; y++) kernel.apply(data, indexOf(0, y), indexOf(0, y) + width * channels);
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    for (int y = 0; y < height; y++) {
+      int start = indexOf(0, y);
+      for (int i = start + channel, end = start + width * channels; i < end; i += channels)
+        histogram[data[i] & 0xff]++;
+    }
+  }
+
+  @Override
+  public void histogram(int[] histogram) {
+    for (int y = 0; y < height; y++)
+      for (int i = indexOf(0, y), end = i + width * channels; i < end; i++) histogram[data[i] & 0xff]++;
+  }
+
+  @Override
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new InterleavedPixelBuffer(width, height, channels, data, indexOf(x, y), stride);
+  }
+
+  /**
+   * Returns an independent, contiguous copy of this buffer.
+   */
+  @Override
+  public PixelBuffer copy() {
+    int rowLength = width * channels;
+    byte[] copy = new byte[rowLength * height];
+    for (int y = 0; y < height; y++) System.arraycopy(data, indexOf(0, y), copy, y * rowLength, rowLength);
+    return new InterleavedPixelBuffer(width, height, channels, copy);
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return new InterleavedPixelBuffer(width, height, channels);
+  }
+}
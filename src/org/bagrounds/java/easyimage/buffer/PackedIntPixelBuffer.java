@@ -0,0 +1,155 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * Stores each pixel in one int as 0xRRGGBB, the same layout as a TYPE_INT_RGB or TYPE_INT_ARGB BufferedImage. Whole
+ * colors are read and compared with a single load, which suits color keying. Bits above the color, such as an alpha
+ * channel, are left untouched by writes.
+ * <p/>
+ * A single channel buffer keeps its value in the low byte and replicates it into the other two on writes, so getRGB
+ * returns a gray color either way.
+ * <p/>
+ * Row y starts at data[offset + y * stride]. A buffer created by view shares data with its parent.
+ */
+public class PackedIntPixelBuffer extends PixelBuffer {
+  public final int[] data;
+  public final int offset;
+  public final int stride;
+
+  public PackedIntPixelBuffer(int width, int height, int channels) {
+    this(width, height, channels, new int[width * height]);
+  }
+
+  /**
+   * Wraps data without copying it.
+   */
+  public PackedIntPixelBuffer(int width, int height, int channels, int[] data) {
+    this(width, height, channels, data, 0, width);
+  }
+
+  /**
+   * Wraps data without copying it. Row y starts at data[offset + y * stride].
+   */
+  public PackedIntPixelBuffer(int width, int height, int channels, int[] data, int offset, int stride) {
+    super(width, height, channels);
+    if (channels != 1 && channels != 3) throw new IllegalArgumentException("packed pixels hold 1 or 3 channels");
+    if (height > 0 && data.length < offset + (height - 1) * stride + width)
+      throw new IllegalArgumentException("pixel data too short for " + width + "x" + height);
+    this.data = data;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.PACKED_INT;
+  }
+
+  public boolean isContiguous() {
+    return offset == 0 && stride == width;
+  }
+
+  public int indexOf(int x, int y) {
+    return offset + y * stride + x;
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return (data[indexOf(x, y)] >> (16 - 8 * channel)) & 0xff;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    int pos = indexOf(x, y);
+    if (channels == 1) {
+      int v = value & 0xff;
+      data[pos] = (data[pos] & 0xff000000) | (v << 16) | (v << 8) | v;
+    } else {
+      int shift = 16 - 8 * channel;
+      data[pos] = (data[pos] & ~(0xff << shift)) | ((value & 0xff) << shift);
+    }
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return data[indexOf(x, y)] & 0xffffff;
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    int pos = indexOf(x, y);
+    if (channels == 1) {
+      int v = (rgb >> 16) & 0xff;
+      rgb = (v << 16) | (v << 8) | v;
+    }
+    data[pos] = (data[pos] & 0xff000000) | (rgb & 0xffffff);
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    int start = indexOf(x, y);
+    if (channels == 1) {
+      for (int i = 0; i < length; i++) dst[dstOffset + i] = (byte) data[start + i];
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      int rgb = data[start + i];
+      dst[dstOffset++] = (byte) (rgb >> 16);
+      dst[dstOffset++] = (byte) (rgb >> 8);
+      dst[dstOffset++] = (byte) rgb;
+    }
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    int start = indexOf(x, y);
+    if (channels == 1) {
+      for (int i = 0; i < length; i++) {
+        int v = src[srcOffset + i] & 0xff;
+        data[start + i] = (data[start + i] & 0xff000000) | (v << 16) | (v << 8) | v;
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      int rgb = ((src[srcOffset] & 0xff) << 16) | ((src[srcOffset + 1] & 0xff) << 8) | (src[srcOffset + 2] & 0xff);
+      srcOffset += 3;
+      data[start + i] = (data[start + i] & 0xff000000) | rgb;
+    }
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    for (int y = 0; y < height; y++)
+      for (int i = indexOf(0, y), end = i + width; i < end; i++) {
+        int p = data[i];
+        data[i] = (p & 0xff000000)
+            | ((lut[(p >> 16) & 0xff] & 0xff) << 16)
+            | ((lut[(p >> 8) & 0xff] & 0xff) << 8)
+            | (lut[p & 0xff] & 0xff);
+      }
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    int shift = 16 - 8 * channel;
+    for (int y = 0; y < height; y++)
+      for (int i = indexOf(0, y), end = i + width; i < end; i++) histogram[(data[i] >> shift) & 0xff]++;
+  }
+
+  @Override
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new PackedIntPixelBuffer(width, height, channels, data, indexOf(x, y), stride);
+  }
+
+  @Override
+  public PixelBuffer copy() {
+    int[] copy = new int[width * height];
+    for (int y = 0; y < height; y++) System.arraycopy(data, indexOf(0, y), copy, y * width, width);
+    return new PackedIntPixelBuffer(width, height, channels, copy);
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return new PackedIntPixelBuffer(width, height, channels);
+  }
+}
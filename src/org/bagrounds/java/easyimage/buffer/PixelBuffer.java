@@ -0,0 +1,240 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * Storage for the samples of an image. Pixels are addressed by (x, y) and samples by channel, whatever layout the
+ * subclass uses in memory. The row methods always copy samples in interleaved order, so code that works a row at a time
+ * runs on every layout without knowing which one it has.
+ * <p/>
+ * The default implementations go through get and set. Subclasses override them where their layout allows a tighter
+ * loop.
+ */
+public abstract class PixelBuffer {
+  public final int width;
+  public final int height;
+  public final int channels;
+
+  protected PixelBuffer(int width, int height, int channels) {
+    if (width < 0 || height < 0 || channels < 1)
+      throw new IllegalArgumentException(width + "x" + height + "x" + channels);
+    this.width = width;
+    this.height = height;
+    this.channels = channels;
+  }
+
+  public abstract Layout layout();
+
+  /**
+   * Returns a sample as an unsigned value between 0 and 255.
+   */
+  public abstract int get(int x, int y, int channel);
+
+  /**
+   * Stores the low 8 bits of value as a sample.
+   */
+  public abstract void set(int x, int y, int channel, int value);
+
+  /**
+   * Returns an independent copy of this buffer in the same layout.
+   */
+  public abstract PixelBuffer copy();
+
+  /**
+   * Returns a new zero-filled buffer of the given size in the same layout as this one.
+   */
+  public abstract PixelBuffer create(int width, int height, int channels);
+
+  /**
+   * Returns true if different threads may read and write disjoint rows of this buffer at the same time and gain from
+   * it. Buffers that serialize their access return false.
+   */
+  public boolean allowsParallelRows() {
+    return true;
+  }
+
+  public long sampleCount() {
+    return (long) width * height * channels;
+  }
+
+  /**
+   * Returns pixel (x, y) packed as 0xRRGGBB. Single channel buffers replicate their value into all three positions.
+   */
+  public int getRGB(int x, int y) {
+    if (channels < 3) {
+      int v = get(x, y, 0);
+      return (v << 16) | (v << 8) | v;
+    }
+    return (get(x, y, 0) << 16) | (get(x, y, 1) << 8) | get(x, y, 2);
+  }
+
+  /**
+   * Sets pixel (x, y) from a value packed as 0xRRGGBB. Single channel buffers store the R component.
+   */
+  public void setRGB(int x, int y, int rgb) {
+    set(x, y, 0, rgb >> 16);
+    if (channels >= 3) {
+      set(x, y, 1, rgb >> 8);
+      set(x, y, 2, rgb);
+    }
+  }
+
+  /**
+   * Copies the samples of length pixels, starting at (x, y) and running along the row, into dst in interleaved order.
+   */
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    for (int i = 0; i < length; i++)
+      for (int c = 0; c < channels; c++)
+        dst[dstOffset++] = (byte) get(x + i, y, c);
+  }
+
+  /**
+   * Copies the interleaved samples of length pixels from src into the row starting at (x, y).
+   */
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    for (int i = 0; i < length; i++)
+      for (int c = 0; c < channels; c++)
+        set(x + i, y, c, src[srcOffset++]);
+  }
+
+  /**
+   * Replaces every sample s of the given channel with lut[s].
+   */
+  public void applyLut(int channel, byte[] lut) {
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        set(x, y, channel, lut[get(x, y, channel)]);
+  }
+
+  /**
+   * Replaces every sample s with lut[s].
+   */
+  public void applyLut(byte[] lut) {
+    for (int c = 0; c < channels; c++) applyLut(c, lut);
+  }
+
+  /**
+   * Adds the number of samples of the given channel with each value to histogram, which must have 256 entries.
+   */
+  public void histogram(int channel, int[] histogram) {
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        histogram[get(x, y, channel)]++;
+  }
+
+  /**
+   * Adds the number of samples of every channel with each value to histogram, which must have 256 entries.
+   */
+  public void histogram(int[] histogram) {
+    for (int c = 0; c < channels; c++) histogram(c, histogram);
+  }
+
+  /**
+   * Returns a buffer for the width by height region whose top left corner is (x, y). The view shares its samples with
+   * this buffer, so writes through either one are seen by both, and creating it copies nothing.
+   */
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new SubPixelBuffer(this, x, y, width, height);
+  }
+
+  protected void checkView(int x, int y, int width, int height) {
+    if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height)
+      throw new IndexOutOfBoundsException(
+          width + "x" + height + " at (" + x + ", " + y + ") is outside " + this.width + "x" + this.height);
+  }
+
+  /**
+   * Overwrites this buffer with the samples of src, which must have the same dimensions.
+   */
+  public void copyFrom(PixelBuffer src) {
+    if (src.width != width || src.height != height || src.channels != channels)
+      throw new IllegalArgumentException("buffer size mismatch");
+
+    byte[] row = new byte[width * channels];
+    for (int y = 0; y < height; y++) {
+      src.getRow(0, y, width, row, 0);
+      setRow(0, y, width, row, 0);
+    }
+  }
+
+  /**
+   * Returns src in the requested layout. src itself is returned if it already has that layout, and single channel
+   * buffers share their array between the interleaved and planar layouts, so neither case copies.
+   */
+  public static PixelBuffer convert(PixelBuffer src, Layout layout) {
+    if (src.layout() == layout) return src;
+
+    if (layout == Layout.INTERLEAVED && src instanceof PlanarPixelBuffer && src.channels == 1) {
+      PlanarPixelBuffer planar = (PlanarPixelBuffer) src;
+      return new InterleavedPixelBuffer(src.width, src.height, 1, planar.planes[0], planar.offset, planar.stride);
+    }
+    if (layout == Layout.PLANAR && src instanceof InterleavedPixelBuffer && src.channels == 1) {
+      InterleavedPixelBuffer interleaved = (InterleavedPixelBuffer) src;
+      return new PlanarPixelBuffer(src.width, src.height, new byte[][]{interleaved.data},
+          interleaved.offset, interleaved.stride);
+    }
+
+    PixelBuffer result = allocate(layout, src.width, src.height, src.channels);
+    result.copyFrom(src);
+    return result;
+  }
+
+  /**
+   * Returns a new zero-filled buffer in the given layout. Tiled buffers and views need more than a size, so they
+   * cannot be allocated this way.
+   */
+  public static PixelBuffer allocate(Layout layout, int width, int height, int channels) {
+    switch (layout) {
+      case INTERLEAVED:
+        return new InterleavedPixelBuffer(width, height, channels);
+      case PLANAR:
+        return new PlanarPixelBuffer(width, height, channels);
+      case PACKED_INT:
+        return new PackedIntPixelBuffer(width, height, channels);
+      case DIRECT:
+        return DirectPixelBuffer.allocate(width, height, channels);
+      case BINARY:
+        if (channels != 1) throw new IllegalArgumentException("binary buffers hold one channel, not " + channels);
+        return new BinaryPixelBuffer(width, height);
+      case INDEXED:
+        if (channels != 3) throw new IllegalArgumentException("indexed buffers hold three channels, not " + channels);
+        return new IndexedPixelBuffer(width, height, 8, 0);
+      default:
+        throw new IllegalArgumentException("cannot allocate a " + layout + " buffer");
+    }
+  }
+
+  public enum Layout {
+    /**
+     * one byte per sample, the samples of each pixel stored next to each other
+     */
+    INTERLEAVED,
+    /**
+     * one byte array per channel
+     */
+    PLANAR,
+    /**
+     * one int per pixel holding up to three channels as 0xRRGGBB
+     */
+    PACKED_INT,
+    /**
+     * interleaved bytes outside the heap, in direct memory or a mapped file, addressed by long positions
+     */
+    DIRECT,
+    /**
+     * one bit per pixel of a single channel, 64 pixels to a long, read back as 0 or 255
+     */
+    BINARY,
+    /**
+     * a palette of up to 256 colors and one 8 or 4 bit index into it per pixel
+     */
+    INDEXED,
+    /**
+     * interleaved tiles loaded on demand and held in a bounded cache
+     */
+    TILED,
+    /**
+     * a window onto another buffer, whatever its layout
+     */
+    VIEW
+  }
+}
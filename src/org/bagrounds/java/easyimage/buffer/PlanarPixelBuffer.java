@@ -0,0 +1,118 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * Stores each channel in its own byte array, in row-major order. Loops over a single channel then read one
+ * contiguous array, which suits per-channel statistics.
+ * <p/>
+ * Row y of every plane starts at offset + y * stride. A buffer created by view shares the planes of its parent.
+ */
+public class PlanarPixelBuffer extends PixelBuffer {
+  public final byte[][] planes;
+  public final int offset;
+  public final int stride;
+
+  public PlanarPixelBuffer(int width, int height, int channels) {
+    this(width, height, new byte[channels][width * height]);
+  }
+
+  /**
+   * Wraps planes without copying them. There is one plane per channel.
+   */
+  public PlanarPixelBuffer(int width, int height, byte[][] planes) {
+    this(width, height, planes, 0, width);
+  }
+
+  /**
+   * Wraps planes without copying them. Row y of each plane starts at offset + y * stride.
+   */
+  public PlanarPixelBuffer(int width, int height, byte[][] planes, int offset, int stride) {
+    super(width, height, planes.length);
+    for (byte[] plane : planes)
+      if (height > 0 && plane.length < offset + (height - 1) * stride + width)
+        throw new IllegalArgumentException("plane too short for " + width + "x" + height);
+    this.planes = planes;
+    this.offset = offset;
+    this.stride = stride;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.PLANAR;
+  }
+
+  public boolean isContiguous() {
+    return offset == 0 && stride == width;
+  }
+
+  public int indexOf(int x, int y) {
+    return offset + y * stride + x;
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return planes[channel][indexOf(x, y)] & 0xff;
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    planes[channel][indexOf(x, y)] = (byte) value;
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    int start = indexOf(x, y);
+    if (channels == 1) {
+      System.arraycopy(planes[0], start, dst, dstOffset, length);
+      return;
+    }
+    for (int c = 0; c < channels; c++) {
+      byte[] plane = planes[c];
+      for (int i = 0, pos = dstOffset + c; i < length; i++, pos += channels) dst[pos] = plane[start + i];
+    }
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    int start = indexOf(x, y);
+    if (channels == 1) {
+      System.arraycopy(src, srcOffset, planes[0], start, length);
+      return;
+    }
+    for (int c = 0; c < channels; c++) {
+      byte[] plane = planes[c];
+      for (int i = 0, pos = srcOffset + c; i < length; i++, pos += channels) plane[start + i] = src[pos];
+    }
+  }
+
+  @Override
+  public void applyLut(int channel, byte[] lut) {
+    ByteKernels.Lut kernel = new ByteKernels.Lut(lut);
+    for (int y = 0; y < height; y++) kernel.apply(planes[channel], indexOf(0, y), indexOf(0, y) + width);
+  }
+
+  @Override
+  public void histogram(int channel, int[] histogram) {
+    byte[] plane = planes[channel];
+    for (int y = 0; y < height; y++)
+      for (int i = indexOf(0, y), end = i + width; i < end; i++) histogram[plane[i] & 0xff]++;
+  }
+
+  @Override
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new PlanarPixelBuffer(width, height, planes, indexOf(x, y), stride);
+  }
+
+  @Override
+  public PixelBuffer copy() {
+    byte[][] copy = new byte[channels][width * height];
+    for (int c = 0; c < channels; c++)
+      for (int y = 0; y < height; y++) System.arraycopy(planes[c], indexOf(0, y), copy[c], y * width, width);
+    return new PlanarPixelBuffer(width, height, copy);
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return new PlanarPixelBuffer(width, height, channels);
+  }
+}
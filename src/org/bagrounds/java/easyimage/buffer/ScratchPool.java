@@ -0,0 +1,122 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.util.ArrayList;
+
+/**
+ * Arrays and buffers for temporary use, kept per thread, so an operation repeated on images of the same size allocates
+ * nothing once its thread's pool is warm. Two buffers of one size and layout can be borrowed together and used as
+ * ping-pong buffers, each pass reading one and writing the other.
+ * <p/>
+ * Whatever is borrowed should be given back on the thread that borrowed it once it is no longer used, and must not be
+ * used afterwards. Nothing is cleared in between, so a borrowed array holds whatever its last user left in it. Only
+ * MAX_PER_SIZE items of each size and MAX_RETAINED_BYTES bytes in all are kept; anything beyond that is left to the
+ * garbage collector.
+ */
+public final class ScratchPool {
+  public static final int MAX_PER_SIZE = 4;
+  public static final long MAX_RETAINED_BYTES = 64L << 20;
+
+  private static final ThreadLocal<ScratchPool> POOLS = new ThreadLocal<ScratchPool>() {
+    @Override
+    protected ScratchPool initialValue() {
+      return new ScratchPool();
+    }
+  };
+
+  // a handful of items, so a scan costs less than a map and allocates no keys or iterators
+  private final ArrayList<byte[]> bytes = new ArrayList<byte[]>();
+  private final ArrayList<int[]> ints = new ArrayList<int[]>();
+  private final ArrayList<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+  private long retained;
+
+  private ScratchPool() {
+  }
+
+  /**
+   * Returns the pool of the calling thread.
+   */
+  public static ScratchPool get() {
+    return POOLS.get();
+  }
+
+  /**
+   * Returns an array of exactly length bytes.
+   */
+  public byte[] borrowBytes(int length) {
+    for (int i = bytes.size() - 1; i >= 0; i--)
+      if (bytes.get(i).length == length) {
+        retained -= length;
+        return bytes.remove(i);
+      }
+    return new byte[length];
+  }
+
+  public void giveBack(byte[] array) {
+    int count = 0;
+    for (int i = 0; i < bytes.size(); i++) if (bytes.get(i).length == array.length) count++;
+    if (keep(count, array.length)) bytes.add(array);
+  }
+
+  /**
+   * Returns an array of exactly length ints.
+   */
+  public int[] borrowInts(int length) {
+    for (int i = ints.size() - 1; i >= 0; i--)
+      if (ints.get(i).length == length) {
+        retained -= 4L * length;
+        return ints.remove(i);
+      }
+    return new int[length];
+  }
+
+  public void giveBack(int[] array) {
+    int count = 0;
+    for (int i = 0; i < ints.size(); i++) if (ints.get(i).length == array.length) count++;
+    if (keep(count, 4L * array.length)) ints.add(array);
+  }
+
+  /**
+   * Returns a buffer of the given layout and size, as PixelBuffer.allocate would, except that its samples are not
+   * cleared.
+   */
+  public PixelBuffer borrow(PixelBuffer.Layout layout, int width, int height, int channels) {
+    for (int i = buffers.size() - 1; i >= 0; i--) {
+      PixelBuffer free = buffers.get(i);
+      if (matches(free, layout, width, height, channels)) {
+        retained -= free.sampleCount();
+        return buffers.remove(i);
+      }
+    }
+    return PixelBuffer.allocate(layout, width, height, channels);
+  }
+
+  /**
+   * Takes back a buffer that came from borrow.
+   */
+  public void giveBack(PixelBuffer buffer) {
+    int count = 0;
+    for (int i = 0; i < buffers.size(); i++)
+      if (matches(buffers.get(i), buffer.layout(), buffer.width, buffer.height, buffer.channels)) count++;
+    if (keep(count, buffer.sampleCount())) buffers.add(buffer);
+  }
+
+  private static boolean matches(PixelBuffer buffer, PixelBuffer.Layout layout, int width, int height, int channels) {
+    return buffer.layout() == layout && buffer.width == width && buffer.height == height && buffer.channels == channels;
+  }
+
+  private boolean keep(int count, long size) {
+    if (count >= MAX_PER_SIZE || retained + size > MAX_RETAINED_BYTES) return false;
+    retained += size;
+    return true;
+  }
+
+  /**
+   * Drops everything this thread's pool holds.
+   */
+  public void clear() {
+    bytes.clear();
+    ints.clear();
+    buffers.clear();
+    retained = 0;
+  }
+}
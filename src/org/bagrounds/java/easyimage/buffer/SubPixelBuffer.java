@@ -0,0 +1,98 @@
+package org.bagrounds.java.easyimage.buffer;
+
+/**
+ * A window onto a region of another buffer, for layouts that cannot describe a region themselves. Every access is
+ * shifted by the corner of the region and passed on to the parent, so the two always see the same samples.
+ */
+public class SubPixelBuffer extends PixelBuffer {
+  public final PixelBuffer parent;
+  public final int x;
+  public final int y;
+
+  public SubPixelBuffer(PixelBuffer parent, int x, int y, int width, int height) {
+    super(width, height, parent.channels);
+    this.parent = parent;
+    this.x = x;
+    this.y = y;
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.VIEW;
+  }
+
+  @Override
+  public boolean allowsParallelRows() {
+    return parent.allowsParallelRows();
+  }
+
+  @Override
+  public int get(int x, int y, int channel) {
+    return parent.get(this.x + x, this.y + y, channel);
+  }
+
+  @Override
+  public void set(int x, int y, int channel, int value) {
+    parent.set(this.x + x, this.y + y, channel, value);
+  }
+
+  @Override
+  public int getRGB(int x, int y) {
+    return parent.getRGB(this.x + x, this.y + y);
+  }
+
+  @Override
+  public void setRGB(int x, int y, int rgb) {
+    parent.setRGB(this.x + x, this.y + y, rgb);
+  }
+
+  @Override
+  public void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    parent.getRow(this.x + x, this.y + y, length, dst, dstOffset);
+  }
+
+  @Override
+  public void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    parent.setRow(this.x + x, this.y + y, length, src, srcOffset);
+  }
+
+  @Override
+  public void applyLut(byte[] lut) {
+    byte[] row = new byte[width * channels];
+    for (int r = 0; r < height; r++) {
+      getRow(0, r, width, row, 0);
+      for (int i = 0; i < row.length; i++) row[i] = lut[row[i] & 0xff];
+      setRow(0, r, width, row, 0);
+    }
+  }
+
+  @Override
+  public void histogram(int[] histogram) {
+    byte[] row = new byte[width * channels];
+    for (int r = 0; r < height; r++) {
+      getRow(0, r, width, row, 0);
+      for (byte b : row) histogram[b & 0xff]++;
+    }
+  }
+
+  @Override
+  public PixelBuffer view(int x, int y, int width, int height) {
+    checkView(x, y, width, height);
+    return new SubPixelBuffer(parent, this.x + x, this.y + y, width, height);
+  }
+
+  /**
+   * Returns an independent copy of the region in the parent's layout.
+   */
+  @Override
+  public PixelBuffer copy() {
+    PixelBuffer copy = parent.create(width, height, channels);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return parent.create(width, height, channels);
+  }
+}
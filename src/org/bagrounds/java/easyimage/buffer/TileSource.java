@@ -0,0 +1,20 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.io.IOException;
+
+/**
+ * Supplies the pixels of an image one rectangular region at a time, so a TiledPixelBuffer can decode tiles only when
+ * they are first used.
+ */
+public interface TileSource {
+  int getWidth();
+
+  int getHeight();
+
+  int getChannels();
+
+  /**
+   * Fills dst with the interleaved samples of the w by h region whose top left corner is (x, y), in row-major order.
+   */
+  void read(int x, int y, int w, int h, byte[] dst) throws IOException;
+}
@@ -0,0 +1,304 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits an image into square tiles of tileSize pixels and keeps only the most recently used ones in memory, within a
+ * budget of memoryBudget bytes. Tiles are read from a TileSource the first time they are touched, or start out black
+ * if there is no source. Modified tiles that are pushed out of memory go to a temporary spill file, so the memory used
+ * depends on the tiles being worked on, not on the size of the image.
+ * <p/>
+ * Access is synchronized, so several threads may share a buffer, but they take turns. Work that goes along rows should
+ * have a budget of at least one row of tiles, or every row will reload them.
+ */
+public class TiledPixelBuffer extends PixelBuffer {
+  public final int tileSize;
+  public final long memoryBudget;
+
+  private final TileSource source;
+  private final int tilesX;
+  private final int tilesY;
+  private final int maxTiles;
+  private final LinkedHashMap<Integer, Tile> cache;
+  private Tile last;
+
+  private boolean[] spilled;
+  private File spillFile;
+  private RandomAccessFile spill;
+
+  /**
+   * Creates a buffer whose tiles are decoded from source when first used.
+   */
+  public TiledPixelBuffer(TileSource source, int tileSize, long memoryBudget) {
+    this(source, source.getWidth(), source.getHeight(), source.getChannels(), tileSize, memoryBudget);
+  }
+
+  /**
+   * Creates a black buffer whose tiles are allocated when first used.
+   */
+  public TiledPixelBuffer(int width, int height, int channels, int tileSize, long memoryBudget) {
+    this(null, width, height, channels, tileSize, memoryBudget);
+  }
+
+  private TiledPixelBuffer(TileSource source, int width, int height, int channels, int tileSize, long memoryBudget) {
+    super(width, height, channels);
+    if (tileSize < 1) throw new IllegalArgumentException("tile size must be positive");
+    this.source = source;
+    this.tileSize = tileSize;
+    this.memoryBudget = memoryBudget;
+    tilesX = (width + tileSize - 1) / tileSize;
+    tilesY = (height + tileSize - 1) / tileSize;
+    long tiles = Math.max(1, memoryBudget / ((long) tileSize * tileSize * channels));
+    maxTiles = (int) Math.min(tiles, Math.max(1, (long) tilesX * tilesY));
+    cache = new LinkedHashMap<Integer, Tile>(16, .75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+        if (size() <= maxTiles) return false;
+        evict(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  private static class Tile {
+    final int index;
+    final int x;
+    final int y;
+    final int w;
+    final int h;
+    final byte[] data;
+    boolean dirty;
+
+    Tile(int index, int x, int y, int w, int h, int channels) {
+      this.index = index;
+      this.x = x;
+      this.y = y;
+      this.w = w;
+      this.h = h;
+      data = new byte[w * h * channels];
+    }
+
+    boolean contains(int px, int py) {
+      return px >= x && px < x + w && py >= y && py < y + h;
+    }
+  }
+
+  @Override
+  public Layout layout() {
+    return Layout.TILED;
+  }
+
+  /**
+   * Tile access is synchronized, and bands running side by side would compete for the tile cache.
+   */
+  @Override
+  public boolean allowsParallelRows() {
+    return false;
+  }
+
+  public int getTileCount() {
+    return tilesX * tilesY;
+  }
+
+  /**
+   * Returns the number of tiles currently held in memory.
+   */
+  public synchronized int getCachedTileCount() {
+    return cache.size();
+  }
+
+  private Tile tileAt(int x, int y) {
+    if (last != null && last.contains(x, y)) return last;
+    return tile((y / tileSize) * tilesX + x / tileSize);
+  }
+
+  private Tile tile(int index) {
+    Tile tile = cache.get(index);
+    if (tile == null) {
+      tile = load(index);
+      cache.put(index, tile);
+    }
+    last = tile;
+    return tile;
+  }
+
+  private Tile load(int index) {
+    int x = (index % tilesX) * tileSize;
+    int y = (index / tilesX) * tileSize;
+    Tile tile = new Tile(index, x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), channels);
+    try {
+      if (spilled != null && spilled[index]) {
+        spill.seek(spillOffset(index));
+        spill.readFully(tile.data);
+      } else if (source != null) {
+        source.read(tile.x, tile.y, tile.w, tile.h, tile.data);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot load tile " + index, e);
+    }
+    return tile;
+  }
+
+  private void evict(Tile tile) {
+    if (tile == last) last = null;
+    if (tile.dirty) writeSpill(tile.index, tile.data);
+  }
+
+  private long spillOffset(int index) {
+    return (long) index * tileSize * tileSize * channels;
+  }
+
+  private void writeSpill(int index, byte[] data) {
+    try {
+      if (spill == null) {
+        spillFile = File.createTempFile("easyimage-tiles", ".raw");
+        spillFile.deleteOnExit();
+        spill = new RandomAccessFile(spillFile, "rw");
+        spilled = new boolean[tilesX * tilesY];
+      }
+      spill.seek(spillOffset(index));
+      spill.write(data);
+      spilled[index] = true;
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot spill tile " + index, e);
+    }
+  }
+
+  private byte[] readSpill(int index, int length) {
+    byte[] data = new byte[length];
+    try {
+      spill.seek(spillOffset(index));
+      spill.readFully(data);
+    } catch (IOException e) {
+      throw new UncheckedIOException("cannot read spilled tile " + index, e);
+    }
+    return data;
+  }
+
+  /**
+   * Drops every tile held in memory and deletes the spill file. The buffer must not be used afterwards.
+   *
+   * @throws UncheckedIOException if the spill file cannot be closed; it is deleted all the same
+   */
+  public synchronized void dispose() {
+    cache.clear();
+    last = null;
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException("cannot close spill file " + spillFile, e);
+      } finally {
+        spillFile.delete();
+        spill = null;
+        spilled = null;
+      }
+    }
+  }
+
+  @Override
+  public synchronized int get(int x, int y, int channel) {
+    Tile tile = tileAt(x, y);
+    return tile.data[((y - tile.y) * tile.w + x - tile.x) * channels + channel] & 0xff;
+  }
+
+  @Override
+  public synchronized void set(int x, int y, int channel, int value) {
+    Tile tile = tileAt(x, y);
+    tile.data[((y - tile.y) * tile.w + x - tile.x) * channels + channel] = (byte) value;
+    tile.dirty = true;
+  }
+
+  @Override
+  public synchronized void getRow(int x, int y, int length, byte[] dst, int dstOffset) {
+    int end = x + length;
+    while (x < end) {
+      Tile tile = tileAt(x, y);
+      int n = Math.min(end, tile.x + tile.w) - x;
+      System.arraycopy(tile.data, ((y - tile.y) * tile.w + x - tile.x) * channels, dst, dstOffset, n * channels);
+      x += n;
+      dstOffset += n * channels;
+    }
+  }
+
+  @Override
+  public synchronized void setRow(int x, int y, int length, byte[] src, int srcOffset) {
+    int end = x + length;
+    while (x < end) {
+      Tile tile = tileAt(x, y);
+      int n = Math.min(end, tile.x + tile.w) - x;
+      System.arraycopy(src, srcOffset, tile.data, ((y - tile.y) * tile.w + x - tile.x) * channels, n * channels);
+      tile.dirty = true;
+      x += n;
+      srcOffset += n * channels;
+    }
+  }
+
+  @Override
+  public synchronized void applyLut(int channel, byte[] lut) {
+    for (int t = 0; t < tilesX * tilesY; t++) {
+      Tile tile = tile(t);
+      byte[] data = tile.data;
+      for (int i = channel; i < data.length; i += channels) data[i] = lut[data[i] & 0xff];
+      tile.dirty = true;
+    }
+  }
+
+  @Override
+  public synchronized void applyLut(byte[] lut) {
+    ByteKernels.Lut kernel = new ByteKernels.Lut(lut);
+    for (int t = 0; t < tilesX * tilesY; t++) {
+      Tile tile = tile(t);
+      kernel.apply(tile.data, 0, tile.data.length);
+      tile.dirty = true;
+    }
+  }
+
+  @Override
+  public synchronized void histogram(int channel, int[] histogram) {
+    for (int t = 0; t < tilesX * tilesY; t++) {
+      byte[] data = tile(t).data;
+      for (int i = channel; i < data.length; i += channels) histogram[data[i] & 0xff]++;
+    }
+  }
+
+  @Override
+  public synchronized void histogram(int[] histogram) {
+    for (int t = 0; t < tilesX * tilesY; t++) {
+      byte[] data = tile(t).data;
+      for (byte b : data) histogram[b & 0xff]++;
+    }
+  }
+
+  /**
+   * Returns a copy that shares the tile source and reloads unmodified tiles from it, so copying costs only the
+   * modified tiles, which go straight to the copy's spill file.
+   */
+  @Override
+  public synchronized PixelBuffer copy() {
+    TiledPixelBuffer copy = new TiledPixelBuffer(source, width, height, channels, tileSize, memoryBudget);
+    for (Tile tile : cache.values())
+      if (tile.dirty) copy.writeSpill(tile.index, tile.data);
+    if (spilled != null)
+      for (int i = 0; i < spilled.length; i++) {
+        Tile cached = cache.get(i);
+        if (spilled[i] && (cached == null || !cached.dirty)) {
+          int x = (i % tilesX) * tileSize;
+          int y = (i / tilesX) * tileSize;
+          int length = Math.min(tileSize, width - x) * Math.min(tileSize, height - y) * channels;
+          copy.writeSpill(i, readSpill(i, length));
+        }
+      }
+    return copy;
+  }
+
+  @Override
+  public PixelBuffer create(int width, int height, int channels) {
+    return new TiledPixelBuffer(width, height, channels, tileSize, memoryBudget);
+  }
+}
@@ -0,0 +1,83 @@
+package org.bagrounds.java.easyimage.color;
+
+import org.bagrounds.java.easyimage.ColorPixel;
+
+import java.util.Arrays;
+
+/**
+ * A set of key colors and hues that a color either matches or not, tested in integers: a color matches if it matches
+ * any of the keys. Keys are added one at a time, and the key should not change while it is being matched.
+ * <p/>
+ * Color keys compare the squared distance in RGB, in channel units, with a limit worked out when the key is added, so
+ * no square root is taken. Hue keys look the hue up in the table of HueTable, which ColorSpace uses for its hue planes
+ * too, and mark the entries within their range in a table of their own, so matching a hue costs one lookup however
+ * many hue keys there are.
+ */
+public final class ColorKey {
+  private int[] colors = new int[0];
+  private int[] limits = new int[0];
+  private boolean[] hues;
+
+  /**
+   * Adds a key matching the colors whose squared distance from rgb, (dr^2 + dg^2 + db^2) in channel units, is at most
+   * maxSquaredDistance.
+   */
+  public ColorKey near(int rgb, int maxSquaredDistance) {
+    colors = Arrays.copyOf(colors, colors.length + 1);
+    limits = Arrays.copyOf(limits, limits.length + 1);
+    colors[colors.length - 1] = rgb & 0xffffff;
+    limits[limits.length - 1] = maxSquaredDistance;
+    return this;
+  }
+
+  /**
+   * Adds a key matching the colors c with ColorPixel.rgbDist(rgb, c) <= maxDist.
+   */
+  public ColorKey within(int rgb, double maxDist) {
+    return near(rgb, (int) Math.min(Math.floor(squaredDistance(maxDist)), Integer.MAX_VALUE));
+  }
+
+  /**
+   * Adds a key matching the colors c with ColorPixel.rgbDist(rgb, c) < maxDist.
+   */
+  public ColorKey closerThan(int rgb, double maxDist) {
+    return near(rgb, (int) Math.min(Math.ceil(squaredDistance(maxDist)) - 1, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Returns the squared distance in channel units that ColorPixel.rgbDist scales to dist, which may fall between two
+   * integers.
+   */
+  private static double squaredDistance(double dist) {
+    if (dist < 0) return -1;
+    double d = dist * 255;
+    return 3 * d * d;
+  }
+
+  /**
+   * Adds a key matching the colors whose hue h has ColorPixel.hueDist(h, hue) < maxDistance.
+   */
+  public ColorKey hue(double hue, double maxDistance) {
+    double[] table = HueTable.HSI;
+    if (hues == null) hues = new boolean[table.length];
+    for (int i = 0; i < table.length; i++) if (ColorPixel.hueDist(table[i], hue) < maxDistance) hues[i] = true;
+    return this;
+  }
+
+  /**
+   * Returns true if a color packed as 0xRRGGBB matches any of the keys.
+   */
+  public boolean matches(int rgb) {
+    return matches((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+  }
+
+  public boolean matches(int r, int g, int b) {
+    for (int k = 0; k < colors.length; k++) {
+      int dr = r - ((colors[k] >> 16) & 0xff);
+      int dg = g - ((colors[k] >> 8) & 0xff);
+      int db = b - (colors[k] & 0xff);
+      if (dr * dr + dg * dg + db * db <= limits[k]) return true;
+    }
+    return hues != null && hues[HueTable.index(r, g, b)];
+  }
+}
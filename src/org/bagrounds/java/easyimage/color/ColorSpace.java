@@ -0,0 +1,242 @@
+package org.bagrounds.java.easyimage.color;
+
+/**
+ * Color spaces that RGB colors convert to and from, each channel encoded in a byte. Conversions take integer channels
+ * and do no trigonometry or powers per color: hues come from HueTable, the transfer curves of Lab from tables built on
+ * first use, and YCbCr and the Lab matrix use 16 and 12 bit fixed point. They can be called from any number of threads.
+ * <p/>
+ * Colors in the space are packed like RGB ones, channel 0 in bits 16..23, channel 1 in bits 8..15 and channel 2 in bits
+ * 0..7. Hues are scaled from 0..360 to 0..255 and rounded down, so converting back takes the middle of the hue bin and
+ * is only accurate to 1.4 degrees.
+ */
+public enum ColorSpace {
+  /**
+   * HSI hue as in ColorPixel.hue, saturation 255 * (1 - 3 * min / (r + g + b)) with 255 for black as in
+   * ColorPixel.saturation, and intensity (r + g + b) / 3, both rounded
+   */
+  HSI {
+    @Override
+    public int fromRgb(int r, int g, int b) {
+      int h = HueTable.HSI_CODES[HueTable.index(r, g, b)] & 0xff;
+      int sum = r + g + b;
+      int s = sum == 0 ? 255 : (255 * (sum - 3 * Math.min(r, Math.min(g, b))) + sum / 2) / sum;
+      int i = (sum + 1) / 3;
+      return h << 16 | s << 8 | i;
+    }
+
+    @Override
+    public int toRgb(int h, int s, int i) {
+      double low = i * (1 - s / 255.0);
+      double high = i * (1 + s / 255.0 * HsiSectors.RATIO[h]);
+      double mid = 3 * i - low - high;
+      switch (HsiSectors.SECTOR[h]) {
+        case 0:
+          return pack(high, mid, low);
+        case 1:
+          return pack(low, high, mid);
+        default:
+          return pack(mid, low, high);
+      }
+    }
+  },
+  /**
+   * HSV hexcone hue, saturation 255 * (max - min) / max, rounded, and value max
+   */
+  HSV {
+    @Override
+    public int fromRgb(int r, int g, int b) {
+      int h = HueTable.HSV_CODES[HueTable.index(r, g, b)] & 0xff;
+      int max = Math.max(r, Math.max(g, b));
+      int s = max == 0 ? 0 : (255 * (max - Math.min(r, Math.min(g, b))) + max / 2) / max;
+      return h << 16 | s << 8 | max;
+    }
+
+    @Override
+    public int toRgb(int h, int s, int v) {
+      double sector = (h + 0.5) * 6 / 255;
+      double chroma = v * s / 255.0;
+      double x = chroma * (1 - Math.abs(sector % 2 - 1));
+      double m = v - chroma;
+      switch ((int) sector) {
+        case 0:
+          return pack(v, x + m, m);
+        case 1:
+          return pack(x + m, v, m);
+        case 2:
+          return pack(m, v, x + m);
+        case 3:
+          return pack(m, x + m, v);
+        case 4:
+          return pack(x + m, m, v);
+        default:
+          return pack(v, m, x + m);
+      }
+    }
+  },
+  /**
+   * CIE L*a*b* of sRGB under D65, L* scaled from 0..100 to 0..255 and a* and b* offset by 128, all rounded and
+   * saturated. Whole units of a* and b* are coarse next to a dark channel of a bright color, which may come back up to
+   * 25 levels off.
+   */
+  LAB {
+    @Override
+    public int fromRgb(int r, int g, int b) {
+      int[] linear = Lab.LINEAR;
+      int lr = linear[r];
+      int lg = linear[g];
+      int lb = linear[b];
+      int fx = Lab.F[Lab.clamp((Lab.XR * lr + Lab.XG * lg + Lab.XB * lb + 2048) >> 12)];
+      int fy = Lab.F[Lab.clamp((Lab.YR * lr + Lab.YG * lg + Lab.YB * lb + 2048) >> 12)];
+      int fz = Lab.F[Lab.clamp((Lab.ZR * lr + Lab.ZG * lg + Lab.ZB * lb + 2048) >> 12)];
+      int l = (29580 * fy - 133693440 + 1638400) / 3276800; // (116 * fy - 16) * 255 / 100, fy in units of 2^-15
+      int a = ((500 * (fx - fy) + 16384) >> 15) + 128;
+      int bb = ((200 * (fy - fz) + 16384) >> 15) + 128;
+      return saturate(l) << 16 | saturate(a) << 8 | saturate(bb);
+    }
+
+    @Override
+    public int toRgb(int l, int a, int b) {
+      double fy = (l * 100 / 255.0 + 16) / 116;
+      double x = Lab.inverseF(fy + (a - 128) / 500.0) * Lab.XN;
+      double y = Lab.inverseF(fy);
+      double z = Lab.inverseF(fy - (b - 128) / 200.0) * Lab.ZN;
+      return Lab.encode(3.240479 * x - 1.537150 * y - 0.498535 * z) << 16
+          | Lab.encode(-0.969256 * x + 1.875992 * y + 0.041556 * z) << 8
+          | Lab.encode(0.055648 * x - 0.204043 * y + 1.057311 * z);
+    }
+  },
+  /**
+   * YCbCr of JPEG (JFIF): full range BT.601, Cb and Cr offset by 128
+   */
+  YCBCR {
+    @Override
+    public int fromRgb(int r, int g, int b) {
+      int y = (19595 * r + 38470 * g + 7471 * b + 32768) >> 16;
+      int cb = (-11059 * r - 21709 * g + 32768 * b + (128 << 16) + 32768) >> 16;
+      int cr = (32768 * r - 27439 * g - 5329 * b + (128 << 16) + 32768) >> 16;
+      return y << 16 | saturate(cb) << 8 | saturate(cr);
+    }
+
+    @Override
+    public int toRgb(int y, int cb, int cr) {
+      cb -= 128;
+      cr -= 128;
+      int r = y + ((91881 * cr + 32768) >> 16);
+      int g = y - ((22554 * cb + 46802 * cr - 32768) >> 16);
+      int b = y + ((116130 * cb + 32768) >> 16);
+      return saturate(r) << 16 | saturate(g) << 8 | saturate(b);
+    }
+  };
+
+  /**
+   * Returns the color (r, g, b), channels 0..255, in this space.
+   */
+  public abstract int fromRgb(int r, int g, int b);
+
+  /**
+   * Returns the color with the given channels in this space as 0xRRGGBB.
+   */
+  public abstract int toRgb(int c0, int c1, int c2);
+
+  /**
+   * Same as fromRgb(r, g, b), for a color packed as 0xRRGGBB.
+   */
+  public int fromRgb(int rgb) {
+    return fromRgb((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+  }
+
+  /**
+   * Same as toRgb(c0, c1, c2), for a color packed like an RGB one.
+   */
+  public int toRgb(int color) {
+    return toRgb((color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff);
+  }
+
+  static int saturate(int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+  static int pack(double r, double g, double b) {
+    return saturate((int) Math.round(r)) << 16 | saturate((int) Math.round(g)) << 8 | saturate((int) Math.round(b));
+  }
+
+  /**
+   * For each hue code, the third of the circle its middle falls in and cos(h) / cos(60 - h) for its angle h into that
+   * third.
+   */
+  private static final class HsiSectors {
+    static final int[] SECTOR = new int[256];
+    static final double[] RATIO = new double[256];
+
+    static {
+      for (int h = 0; h < 256; h++) {
+        double hue = (h + 0.5) * 360 / 255;
+        SECTOR[h] = Math.min(2, (int) (hue / 120));
+        double angle = Math.toRadians(hue - 120 * SECTOR[h]);
+        RATIO[h] = Math.cos(angle) / Math.cos(Math.toRadians(60) - angle);
+      }
+    }
+  }
+
+  /**
+   * The transfer curves of sRGB and of L*a*b*, and the rows of the RGB to XYZ matrix divided by the white point, in
+   * units of 2^-12.
+   */
+  private static final class Lab {
+    static final double XN = 0.950456;
+    static final double ZN = 1.088754;
+    static final int ONE = 1 << 15;
+
+    static final int XR = (int) Math.round(0.412453 / XN * 4096);
+    static final int XG = (int) Math.round(0.357580 / XN * 4096);
+    static final int XB = (int) Math.round(0.180423 / XN * 4096);
+    static final int YR = (int) Math.round(0.212671 * 4096);
+    static final int YG = (int) Math.round(0.715160 * 4096);
+    static final int YB = (int) Math.round(0.072169 * 4096);
+    static final int ZR = (int) Math.round(0.019334 / ZN * 4096);
+    static final int ZG = (int) Math.round(0.119193 / ZN * 4096);
+    static final int ZB = (int) Math.round(0.950227 / ZN * 4096);
+
+    /**
+     * linear light of each sRGB channel value, in units of 2^-15
+     */
+    static final int[] LINEAR = new int[256];
+    /**
+     * the L*a*b* curve f(t) for t from 0 to 1 in steps of 2^-15, in the same units
+     */
+    static final int[] F = new int[ONE + 1];
+    /**
+     * the sRGB channel value of linear light from 0 to 1 in steps of 1 / 4096
+     */
+    static final byte[] ENCODE = new byte[4097];
+
+    static {
+      for (int v = 0; v < 256; v++) {
+        double c = v / 255.0;
+        LINEAR[v] = (int) Math.round((c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4)) * ONE);
+      }
+      for (int t = 0; t <= ONE; t++) {
+        double x = (double) t / ONE;
+        F[t] = (int) Math.round((x > 0.008856 ? Math.cbrt(x) : 7.787 * x + 16.0 / 116) * ONE);
+      }
+      for (int i = 0; i <= 4096; i++) {
+        double x = i / 4096.0;
+        ENCODE[i] = (byte) Math.round(255 * (x <= 0.0031308 ? 12.92 * x : 1.055 * Math.pow(x, 1 / 2.4) - 0.055));
+      }
+    }
+
+    static int clamp(int t) {
+      return t < 0 ? 0 : t > ONE ? ONE : t;
+    }
+
+    static double inverseF(double f) {
+      return f > 6.0 / 29 ? f * f * f : (f - 16.0 / 116) / 7.787;
+    }
+
+    static int encode(double linear) {
+      if (!(linear > 0)) return 0;
+      if (linear >= 1) return 255;
+      return ENCODE[(int) (linear * 4096 + 0.5)] & 0xff;
+    }
+  }
+}
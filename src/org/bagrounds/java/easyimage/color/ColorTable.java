@@ -0,0 +1,133 @@
+package org.bagrounds.java.easyimage.color;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A color mapping compiled into a lookup table over the RGB cube, so that applying it costs one table lookup per pixel
+ * however much work the mapping does. Tables are immutable once built and can be shared by any number of threads.
+ * <p/>
+ * The table keeps the top bits bits of each channel, so it has 2^(3 * bits) entries: 32K for 5 bits (15 bit color),
+ * 256K for the default of 6 (18 bit color) and 16M, exact but 64 MB, for 8. Each entry holds the mapping of the middle
+ * color of its cell, so colors within a cell of a boundary of the mapping may land on its other side.
+ */
+public final class ColorTable {
+  public static final int DEFAULT_BITS = 6;
+
+  /**
+   * A mapping of colors packed as 0xRRGGBB, which may be as slow as it likes.
+   */
+  public interface Rule {
+    int map(int rgb);
+  }
+
+  public final int bits;
+  private final int shift;
+  private final int[] table;
+  private volatile Entries entries;
+
+  private ColorTable(int bits, int[] table) {
+    this.bits = bits;
+    this.shift = 8 - bits;
+    this.table = table;
+  }
+
+  /**
+   * Evaluates rule once for each cell of the RGB cube.
+   *
+   * @param bits - bits kept of each channel, from 1 to 8
+   */
+  public static ColorTable compile(Rule rule, int bits) {
+    if (bits < 1 || bits > 8) throw new IllegalArgumentException("bits out of [1, 8]: " + bits);
+    int shift = 8 - bits;
+    int levels = 1 << bits;
+    int half = shift == 0 ? 0 : 1 << (shift - 1);
+    int[] table = new int[levels * levels * levels];
+    for (int r = 0, i = 0; r < levels; r++)
+      for (int g = 0; g < levels; g++)
+        for (int b = 0; b < levels; b++, i++)
+          table[i] = rule.map(((r << shift | half) << 16) | ((g << shift | half) << 8) | (b << shift | half)) & 0xffffff;
+    return new ColorTable(bits, table);
+  }
+
+  public static ColorTable compile(Rule rule) {
+    return compile(rule, DEFAULT_BITS);
+  }
+
+  /**
+   * Returns the entry of the table a color packed as 0xRRGGBB falls in.
+   */
+  public int index(int rgb) {
+    return index((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+  }
+
+  public int index(int r, int g, int b) {
+    return ((r >> shift) << (2 * bits)) | ((g >> shift) << bits) | (b >> shift);
+  }
+
+  /**
+   * Returns the mapping of a color packed as 0xRRGGBB.
+   */
+  public int map(int rgb) {
+    return table[index(rgb)];
+  }
+
+  public int map(int r, int g, int b) {
+    return table[index(r, g, b)];
+  }
+
+  public int size() {
+    return table.length;
+  }
+
+  /**
+   * Returns the distinct entries of the table as a palette, in the order of the first cell each is found in. Built on
+   * first use.
+   *
+   * @throws IllegalStateException if the table has more than Palette.MAX_SIZE distinct entries
+   */
+  public Palette palette() {
+    return entries().palette;
+  }
+
+  /**
+   * Returns the index in palette() of the mapping of a color packed as 0xRRGGBB.
+   */
+  public int paletteIndex(int rgb) {
+    return entries().indices[index(rgb)] & 0xff;
+  }
+
+  private Entries entries() {
+    Entries entries = this.entries;
+    if (entries == null) this.entries = entries = new Entries(table);
+    return entries;
+  }
+
+  /**
+   * The distinct entries of a table and the index of each cell among them.
+   */
+  private static final class Entries {
+    final Palette palette;
+    final byte[] indices;
+
+    Entries(int[] table) {
+      Map<Integer, Integer> found = new HashMap<Integer, Integer>();
+      int[] colors = new int[Palette.MAX_SIZE];
+      indices = new byte[table.length];
+      for (int i = 0; i < table.length; i++) {
+        Integer index = found.get(table[i]);
+        if (index == null) {
+          if (found.size() == Palette.MAX_SIZE)
+            throw new IllegalStateException("the table has more than " + Palette.MAX_SIZE + " distinct entries");
+          index = found.size();
+          found.put(table[i], index);
+          colors[index] = table[i];
+        }
+        indices[i] = (byte) (int) index;
+      }
+      int[] distinct = new int[found.size()];
+      System.arraycopy(colors, 0, distinct, 0, distinct.length);
+      palette = new Palette(distinct);
+    }
+  }
+}
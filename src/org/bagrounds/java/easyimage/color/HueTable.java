@@ -0,0 +1,64 @@
+package org.bagrounds.java.easyimage.color;
+
+import org.bagrounds.java.easyimage.ColorPixel;
+
+/**
+ * The hue of every color, looked up instead of computed. Both the HSI and the HSV hue of a color stay the same when the
+ * same amount is taken from every channel, so they only depend on which channel is smallest and on how far the other
+ * two are above it: 3 * 256 * 256 cases, each computed once when the class is first used.
+ */
+final class HueTable {
+  /**
+   * the HSI hue in degrees, as ColorPixel.hue computes it
+   */
+  static final double[] HSI = new double[3 << 16];
+  /**
+   * the HSI hue scaled to 0..255 and rounded down, as in StatisticProcessor.hueHistogram
+   */
+  static final byte[] HSI_CODES = new byte[3 << 16];
+  /**
+   * the HSV hue scaled to 0..255 and rounded down
+   */
+  static final byte[] HSV_CODES = new byte[3 << 16];
+
+  static {
+    for (int u = 0; u < 256; u++)
+      for (int v = 0; v < 256; v++) {
+        fill(u << 8 | v, 0, u, v);
+        fill(1 << 16 | u << 8 | v, u, 0, v);
+        fill(2 << 16 | u << 8 | v, u, v, 0);
+      }
+  }
+
+  private HueTable() {
+  }
+
+  private static void fill(int i, int r, int g, int b) {
+    HSI[i] = ColorPixel.hue(r, g, b);
+    HSI_CODES[i] = (byte) Math.min(255, (int) Math.floor(HSI[i] * 255 / 360));
+    HSV_CODES[i] = (byte) Math.min(255, (int) Math.floor(hsvHue(r, g, b) * 255 / 360));
+  }
+
+  /**
+   * Returns the hue in degrees of the HSV hexcone, 0 for grays.
+   */
+  static double hsvHue(int r, int g, int b) {
+    int max = Math.max(r, Math.max(g, b));
+    int delta = max - Math.min(r, Math.min(g, b));
+    if (delta == 0) return 0;
+    double hue;
+    if (max == r) hue = (double) (g - b) / delta;
+    else if (max == g) hue = 2 + (double) (b - r) / delta;
+    else hue = 4 + (double) (r - g) / delta;
+    return hue < 0 ? 60 * hue + 360 : 60 * hue;
+  }
+
+  /**
+   * Returns the entry of a color: which channel is smallest, then the other two less the smallest, in order.
+   */
+  static int index(int r, int g, int b) {
+    if (r <= g && r <= b) return (g - r) << 8 | (b - r);
+    if (g <= b) return 1 << 16 | (r - g) << 8 | (b - g);
+    return 2 << 16 | (r - b) << 8 | (g - b);
+  }
+}
@@ -0,0 +1,104 @@
+package org.bagrounds.java.easyimage.color;
+
+import java.util.Arrays;
+
+/**
+ * A list of at most 256 colors, packed as 0xRRGGBB, that images can be quantized to: every color is replaced by the
+ * palette color nearest to it in RGB space. The index of the nearest color of each cell of the RGB cube is looked up
+ * once, into a ColorTable that the palette keeps.
+ */
+public final class Palette {
+  public static final int MAX_SIZE = 256;
+
+  private final int[] colors;
+  private volatile ColorTable indexTable;
+  private volatile ColorTable table;
+
+  public Palette(int... colors) {
+    if (colors.length == 0 || colors.length > MAX_SIZE)
+      throw new IllegalArgumentException("palettes hold 1 to " + MAX_SIZE + " colors: " + colors.length);
+    this.colors = new int[colors.length];
+    for (int i = 0; i < colors.length; i++) this.colors[i] = colors[i] & 0xffffff;
+  }
+
+  public int size() {
+    return colors.length;
+  }
+
+  public int color(int index) {
+    return colors[index];
+  }
+
+  public int[] colors() {
+    return Arrays.copyOf(colors, colors.length);
+  }
+
+  /**
+   * Returns the index of the color nearest to rgb in RGB space, the first of them on a tie. Compares rgb with every
+   * color; nearest goes through the table instead.
+   */
+  public int nearestIndex(int rgb) {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    int best = 0;
+    int bestDistance = Integer.MAX_VALUE;
+    for (int i = 0; i < colors.length; i++) {
+      int dr = ((colors[i] >> 16) & 0xff) - r;
+      int dg = ((colors[i] >> 8) & 0xff) - g;
+      int db = (colors[i] & 0xff) - b;
+      int distance = dr * dr + dg * dg + db * db;
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the index of the palette color nearest to rgb, as the index table of the palette has it.
+   */
+  public int index(int rgb) {
+    return indexTable().map(rgb);
+  }
+
+  /**
+   * Returns the palette color nearest to rgb, as the index table of the palette has it.
+   */
+  public int nearest(int rgb) {
+    return colors[indexTable().map(rgb)];
+  }
+
+  /**
+   * Returns the table mapping each color to the index of the nearest color of the palette, rather than to a color,
+   * built with ColorTable.DEFAULT_BITS on first use.
+   */
+  public ColorTable indexTable() {
+    ColorTable indexTable = this.indexTable;
+    if (indexTable == null) this.indexTable = indexTable = ColorTable.compile(new ColorTable.Rule() {
+      @Override
+      public int map(int rgb) {
+        return nearestIndex(rgb);
+      }
+    });
+    return indexTable;
+  }
+
+  /**
+   * Returns the table mapping each color to the nearest color of the palette, built from the index table on first use.
+   */
+  public ColorTable table() {
+    ColorTable table = this.table;
+    if (table == null) {
+      final ColorTable indexTable = indexTable();
+      this.table = table = ColorTable.compile(new ColorTable.Rule() {
+        @Override
+        public int map(int rgb) {
+          return colors[indexTable.map(rgb)];
+        }
+      }, indexTable.bits);
+    }
+    return table;
+  }
+}
@@ -0,0 +1,188 @@
+package org.bagrounds.java.easyimage.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The shape of the neighborhood a morphological operation looks at: a mask of width by height cells, and the cell of
+ * the mask that lies on the pixel being computed, its origin.
+ */
+public class StructuringElement {
+  public final int width;
+  public final int height;
+  public final int originX;
+  public final int originY;
+  private final boolean[] mask;
+
+  /**
+   * @param mask    - mask[y][x] is set where the element contains the cell in row y and column x; all rows must have the
+   *                same length and at least one cell must be set
+   * @param originX - column of the origin, which may lie outside the mask
+   * @param originY - row of the origin
+   */
+  public StructuringElement(boolean[][] mask, int originX, int originY) {
+    if (mask.length == 0 || mask[0].length == 0) throw new IllegalArgumentException("empty structuring element");
+    height = mask.length;
+    width = mask[0].length;
+    this.originX = originX;
+    this.originY = originY;
+    this.mask = new boolean[width * height];
+
+    boolean any = false;
+    for (int y = 0; y < height; y++) {
+      if (mask[y].length != width) throw new IllegalArgumentException("rows of different lengths");
+      for (int x = 0; x < width; x++) {
+        this.mask[y * width + x] = mask[y][x];
+        any |= mask[y][x];
+      }
+    }
+    if (!any) throw new IllegalArgumentException("empty structuring element");
+  }
+
+  /**
+   * Returns a width by height rectangle with its origin in the middle, rounded up and to the left.
+   */
+  public static StructuringElement rectangle(int width, int height) {
+    if (width < 1 || height < 1) throw new IllegalArgumentException("rectangle of " + width + " by " + height);
+    boolean[][] mask = new boolean[height][width];
+    for (boolean[] row : mask) Arrays.fill(row, true);
+    return new StructuringElement(mask, (width - 1) / 2, (height - 1) / 2);
+  }
+
+  /**
+   * Returns the square of side 2 * radius + 1 around the origin.
+   */
+  public static StructuringElement square(int radius) {
+    return rectangle(2 * radius + 1, 2 * radius + 1);
+  }
+
+  /**
+   * Returns the horizontal and vertical lines of length 2 * radius + 1 through the origin.
+   */
+  public static StructuringElement cross(int radius) {
+    return shape(radius, new Shape() {
+      @Override
+      public boolean contains(int dx, int dy) {
+        return dx == 0 || dy == 0;
+      }
+    });
+  }
+
+  /**
+   * Returns the cells within a city block distance of radius of the origin, which is what radius dilations by the four
+   * direct neighbors add up to.
+   */
+  public static StructuringElement diamond(final int radius) {
+    return shape(radius, new Shape() {
+      @Override
+      public boolean contains(int dx, int dy) {
+        return Math.abs(dx) + Math.abs(dy) <= radius;
+      }
+    });
+  }
+
+  /**
+   * Returns the cells within a euclidean distance of radius of the origin.
+   */
+  public static StructuringElement disk(final int radius) {
+    return shape(radius, new Shape() {
+      @Override
+      public boolean contains(int dx, int dy) {
+        return dx * dx + dy * dy <= radius * radius;
+      }
+    });
+  }
+
+  private interface Shape {
+    boolean contains(int dx, int dy);
+  }
+
+  private static StructuringElement shape(int radius, Shape shape) {
+    if (radius < 0) throw new IllegalArgumentException("negative radius: " + radius);
+    int side = 2 * radius + 1;
+    boolean[][] mask = new boolean[side][side];
+    for (int y = 0; y < side; y++)
+      for (int x = 0; x < side; x++) mask[y][x] = shape.contains(x - radius, y - radius);
+    return new StructuringElement(mask, radius, radius);
+  }
+
+  /**
+   * Returns whether the element contains the cell dx columns right of and dy rows below the origin.
+   */
+  public boolean contains(int dx, int dy) {
+    int x = originX + dx;
+    int y = originY + dy;
+    return x >= 0 && x < width && y >= 0 && y < height && mask[y * width + x];
+  }
+
+  /**
+   * Returns the element mirrored through its origin, which dilation uses so that opening and closing behave as they
+   * should for asymmetric elements.
+   */
+  public StructuringElement reflect() {
+    boolean[][] reflected = new boolean[height][width];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++) reflected[height - 1 - y][width - 1 - x] = mask[y * width + x];
+    return new StructuringElement(reflected, width - 1 - originX, height - 1 - originY);
+  }
+
+  /**
+   * A horizontal run of cells, dy rows below the origin, from dx0 to dx1 columns right of it, both inclusive.
+   */
+  public static class Run {
+    public final int dy;
+    public final int dx0;
+    public final int dx1;
+
+    public Run(int dy, int dx0, int dx1) {
+      this.dy = dy;
+      this.dx0 = dx0;
+      this.dx1 = dx1;
+    }
+
+    public int length() {
+      return dx1 - dx0 + 1;
+    }
+  }
+
+  /**
+   * Returns the element as maximal horizontal runs of cells, from the top row down and left to right within a row.
+   */
+  public List<Run> runs() {
+    List<Run> runs = new ArrayList<Run>();
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        if (mask[y * width + x] && (x == 0 || !mask[y * width + x - 1])) {
+          int end = x;
+          while (end + 1 < width && mask[y * width + end + 1]) end++;
+          runs.add(new Run(y - originY, x - originX, end - originX));
+        }
+    return Collections.unmodifiableList(runs);
+  }
+
+  /**
+   * Rows above the origin the element reaches, or 0 if it reaches none.
+   */
+  public int reachUp() {
+    return Math.max(0, originY - firstRow());
+  }
+
+  /**
+   * Rows below the origin the element reaches, or 0 if it reaches none.
+   */
+  public int reachDown() {
+    return Math.max(0, lastRow() - originY);
+  }
+
+  private int firstRow() {
+    for (int i = 0; i < mask.length; i++) if (mask[i]) return i / width;
+    return 0;
+  }
+
+  private int lastRow() {
+    for (int i = mask.length - 1; i >= 0; i--) if (mask[i]) return i / width;
+    return 0;
+  }
+}
@@ -0,0 +1,299 @@
+package org.bagrounds.java.easyimage.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A growable vector of unboxed doubles with the statistics of EasyVector.Stat. Statistics never reorder or change the
+ * values: MIN, MAX, SUM, MEAN and the norms take one pass, and MEDIAN selects in linear expected time on a scratch copy.
+ */
+public class DoubleVector {
+    private static final Kernel GRADIENT_KERNEL = Kernel.gradient();
+    private static final Kernel[] CORNER_KERNELS = Kernel.corners();
+    private static final Kernel[] OPPOSITE_DIFFERENCES = Kernel.oppositeDifferences();
+
+    private double[] values;
+    private int size;
+    private double[] scratch;
+    private Random random;
+
+    public DoubleVector() {
+        this(16);
+    }
+
+    public DoubleVector(int capacity) {
+        values = new double[Math.max(1, capacity)];
+    }
+
+    /**
+     * Makes a vector of a copy of values.
+     */
+    public DoubleVector(double[] values) {
+        this.values = Arrays.copyOf(values, Math.max(1, values.length));
+        size = values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(double value) {
+        if (size == values.length) values = Arrays.copyOf(values, 2 * values.length);
+        values[size++] = value;
+    }
+
+    public double get(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        return values[i];
+    }
+
+    public void set(int i, double value) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        values[i] = value;
+    }
+
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns this less v, element by element.
+     */
+    public DoubleVector minus(DoubleVector v) {
+        if (v.size != size) throw new IllegalArgumentException("vector size mismatch");
+        DoubleVector difference = new DoubleVector(size);
+        for (int i = 0; i < size; i++) difference.add(values[i] - v.values[i]);
+        return difference;
+    }
+
+    /**
+     * Returns this divided by scalar, element by element.
+     */
+    public DoubleVector dividedBy(double scalar) {
+        DoubleVector quotient = new DoubleVector(size);
+        for (int i = 0; i < size; i++) quotient.add(values[i] / scalar);
+        return quotient;
+    }
+
+    /**
+     * Returns the statistic s of the values, 0 for an empty vector and the value itself for a vector of one.
+     */
+    public double stat(EasyVector.Stat s) {
+        if (size < 1) return 0;
+        if (size == 1) return values[0];
+
+        switch (s) {
+            case MEAN:
+                return mean();
+            case MEDIAN:
+                return median();
+            case MODE:
+                return mode();
+            case MAX:
+                return max();
+            case MIN:
+                return min();
+            case RANDOM:
+                if (random == null) random = new Random();
+                return values[random.nextInt(size)];
+            case DILATION:
+                return dilation(255);
+            case GRADIENT:
+                return GRADIENT_KERNEL.apply(values, size);
+            case SUM:
+                return sum();
+            case NORM1:
+                return norm(1);
+            case NORM2:
+                return norm(2);
+            case NORMINF:
+                return normInf();
+            case BRIDGE:
+                return bridge();
+            case MAX_GRADIENT:
+                return largestResponse(OPPOSITE_DIFFERENCES);
+            case CORNERS:
+                double corner = largestResponse(CORNER_KERNELS);
+                return corner > 128 ? corner : values[4] / 2;
+            default:
+                throw new IllegalArgumentException("unknown statistic " + s);
+        }
+    }
+
+    public double min() {
+        double min = values[0];
+        for (int i = 1; i < size; i++) min = Math.min(min, values[i]);
+        return min;
+    }
+
+    public double max() {
+        double max = values[0];
+        for (int i = 1; i < size; i++) max = Math.max(max, values[i]);
+        return max;
+    }
+
+    public double sum() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) sum += values[i];
+        return sum;
+    }
+
+    public double mean() {
+        return size == 0 ? 0 : sum() / size;
+    }
+
+    /**
+     * Returns the value at index size / 2 of the sorted values, the upper of the two middle values for an even size.
+     */
+    public double median() {
+        return select(size / 2);
+    }
+
+    /**
+     * Returns the value at index k of the sorted values, leaving the values as they are.
+     */
+    public double select(int k) {
+        if (k < 0 || k >= size) throw new IndexOutOfBoundsException(k + " of " + size);
+        if (scratch == null || scratch.length < size) scratch = new double[values.length];
+        System.arraycopy(values, 0, scratch, 0, size);
+        return select(scratch, size, k);
+    }
+
+    /**
+     * Quickselect with the median of the first, middle and last values as the pivot.
+     */
+    private static double select(double[] a, int n, int k) {
+        int lo = 0;
+        int hi = n - 1;
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            double pivot = medianOf3(a[lo], a[mid], a[hi]);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    double t = a[i];
+                    a[i++] = a[j];
+                    a[j--] = t;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return a[k];
+        }
+        return a[k];
+    }
+
+    private static double medianOf3(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Returns the most frequent value, the smallest of them on a tie.
+     */
+    public double mode() {
+        if (scratch == null || scratch.length < size) scratch = new double[values.length];
+        System.arraycopy(values, 0, scratch, 0, size);
+        Arrays.sort(scratch, 0, size);
+        double mode = scratch[0];
+        int best = 0;
+        for (int i = 0, run; i < size; i += run) {
+            run = 1;
+            while (i + run < size && scratch[i + run] == scratch[i]) run++;
+            if (run > best) {
+                best = run;
+                mode = scratch[i];
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Returns the l-norm of the values, (sum of |v|^l)^(1/l), scaled by the largest magnitude so it does not overflow.
+     */
+    public double norm(double l) {
+        double max = normInf();
+        if (max == 0) return 0;
+        double value = 0;
+        for (int i = 0; i < size; i++) value += Math.pow(Math.abs(values[i]) / max, l);
+        return Math.pow(value, 1.0 / l) * max;
+    }
+
+    /**
+     * Returns the largest magnitude.
+     */
+    public double normInf() {
+        double max = 0;
+        for (int i = 0; i < size; i++) max = Math.max(max, Math.abs(values[i]));
+        return max;
+    }
+
+    /**
+     * Returns value if any value on the middle row or column of a square neighborhood of odd side is positive, and 0
+     * otherwise, or for any other size.
+     */
+    private double dilation(double value) {
+        int side = (int) Math.round(Math.sqrt(size));
+        if (side * side != size || side % 2 == 0) return 0;
+        int mid = side / 2;
+        for (int i = 0; i < side; i++)
+            if (values[mid * side + i] > 0 || values[i * side + mid] > 0) return value;
+        return 0;
+    }
+
+    /**
+     * Returns 0 if the positive cells of a 3x3 neighborhood form one of the bridge patterns, and the middle value
+     * otherwise.
+     */
+    private double bridge() {
+        int bits = 0;
+        for (int i = 0; i < Math.min(size, 31); i++) if (values[i] > 0) bits |= 1 << i;
+        switch (bits) {
+            case 8 + 16 + 32:
+            case 1 + 8 + 16 + 32:
+            case 1 + 8 + 16 + 32 + 64:
+            case 8 + 16 + 32 + 64:
+            case 4 + 8 + 16 + 32:
+            case 4 + 8 + 16 + 32 + 256:
+            case 8 + 16 + 32 + 256:
+                return 0;
+            default:
+                return get(4);
+        }
+    }
+
+    private double largestResponse(Kernel[] kernels) {
+        double largest = 0;
+        for (Kernel kernel : kernels) largest = Math.max(largest, Math.abs(kernel.apply(values, size)));
+        return largest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DoubleVector)) return false;
+        DoubleVector v = (DoubleVector) o;
+        if (v.size != size) return false;
+        for (int i = 0; i < size; i++) if (Double.compare(values[i], v.values[i]) != 0) return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,120 @@
+package org.bagrounds.java.easyimage.math;
+
+import java.util.Arrays;
+
+/**
+ * An exact histogram of small non-negative integers, such as 8 bit samples or hue bins, that many threads can add to
+ * and that can be merged with other histograms in any order, so the histogram of a whole collection of images can be
+ * built from the histograms of its parts.
+ * <p/>
+ * Counts are longs, so the samples of millions of images fit, and the memory is one long per bin however many are
+ * added.
+ */
+public class Histogram {
+    private final long[] counts;
+    private long total;
+
+    /**
+     * Makes an empty histogram of the 256 values of a sample.
+     */
+    public Histogram() {
+        this(256);
+    }
+
+    public Histogram(int bins) {
+        if (bins < 1) throw new IllegalArgumentException("bins must be positive: " + bins);
+        counts = new long[bins];
+    }
+
+    public int bins() {
+        return counts.length;
+    }
+
+    public synchronized void add(int value) {
+        add(value, 1);
+    }
+
+    public synchronized void add(int value, long count) {
+        if (count < 0) throw new IllegalArgumentException("negative count: " + count);
+        counts[value] += count;
+        total += count;
+    }
+
+    /**
+     * Adds histogram[v] to the count of each value v, as StatisticProcessor.histogram and hueHistogram return them.
+     */
+    public synchronized void add(int[] histogram) {
+        if (histogram.length > counts.length)
+            throw new IllegalArgumentException(histogram.length + " bins added to " + counts.length);
+        for (int v = 0; v < histogram.length; v++) add(v, histogram[v]);
+    }
+
+    /**
+     * Adds the samples of all channels of an image.
+     */
+    public void add(ImageSummary summary) {
+        add(summary.histogram());
+    }
+
+    /**
+     * Adds the samples of one channel of an image.
+     */
+    public void add(ImageSummary summary, int channel) {
+        add(summary.histogram(channel));
+    }
+
+    /**
+     * Adds the counts of other, which must have the same number of bins. other is read before this is locked, so two
+     * histograms can be merged into each other from different threads.
+     */
+    public void merge(Histogram other) {
+        if (other.counts.length != counts.length)
+            throw new IllegalArgumentException(other.counts.length + " bins merged into " + counts.length);
+        long[] theirs = other.counts();
+        synchronized (this) {
+            for (int v = 0; v < counts.length; v++) counts[v] += theirs[v];
+            for (long count : theirs) total += count;
+        }
+    }
+
+    /**
+     * Returns the number of values added.
+     */
+    public synchronized long count() {
+        return total;
+    }
+
+    public synchronized long count(int value) {
+        return counts[value];
+    }
+
+    /**
+     * Returns a copy of the counts.
+     */
+    public synchronized long[] counts() {
+        return Arrays.copyOf(counts, counts.length);
+    }
+
+    public synchronized double mean() {
+        if (total == 0) return 0;
+        double sum = 0;
+        for (int v = 0; v < counts.length; v++) sum += (double) counts[v] * v;
+        return sum / total;
+    }
+
+    /**
+     * Returns the value at index min(n - 1, floor(fraction * n)) of the n values added, in sorted order, which for 0.5
+     * is the median as the median filter takes it.
+     *
+     * @throws IllegalStateException if nothing has been added
+     */
+    public synchronized int quantile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException("fraction out of [0, 1]: " + fraction);
+        if (total == 0) throw new IllegalStateException("empty histogram");
+        long k = Math.min(total - 1, (long) Math.floor(fraction * total));
+        long below = 0;
+        int v = 0;
+        while (below + counts[v] <= k) below += counts[v++];
+        return v;
+    }
+}
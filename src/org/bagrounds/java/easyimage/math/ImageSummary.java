@@ -0,0 +1,137 @@
+package org.bagrounds.java.easyimage.math;
+
+/**
+ * Summary statistics of the samples of an image: the histogram of each channel, and the minimum, maximum, sum, sum of
+ * squares and mode that follow from them, for each channel and for all channels together.
+ * <p/>
+ * Everything is derived from the histograms, so they are all the data a pass over the image needs to collect; see
+ * StatisticProcessor.summarize. EasyImage.getSummary caches one until the image changes.
+ */
+public class ImageSummary {
+    public final int channels;
+    /**
+     * number of samples of each channel
+     */
+    public final long count;
+
+    private final long[][] histograms;
+    private final long[] histogram;
+    private final int[] min;
+    private final int[] max;
+    private final long[] sum;
+    private final long[] sumOfSquares;
+
+    /**
+     * @param histograms - histograms[c][v] is the number of samples of channel c with value v; kept, not copied
+     */
+    public ImageSummary(long[][] histograms) {
+        channels = histograms.length;
+        this.histograms = histograms;
+        histogram = new long[256];
+        min = new int[channels];
+        max = new int[channels];
+        sum = new long[channels];
+        sumOfSquares = new long[channels];
+
+        long count = 0;
+        for (int c = 0; c < channels; c++) {
+            long[] h = histograms[c];
+            min[c] = 255;
+            max[c] = 0;
+            long n = 0;
+            for (int v = 0; v < 256; v++) {
+                if (h[v] == 0) continue;
+                histogram[v] += h[v];
+                n += h[v];
+                sum[c] += h[v] * v;
+                sumOfSquares[c] += h[v] * v * v;
+                min[c] = Math.min(min[c], v);
+                max[c] = Math.max(max[c], v);
+            }
+            count = n;
+        }
+        this.count = count;
+    }
+
+    /**
+     * Returns the smallest sample of any channel, or 255 if there are none, as StatisticProcessor.min(int[]) does.
+     */
+    public int min() {
+        for (int v = 0; v < 255; v++) if (histogram[v] > 0) return v;
+        return 255;
+    }
+
+    /**
+     * Returns the largest sample of any channel, or 0 if there are none.
+     */
+    public int max() {
+        for (int v = 255; v > 0; v--) if (histogram[v] > 0) return v;
+        return 0;
+    }
+
+    public int min(int channel) {
+        return min[channel];
+    }
+
+    public int max(int channel) {
+        return max[channel];
+    }
+
+    public long sum(int channel) {
+        return sum[channel];
+    }
+
+    public long sumOfSquares(int channel) {
+        return sumOfSquares[channel];
+    }
+
+    public double mean(int channel) {
+        return count == 0 ? 0 : (double) sum[channel] / count;
+    }
+
+    /**
+     * Returns the population variance of channel.
+     */
+    public double variance(int channel) {
+        if (count == 0) return 0;
+        double mean = mean(channel);
+        return Math.max(0, (double) sumOfSquares[channel] / count - mean * mean);
+    }
+
+    /**
+     * Returns the most frequent sample over all channels, the smallest of them on a tie.
+     */
+    public int mode() {
+        return mode(histogram);
+    }
+
+    public int mode(int channel) {
+        return mode(histograms[channel]);
+    }
+
+    private static int mode(long[] histogram) {
+        int mode = 0;
+        for (int v = 1; v < 256; v++) if (histogram[v] > histogram[mode]) mode = v;
+        return mode;
+    }
+
+    /**
+     * Returns a copy of the histogram of all channels together.
+     */
+    public int[] histogram() {
+        return toInts(histogram);
+    }
+
+    /**
+     * Returns a copy of the histogram of channel.
+     */
+    public int[] histogram(int channel) {
+        return toInts(histograms[channel]);
+    }
+
+    private static int[] toInts(long[] counts) {
+        int[] ints = new int[counts.length];
+        for (int v = 0; v < counts.length; v++) ints[v] = (int) counts[v];
+        return ints;
+    }
+}
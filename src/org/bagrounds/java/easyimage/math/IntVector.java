@@ -0,0 +1,220 @@
+package org.bagrounds.java.easyimage.math;
+
+import java.util.Arrays;
+
+/**
+ * A growable vector of unboxed ints, such as the samples of a neighborhood, with the statistics of EasyVector.Stat.
+ * Statistics never reorder or change the values. MIN, MAX, SUM and MEAN take one pass, MEDIAN selects in linear
+ * expected time on a scratch copy, and MODE counts the values when they all lie in 0..255, as samples do. The other
+ * statistics are those of DoubleVector, computed on a copy of the values that the vector keeps and refills, so that
+ * filters calling stat once per sample do not allocate.
+ */
+public class IntVector {
+    private int[] values;
+    private int size;
+    private int[] scratch;
+    private int[] counts;
+    private DoubleVector doubles;
+
+    public IntVector() {
+        this(16);
+    }
+
+    public IntVector(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Makes a vector of a copy of values.
+     */
+    public IntVector(int[] values) {
+        this.values = Arrays.copyOf(values, Math.max(1, values.length));
+        size = values.length;
+    }
+
+    /**
+     * Makes a vector of the unsigned values of bytes.
+     */
+    public IntVector(byte[] bytes) {
+        this(bytes.length);
+        for (byte b : bytes) add(b & 0xff);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, 2 * values.length);
+        values[size++] = value;
+    }
+
+    public int get(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        return values[i];
+    }
+
+    public void set(int i, int value) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        values[i] = value;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public DoubleVector toDoubleVector() {
+        DoubleVector v = new DoubleVector(size);
+        for (int i = 0; i < size; i++) v.add(values[i]);
+        return v;
+    }
+
+    /**
+     * Returns the values in the DoubleVector this vector keeps for the statistics of DoubleVector, refilled.
+     */
+    private DoubleVector scratchDoubles() {
+        if (doubles == null) doubles = new DoubleVector(values.length);
+        doubles.clear();
+        for (int i = 0; i < size; i++) doubles.add(values[i]);
+        return doubles;
+    }
+
+    /**
+     * Returns this less v, element by element.
+     */
+    public IntVector minus(IntVector v) {
+        if (v.size != size) throw new IllegalArgumentException("vector size mismatch");
+        IntVector difference = new IntVector(size);
+        for (int i = 0; i < size; i++) difference.add(values[i] - v.values[i]);
+        return difference;
+    }
+
+    /**
+     * Returns the statistic s of the values, 0 for an empty vector and the value itself for a vector of one.
+     */
+    public double stat(EasyVector.Stat s) {
+        if (size < 1) return 0;
+        if (size == 1) return values[0];
+
+        switch (s) {
+            case MEAN:
+                return mean();
+            case MEDIAN:
+                return median();
+            case MODE:
+                return mode();
+            case MAX:
+                return max();
+            case MIN:
+                return min();
+            case SUM:
+                return sum();
+            default:
+                return scratchDoubles().stat(s);
+        }
+    }
+
+    public int min() {
+        int min = values[0];
+        for (int i = 1; i < size; i++) min = Math.min(min, values[i]);
+        return min;
+    }
+
+    public int max() {
+        int max = values[0];
+        for (int i = 1; i < size; i++) max = Math.max(max, values[i]);
+        return max;
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) sum += values[i];
+        return sum;
+    }
+
+    public double mean() {
+        return size == 0 ? 0 : (double) sum() / size;
+    }
+
+    /**
+     * Returns the value at index size / 2 of the sorted values, the upper of the two middle values for an even size.
+     */
+    public int median() {
+        return select(size / 2);
+    }
+
+    /**
+     * Returns the value at index k of the sorted values, leaving the values as they are.
+     */
+    public int select(int k) {
+        if (k < 0 || k >= size) throw new IndexOutOfBoundsException(k + " of " + size);
+        if (scratch == null || scratch.length < size) scratch = new int[values.length];
+        System.arraycopy(values, 0, scratch, 0, size);
+
+        int[] a = scratch;
+        int lo = 0;
+        int hi = size - 1;
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            int pivot = Math.max(Math.min(a[lo], a[mid]), Math.min(Math.max(a[lo], a[mid]), a[hi]));
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    int t = a[i];
+                    a[i++] = a[j];
+                    a[j--] = t;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return a[k];
+        }
+        return a[k];
+    }
+
+    /**
+     * Returns the most frequent value, the smallest of them on a tie.
+     */
+    public int mode() {
+        boolean bytes = true;
+        for (int i = 0; i < size && bytes; i++) bytes = (values[i] & ~0xff) == 0;
+        if (!bytes) return (int) scratchDoubles().mode();
+
+        if (counts == null) counts = new int[256];
+        else Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) counts[values[i]]++;
+        int mode = 0;
+        for (int v = 1; v < 256; v++) if (counts[v] > counts[mode]) mode = v;
+        return mode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IntVector)) return false;
+        IntVector v = (IntVector) o;
+        if (v.size != size) return false;
+        for (int i = 0; i < size; i++) if (values[i] != v.values[i]) return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
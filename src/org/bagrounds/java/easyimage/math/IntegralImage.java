@@ -0,0 +1,154 @@
+package org.bagrounds.java.easyimage.math;
+
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.geometry.BoundingBox;
+
+import java.util.Arrays;
+
+/**
+ * Summed-area tables of the samples of an image and of their squares, one per channel, which give the sum, mean and
+ * variance of any rectangle in constant time.
+ * <p/>
+ * Rectangles are half open, from (x0, y0) up to but not including (x1, y1), like the boxes getSubImage takes. The
+ * table of sums holds a long per sample and channel, 8 bytes. The table of squares takes as much again, so it is only
+ * built, from the sums, the first time sumOfSquares or variance is called. Neither follows later changes to the image;
+ * EasyImage.getIntegralImage caches one until the image changes.
+ * <p/>
+ * A table is one array, so an image needs fewer than 2^31 entries, (width + 1) * (height + 1) * channels.
+ */
+public class IntegralImage {
+    public final int width;
+    public final int height;
+    public final int channels;
+
+    /**
+     * sums[((y * (width + 1)) + x) * channels + c] is the sum of channel c over the rectangle from (0, 0) to (x, y)
+     */
+    private final long[] sums;
+    /**
+     * laid out like sums, built by squares() on first use
+     */
+    private volatile long[] squares;
+
+    /**
+     * @throws IllegalArgumentException if the image has too many samples for one array
+     */
+    public IntegralImage(PixelBuffer pixels) {
+        width = pixels.width;
+        height = pixels.height;
+        channels = pixels.channels;
+        long size = (width + 1L) * (height + 1L) * channels;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("the summed-area table of a " + width + "x" + height + "x" + channels
+                    + " image needs " + size + " entries, more than an array can hold");
+        int stride = (width + 1) * channels;
+        sums = new long[(int) size];
+
+        byte[] row = new byte[width * channels];
+        long[] rowSums = new long[channels];
+        for (int y = 0; y < height; y++) {
+            pixels.getRow(0, y, width, row, 0);
+            Arrays.fill(rowSums, 0);
+            int above = y * stride + channels;
+            int here = above + stride;
+            for (int i = 0; i < row.length; i++) {
+                int c = i % channels;
+                rowSums[c] += row[i] & 0xff;
+                sums[here + i] = sums[above + i] + rowSums[c];
+            }
+        }
+    }
+
+    /**
+     * Returns the table of squares, building it the first time. Each sample is recovered from the sums of the one pixel
+     * box around it, so the image is not read again.
+     */
+    private long[] squares() {
+        long[] table = squares;
+        if (table != null) return table;
+        synchronized (this) {
+            if (squares != null) return squares;
+            table = new long[sums.length];
+            int stride = (width + 1) * channels;
+            long[] rowSquares = new long[channels];
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(rowSquares, 0);
+                int above = y * stride + channels;
+                int here = above + stride;
+                for (int i = 0; i < width * channels; i++) {
+                    int c = i % channels;
+                    long v = sums[here + i] - sums[here + i - channels] - sums[above + i] + sums[above + i - channels];
+                    rowSquares[c] += v * v;
+                    table[here + i] = table[above + i] + rowSquares[c];
+                }
+            }
+            squares = table;
+            return table;
+        }
+    }
+
+    private int index(int x, int y, int channel) {
+        return (y * (width + 1) + x) * channels + channel;
+    }
+
+    private static long box(long[] table, int a, int b, int c, int d) {
+        return table[d] - table[b] - table[c] + table[a];
+    }
+
+    private void check(int x0, int y0, int x1, int y1, int channel) {
+        if (x0 < 0 || y0 < 0 || x1 > width || y1 > height || x0 > x1 || y0 > y1 || channel < 0 || channel >= channels)
+            throw new IllegalArgumentException("rectangle [" + x0 + ", " + x1 + ") x [" + y0 + ", " + y1
+                    + ") or channel " + channel + " outside " + width + "x" + height + "x" + channels);
+    }
+
+    /**
+     * Returns the sum of channel over the rectangle from (x0, y0) up to (x1, y1).
+     */
+    public long sum(int x0, int y0, int x1, int y1, int channel) {
+        check(x0, y0, x1, y1, channel);
+        return box(sums, index(x0, y0, channel), index(x1, y0, channel), index(x0, y1, channel),
+                index(x1, y1, channel));
+    }
+
+    /**
+     * Returns the sum of the squares of channel over the rectangle from (x0, y0) up to (x1, y1).
+     */
+    public long sumOfSquares(int x0, int y0, int x1, int y1, int channel) {
+        check(x0, y0, x1, y1, channel);
+        return box(squares(), index(x0, y0, channel), index(x1, y0, channel), index(x0, y1, channel),
+                index(x1, y1, channel));
+    }
+
+    /**
+     * Returns the mean of channel over the rectangle, or 0 if it is empty.
+     */
+    public double mean(int x0, int y0, int x1, int y1, int channel) {
+        long n = (long) (x1 - x0) * (y1 - y0);
+        long sum = sum(x0, y0, x1, y1, channel);
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    /**
+     * Returns the population variance of channel over the rectangle, or 0 if it is empty.
+     */
+    public double variance(int x0, int y0, int x1, int y1, int channel) {
+        long n = (long) (x1 - x0) * (y1 - y0);
+        long sum = sum(x0, y0, x1, y1, channel);
+        long squares = sumOfSquares(x0, y0, x1, y1, channel);
+        if (n == 0) return 0;
+        double mean = (double) sum / n;
+        return Math.max(0, (double) squares / n - mean * mean);
+    }
+
+    public long sum(BoundingBox box, int channel) {
+        return sum(box.xMin, box.yMin, box.xMax, box.yMax, channel);
+    }
+
+    public double mean(BoundingBox box, int channel) {
+        return mean(box.xMin, box.yMin, box.xMax, box.yMax, channel);
+    }
+
+    public double variance(BoundingBox box, int channel) {
+        return variance(box.xMin, box.yMin, box.xMax, box.yMax, channel);
+    }
+}
@@ -0,0 +1,248 @@
+package org.bagrounds.java.easyimage.math;
+
+import java.util.Arrays;
+
+/**
+ * A convolution kernel: a grid of weights laid over the image with its origin on the pixel being computed, as is, not
+ * mirrored. The response is the weighted sum of the samples under the kernel, divided by divisor, plus offset.
+ * <p/>
+ * A kernel whose weights are all integers is an integer kernel, and is summed in ints. A kernel that is the outer
+ * product of a column and a row, such as the box, Sobel and Gaussian kernels, is found to be separable when it is made,
+ * and ConvolutionProcessor then applies it as a vertical and a horizontal pass, width + height multiplications per
+ * sample instead of width * height.
+ */
+public class Kernel {
+    /**
+     * largest difference, relative to the largest weight, between a weight and the product of the factors that still
+     * counts as separable
+     */
+    private static final double SEPARABLE_TOLERANCE = 1e-9;
+
+    public final int width;
+    public final int height;
+    public final int originX;
+    public final int originY;
+    public final double divisor;
+    public final double offset;
+    /**
+     * whether every weight is an integer
+     */
+    public final boolean integer;
+
+    /**
+     * weights[y * width + x] is the weight of the cell in row y and column x
+     */
+    private final double[] weights;
+    private final double[] column;
+    private final double[] row;
+
+    /**
+     * Makes a float kernel with its origin in the middle, rounded up and to the left.
+     *
+     * @param weights - weights[y][x] is the weight of the cell in row y and column x; all rows must have the same length
+     */
+    public Kernel(double[][] weights) {
+        this(weights, (weights.length == 0 ? 0 : weights[0].length - 1) / 2, (weights.length - 1) / 2, 1, 0);
+    }
+
+    /**
+     * Makes an integer kernel with its origin in the middle, rounded up and to the left.
+     */
+    public Kernel(int[][] weights, double divisor, double offset) {
+        this(toDoubles(weights), (weights.length == 0 ? 0 : weights[0].length - 1) / 2, (weights.length - 1) / 2,
+                divisor, offset);
+    }
+
+    /**
+     * @param originX - column of the cell that lies on the pixel being computed
+     * @param originY - row of that cell
+     * @param divisor - the weighted sum is divided by it
+     * @param offset  - added after dividing
+     */
+    public Kernel(double[][] weights, int originX, int originY, double divisor, double offset) {
+        if (weights.length == 0 || weights[0].length == 0) throw new IllegalArgumentException("empty kernel");
+        if (divisor == 0 || Double.isNaN(divisor)) throw new IllegalArgumentException("divisor: " + divisor);
+        height = weights.length;
+        width = weights[0].length;
+        if (originX < 0 || originX >= width || originY < 0 || originY >= height)
+            throw new IllegalArgumentException("origin (" + originX + ", " + originY + ") outside the kernel");
+        this.originX = originX;
+        this.originY = originY;
+        this.divisor = divisor;
+        this.offset = offset;
+        this.weights = new double[width * height];
+
+        boolean integer = true;
+        for (int y = 0; y < height; y++) {
+            if (weights[y].length != width) throw new IllegalArgumentException("rows of different lengths");
+            for (int x = 0; x < width; x++) {
+                double weight = weights[y][x];
+                if (Double.isNaN(weight) || Double.isInfinite(weight))
+                    throw new IllegalArgumentException("weight " + weight);
+                this.weights[y * width + x] = weight;
+                integer &= weight == Math.rint(weight) && Math.abs(weight) <= Integer.MAX_VALUE;
+            }
+        }
+        this.integer = integer;
+
+        double[][] factors = factor();
+        column = factors == null ? null : factors[0];
+        row = factors == null ? null : factors[1];
+    }
+
+    private static double[][] toDoubles(int[][] weights) {
+        double[][] doubles = new double[weights.length][];
+        for (int y = 0; y < weights.length; y++) {
+            doubles[y] = new double[weights[y].length];
+            for (int x = 0; x < weights[y].length; x++) doubles[y][x] = weights[y][x];
+        }
+        return doubles;
+    }
+
+    /**
+     * Returns {column, row} with weights[y][x] = column[y] * row[x], or null if there are none or they would not save
+     * any work.
+     */
+    private double[][] factor() {
+        if (width == 1 || height == 1) return null;
+        int pivot = 0;
+        for (int i = 1; i < weights.length; i++) if (Math.abs(weights[i]) > Math.abs(weights[pivot])) pivot = i;
+        double largest = Math.abs(weights[pivot]);
+        if (largest == 0) return null;
+
+        int px = pivot % width;
+        int py = pivot / width;
+        double[] column = new double[height];
+        double[] row = new double[width];
+        for (int y = 0; y < height; y++) column[y] = weights[y * width + px];
+        for (int x = 0; x < width; x++) row[x] = weights[py * width + x] / weights[pivot];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                if (Math.abs(weights[y * width + x] - column[y] * row[x]) > SEPARABLE_TOLERANCE * largest) return null;
+        return new double[][]{column, row};
+    }
+
+    public double weight(int x, int y) {
+        return weights[y * width + x];
+    }
+
+    public boolean isSeparable() {
+        return row != null;
+    }
+
+    /**
+     * Returns the column factor of a separable kernel, weight(x, y) = column()[y] * row()[x].
+     *
+     * @throws IllegalStateException if the kernel is not separable
+     */
+    public double[] column() {
+        if (column == null) throw new IllegalStateException("kernel is not separable");
+        return Arrays.copyOf(column, height);
+    }
+
+    /**
+     * Returns the row factor of a separable kernel.
+     *
+     * @throws IllegalStateException if the kernel is not separable
+     */
+    public double[] row() {
+        if (row == null) throw new IllegalStateException("kernel is not separable");
+        return Arrays.copyOf(row, width);
+    }
+
+    /**
+     * Returns the response of the kernel to samples, which holds one sample per cell, row by row.
+     */
+    public double apply(double[] samples) {
+        return apply(samples, samples.length);
+    }
+
+    /**
+     * Returns the response of the kernel to the first count samples, such as those of a vector with spare capacity.
+     */
+    double apply(double[] samples, int count) {
+        if (count != weights.length)
+            throw new IllegalArgumentException(count + " samples for a " + width + "x" + height + " kernel");
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) sum += weights[i] * samples[i];
+        return sum / divisor + offset;
+    }
+
+    /**
+     * Returns the square of side 2r + 1 that averages the samples under it.
+     */
+    public static Kernel box(int r) {
+        if (r < 0) throw new IllegalArgumentException("negative radius: " + r);
+        int side = 2 * r + 1;
+        int[][] weights = new int[side][side];
+        for (int[] row : weights) Arrays.fill(row, 1);
+        return new Kernel(weights, side * side, 0);
+    }
+
+    /**
+     * Returns the normalized Gaussian of standard deviation sigma, cut off at 3 sigma.
+     */
+    public static Kernel gaussian(double sigma) {
+        if (!(sigma > 0)) throw new IllegalArgumentException("sigma: " + sigma);
+        int r = (int) Math.ceil(3 * sigma);
+        double[] line = new double[2 * r + 1];
+        double total = 0;
+        for (int i = -r; i <= r; i++) {
+            line[i + r] = Math.exp(-i * i / (2 * sigma * sigma));
+            total += line[i + r];
+        }
+        double[][] weights = new double[line.length][line.length];
+        for (int y = 0; y < line.length; y++)
+            for (int x = 0; x < line.length; x++) weights[y][x] = line[y] * line[x] / (total * total);
+        return new Kernel(weights);
+    }
+
+    /**
+     * Returns the Sobel kernel of the horizontal derivative, positive where samples grow to the right.
+     */
+    public static Kernel sobelX() {
+        return new Kernel(new int[][]{{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}}, 1, 0);
+    }
+
+    /**
+     * Returns the Sobel kernel of the vertical derivative, positive where samples grow downwards.
+     */
+    public static Kernel sobelY() {
+        return new Kernel(new int[][]{{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}}, 1, 0);
+    }
+
+    /**
+     * Returns the kernel of EasyVector.Stat.GRADIENT: the right and lower neighbors less the left and upper ones, over 3,
+     * plus 128.
+     */
+    public static Kernel gradient() {
+        return new Kernel(new int[][]{{0, -1, 0}, {-1, 0, 1}, {0, 1, 0}}, 3, 128);
+    }
+
+    /**
+     * Returns the four kernels of EasyVector.Stat.CORNERS, one for each corner the pixel may be the corner of: 3 times the
+     * pixel less the three neighbors inside the corner, over 3.
+     */
+    public static Kernel[] corners() {
+        return new Kernel[]{
+                new Kernel(new int[][]{{0, 0, 0}, {0, 3, -1}, {0, -1, -1}}, 3, 0),
+                new Kernel(new int[][]{{0, 0, 0}, {-1, 3, 0}, {-1, -1, 0}}, 3, 0),
+                new Kernel(new int[][]{{0, -1, -1}, {0, 3, -1}, {0, 0, 0}}, 3, 0),
+                new Kernel(new int[][]{{-1, -1, 0}, {-1, 3, 0}, {0, 0, 0}}, 3, 0)};
+    }
+
+    /**
+     * Returns the four kernels of EasyVector.Stat.MAX_GRADIENT, the differences across the pixel between opposite
+     * neighbors: diagonal, vertical, the other diagonal and horizontal.
+     */
+    public static Kernel[] oppositeDifferences() {
+        Kernel[] kernels = new Kernel[4];
+        for (int i = 0; i < 4; i++) {
+            int[][] weights = new int[3][3];
+            weights[i / 3][i % 3] = 1;
+            weights[(8 - i) / 3][(8 - i) % 3] = -1;
+            kernels[i] = new Kernel(weights, 1, 0);
+        }
+        return kernels;
+    }
+}
@@ -0,0 +1,96 @@
+package org.bagrounds.java.easyimage.math;
+
+/**
+ * The count, mean, variance, minimum and maximum of a stream of values, kept in constant memory. Values can be added
+ * one at a time or a whole image channel at a time, from many threads, and two Moments merge into the moments of both
+ * streams in any order.
+ * <p/>
+ * The mean and the sum of squared deviations from it are kept rather than raw sums, and combined with the pairwise
+ * update of Chan, Golub and LeVeque, so the variance stays accurate over billions of samples.
+ */
+public class Moments {
+    private long count;
+    private double mean;
+    /**
+     * sum of squared deviations from the mean
+     */
+    private double deviations;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        add(1, value, 0, value, value);
+    }
+
+    /**
+     * Adds the samples of one channel of an image.
+     */
+    public void add(ImageSummary summary, int channel) {
+        if (summary.count == 0) return;
+        add(summary.count, summary.mean(channel), summary.variance(channel) * summary.count, summary.min(channel),
+                summary.max(channel));
+    }
+
+    /**
+     * Adds the values other has seen. other is read before this is locked, so two Moments can be merged into each other
+     * from different threads.
+     */
+    public void merge(Moments other) {
+        long count;
+        double mean, deviations, min, max;
+        synchronized (other) {
+            count = other.count;
+            mean = other.mean;
+            deviations = other.deviations;
+            min = other.min;
+            max = other.max;
+        }
+        if (count > 0) add(count, mean, deviations, min, max);
+    }
+
+    private synchronized void add(long n, double mean, double deviations, double min, double max) {
+        long total = count + n;
+        double delta = mean - this.mean;
+        this.mean += delta * n / total;
+        this.deviations += deviations + delta * delta * ((double) count * n / total);
+        count = total;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the values, or 0 if there are none.
+     */
+    public synchronized double mean() {
+        return mean;
+    }
+
+    /**
+     * Returns the population variance of the values, or 0 if there are none.
+     */
+    public synchronized double variance() {
+        return count == 0 ? 0 : deviations / count;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    /**
+     * Returns the smallest value, or positive infinity if there are none.
+     */
+    public synchronized double min() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value, or negative infinity if there are none.
+     */
+    public synchronized double max() {
+        return max;
+    }
+}
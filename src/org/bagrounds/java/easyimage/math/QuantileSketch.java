@@ -0,0 +1,193 @@
+package org.bagrounds.java.easyimage.math;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Approximate quantiles of a stream of values in bounded memory, after the KLL sketch of Karnin, Lang and Liberty, for
+ * values that do not fall into a few bins, such as the mean brightness of each image of a collection.
+ * <p/>
+ * Values are kept in levels; a value on level h stands for 2^h of the values added. When the sketch holds more than
+ * its capacity, the lowest full level is sorted and every other value of it, starting at a random one of the first
+ * two, moves up a level while the rest are dropped. The upper levels hold about k values and each lower level 2/3 of
+ * the one above, so the sketch keeps about 3k values however many are added. The rank of a returned quantile is off by
+ * about 1.7 / k of the count, so k = 200 is within 1%. Sketches merge by joining their levels and compacting again, in
+ * any order, so a collection can be sketched in parts on many threads.
+ */
+public class QuantileSketch {
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_CAPACITY = 2;
+
+    public final int k;
+    private final Random random;
+
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    public QuantileSketch(int k) {
+        this(k, new Random());
+    }
+
+    /**
+     * @param random - chooses which half of each level moves up; a seeded one makes the sketch repeatable
+     */
+    public QuantileSketch(int k, Random random) {
+        if (k < MIN_CAPACITY) throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY + ": " + k);
+        this.k = k;
+        this.random = random;
+        levels[0] = new double[capacity(0)];
+    }
+
+    public synchronized void add(double value) {
+        if (Double.isNaN(value)) throw new IllegalArgumentException("NaN");
+        append(0, value);
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        compact();
+    }
+
+    /**
+     * Adds the values other has seen. other is copied before this is locked, so two sketches can be merged into each
+     * other from different threads.
+     */
+    public void merge(QuantileSketch other) {
+        double[][] theirs;
+        long count;
+        double min, max;
+        synchronized (other) {
+            theirs = new double[other.levels.length][];
+            for (int h = 0; h < theirs.length; h++) theirs[h] = Arrays.copyOf(other.levels[h], other.sizes[h]);
+            count = other.count;
+            min = other.min;
+            max = other.max;
+        }
+        synchronized (this) {
+            for (int h = 0; h < theirs.length; h++) for (double value : theirs[h]) append(h, value);
+            this.count += count;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            compact();
+        }
+    }
+
+    /**
+     * Returns the number of values added.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized double min() {
+        return min;
+    }
+
+    public synchronized double max() {
+        return max;
+    }
+
+    /**
+     * Returns a value whose rank among those added is close to fraction of the count: the smallest for 0, the largest
+     * for 1 and about the median for 0.5.
+     *
+     * @throws IllegalStateException if nothing has been added
+     */
+    public synchronized double quantile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException("fraction out of [0, 1]: " + fraction);
+        if (count == 0) throw new IllegalStateException("empty sketch");
+        if (fraction == 0) return min;
+        if (fraction == 1) return max;
+
+        int size = 0;
+        for (int h = 0; h < levels.length; h++) size += sizes[h];
+        double[] values = new double[size];
+        long[] weights = new long[size];
+        int i = 0;
+        for (int h = 0; h < levels.length; h++)
+            for (int j = 0; j < sizes[h]; j++, i++) {
+                values[i] = levels[h][j];
+                weights[i] = 1L << h;
+            }
+        sortTogether(values, weights);
+
+        // compactions keep the total weight equal to count
+        long k = Math.min(count - 1, (long) Math.floor(fraction * count));
+        long below = 0;
+        i = 0;
+        while (below + weights[i] <= k) below += weights[i++];
+        return values[i];
+    }
+
+    /**
+     * Returns the number of values level h holds before it is compacted.
+     */
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3, depth)));
+    }
+
+    private void append(int h, double value) {
+        while (h >= levels.length) {
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            sizes = Arrays.copyOf(sizes, sizes.length + 1);
+            levels[levels.length - 1] = new double[MIN_CAPACITY];
+        }
+        if (sizes[h] == levels[h].length) levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+        levels[h][sizes[h]++] = value;
+    }
+
+    /**
+     * Compacts the lowest full level, again and again, until the sketch is within its capacity.
+     */
+    private void compact() {
+        while (true) {
+            int size = 0;
+            int capacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                size += sizes[h];
+                capacity += capacity(h);
+            }
+            if (size <= capacity) return;
+
+            int h = 0;
+            while (sizes[h] < capacity(h)) h++;
+            double[] level = levels[h];
+            int n = sizes[h];
+            Arrays.sort(level, 0, n);
+            // an odd value out stays behind, so the values moved up weigh exactly as much as the values they replace
+            int kept = n % 2;
+            int moved = n - kept;
+            for (int j = kept + (random.nextBoolean() ? 1 : 0); j < n; j += 2) append(h + 1, level[j]);
+            sizes[h] = kept;
+            if (moved == 0) return;
+        }
+    }
+
+    /**
+     * Sorts values in place, moving each weight along with its value.
+     */
+    private static void sortTogether(double[] values, long[] weights) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        final double[] keys = values.clone();
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(keys[a], keys[b]);
+            }
+        });
+        long[] oldWeights = weights.clone();
+        for (int i = 0; i < order.length; i++) {
+            values[i] = keys[order[i]];
+            weights[i] = oldWeights[order[i]];
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.bagrounds.java.easyimage.metrics;
+
+/**
+ * Commits an org.bagrounds.easyimage.Operation Flight Recorder event for every sample, so processor timings show up in
+ * recordings next to GC and thread events. The event is checked before it is filled in, so the listener costs little
+ * while no recording has the event enabled.
+ * <p/>
+ * Needs a runtime with jdk.jfr. Nothing else in the library refers to it, so the library still runs without.
+ */
+public class JfrMetricsListener implements MetricsListener {
+  @Override
+  public void operationCompleted(Metrics.Sample sample) {
+    OperationEvent event = new OperationEvent();
+    if (!event.isEnabled()) return;
+    event.operation = sample.operation;
+    event.wallTime = sample.wallNanos;
+    event.allocated = sample.allocatedBytes;
+    event.pixels = sample.pixels;
+    event.commit();
+  }
+}
@@ -0,0 +1,171 @@
+package org.bagrounds.java.easyimage.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Instrumentation of the processors. Every instrumented operation calls begin before its work and end after it, and
+ * each registered MetricsListener receives a Sample with the wall time, the bytes allocated by the calling thread and
+ * the pixels the operation covered.
+ * <p/>
+ * Operations nest, such as quantize8Bit calling quantize or open calling dilate. Only the outermost operation of a
+ * thread is reported, and its sample includes the work of the operations it calls, so totals are not counted twice.
+ * <p/>
+ * With no listener registered, begin only counts the nesting depth of the thread and returns null, and end returns
+ * after counting it back, so the instrumentation can stay in place under load. Processor operations are reported even
+ * if they throw; reading and writing files is reported only when it succeeds, and is cancelled otherwise.
+ */
+public final class Metrics {
+  private static final MetricsListener[] NONE = new MetricsListener[0];
+  private static volatile MetricsListener[] listeners = NONE;
+
+  private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final boolean COUNTS_ALLOCATION = allocationCounting();
+
+  private Metrics() {
+  }
+
+  private static boolean allocationCounting() {
+    try {
+      if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+      com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) THREADS;
+      if (!hotspot.isThreadAllocatedMemorySupported()) return false;
+      if (!hotspot.isThreadAllocatedMemoryEnabled()) hotspot.setThreadAllocatedMemoryEnabled(true);
+      return hotspot.isThreadAllocatedMemoryEnabled();
+    } catch (LinkageError e) {
+      return false;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  private static long allocatedBytes() {
+    if (!COUNTS_ALLOCATION) return 0;
+    return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public static synchronized void addListener(MetricsListener listener) {
+    if (listener == null) throw new NullPointerException();
+    MetricsListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+    added[listeners.length] = listener;
+    listeners = added;
+  }
+
+  public static synchronized void removeListener(MetricsListener listener) {
+    for (int i = 0; i < listeners.length; i++)
+      if (listeners[i] == listener) {
+        MetricsListener[] removed = new MetricsListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, removed, 0, i);
+        System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+        listeners = removed;
+        return;
+      }
+  }
+
+  public static boolean isEnabled() {
+    return listeners.length > 0;
+  }
+
+  /**
+   * Returns whether the JVM can count the bytes a thread allocates. If it cannot, Sample.allocatedBytes is -1.
+   */
+  public static boolean countsAllocation() {
+    return COUNTS_ALLOCATION;
+  }
+
+  /**
+   * Starts timing operation, which covers the given number of pixels. Every call must be followed by exactly one call
+   * to end or cancel on the same thread, in a finally block. Returns null if no listener is registered or if the
+   * thread is already inside another operation.
+   *
+   * @param operation - Class.method, a constant so that nothing is allocated for it
+   */
+  public static Scope begin(String operation, long pixels) {
+    if (DEPTH.get()[0]++ > 0 || listeners.length == 0) return null;
+    return new Scope(operation, pixels);
+  }
+
+  /**
+   * Finishes the operation begin started and reports it to the listeners, unless scope is null.
+   *
+   * @return whether this was the outermost operation of the thread
+   */
+  public static boolean end(Scope scope) {
+    boolean outermost = --DEPTH.get()[0] == 0;
+    if (scope == null) return outermost;
+    long nanos = System.nanoTime() - scope.startNanos;
+    long allocated = COUNTS_ALLOCATION ? allocatedBytes() - scope.startAllocated : -1;
+
+    Sample sample = new Sample(scope.operation, nanos, allocated, scope.pixels);
+    for (MetricsListener listener : listeners) listener.operationCompleted(sample);
+    return outermost;
+  }
+
+  /**
+   * Like end, but reports pixels, for operations that only know their size once they are done, such as reading a file.
+   */
+  public static boolean end(Scope scope, long pixels) {
+    if (scope != null) scope.pixels = pixels;
+    return end(scope);
+  }
+
+  /**
+   * Finishes the operation begin started without reporting it, for operations that are only reported when they
+   * succeed.
+   */
+  public static void cancel(Scope scope) {
+    DEPTH.get()[0]--;
+  }
+
+  /**
+   * An operation in progress, confined to the thread that began it.
+   */
+  public static final class Scope {
+    final String operation;
+    final long startNanos;
+    final long startAllocated;
+    long pixels;
+
+    private Scope(String operation, long pixels) {
+      this.operation = operation;
+      this.pixels = pixels;
+      startAllocated = allocatedBytes();
+      startNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * One completed operation, with the work of the operations it called.
+   */
+  public static final class Sample {
+    public final String operation;
+    public final long wallNanos;
+    /**
+     * bytes allocated by the calling thread during the operation, or -1. Bands that BandExecutor runs on pool threads
+     * allocate on those threads and are not counted, so the operation must run on BandExecutor.sequential() for this to
+     * cover all of its allocations.
+     */
+    public final long allocatedBytes;
+    public final long pixels;
+
+    public Sample(String operation, long wallNanos, long allocatedBytes, long pixels) {
+      this.operation = operation;
+      this.wallNanos = wallNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.pixels = pixels;
+    }
+
+    @Override
+    public String toString() {
+      return operation + ": " + wallNanos + " ns, " + allocatedBytes + " bytes, " + pixels + " pixels";
+    }
+  }
+}
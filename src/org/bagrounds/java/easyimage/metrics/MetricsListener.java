@@ -0,0 +1,9 @@
+package org.bagrounds.java.easyimage.metrics;
+
+/**
+ * Receives a Sample for every instrumented operation that completes while the listener is registered with Metrics.
+ * It is called on the thread that ran the operation, right after it, so it should be quick and must be thread safe.
+ */
+public interface MetricsListener {
+  void operationCompleted(Metrics.Sample sample);
+}
@@ -0,0 +1,124 @@
+package org.bagrounds.java.easyimage.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A listener that totals the samples of each operation: invocations, wall time, allocated bytes and pixels. Register it
+ * with Metrics.addListener and read it with get or snapshot at any time.
+ */
+public class MetricsRegistry implements MetricsListener {
+  private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+  @Override
+  public void operationCompleted(Metrics.Sample sample) {
+    OperationStats stats = operations.get(sample.operation);
+    if (stats == null) {
+      OperationStats created = new OperationStats(sample.operation);
+      stats = operations.putIfAbsent(sample.operation, created);
+      if (stats == null) stats = created;
+    }
+    stats.add(sample);
+  }
+
+  /**
+   * Returns the totals of operation, or null if it has not completed since the registry was created or reset.
+   */
+  public OperationStats get(String operation) {
+    return operations.get(operation);
+  }
+
+  /**
+   * Returns the totals of every operation seen so far, sorted by total wall time, longest first.
+   */
+  public List<OperationStats> snapshot() {
+    List<OperationStats> snapshot = new ArrayList<OperationStats>(operations.values());
+    Collections.sort(snapshot, new Comparator<OperationStats>() {
+      @Override
+      public int compare(OperationStats a, OperationStats b) {
+        long difference = b.totalNanos() - a.totalNanos();
+        return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+      }
+    });
+    return snapshot;
+  }
+
+  public void reset() {
+    operations.clear();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+    for (OperationStats stats : snapshot()) report.append(stats).append('\n');
+    return report.toString();
+  }
+
+  /**
+   * Running totals of one operation. The counters are updated independently, so a read during an update may see one
+   * counter ahead of the others.
+   */
+  public static class OperationStats {
+    public final String operation;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong pixels = new AtomicLong();
+
+    OperationStats(String operation) {
+      this.operation = operation;
+    }
+
+    void add(Metrics.Sample sample) {
+      invocations.incrementAndGet();
+      totalNanos.addAndGet(sample.wallNanos);
+      if (sample.allocatedBytes > 0) allocatedBytes.addAndGet(sample.allocatedBytes);
+      pixels.addAndGet(sample.pixels);
+      long max = maxNanos.get();
+      while (sample.wallNanos > max && !maxNanos.compareAndSet(max, sample.wallNanos)) max = maxNanos.get();
+    }
+
+    public long invocations() {
+      return invocations.get();
+    }
+
+    public long totalNanos() {
+      return totalNanos.get();
+    }
+
+    public long maxNanos() {
+      return maxNanos.get();
+    }
+
+    public long allocatedBytes() {
+      return allocatedBytes.get();
+    }
+
+    public long pixels() {
+      return pixels.get();
+    }
+
+    public double meanNanos() {
+      long count = invocations();
+      return count == 0 ? 0 : (double) totalNanos() / count;
+    }
+
+    public double megapixelsPerSecond() {
+      long nanos = totalNanos();
+      return nanos == 0 ? 0 : pixels() * 1e3 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d calls, %.3f ms total, %.3f ms mean, %.3f ms max, %d bytes, %.2f megapixels/s",
+          operation, invocations(), totalNanos() / 1e6, meanNanos() / 1e6, maxNanos() / 1e6, allocatedBytes(),
+          megapixelsPerSecond());
+    }
+  }
+}
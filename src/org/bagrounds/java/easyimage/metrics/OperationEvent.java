@@ -0,0 +1,35 @@
+package org.bagrounds.java.easyimage.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder event JfrMetricsListener commits for each operation. It is disabled unless a recording enables
+ * org.bagrounds.easyimage.Operation.
+ */
+@Name("org.bagrounds.easyimage.Operation")
+@Label("EasyImage Operation")
+@Category("EasyImage")
+@Description("An instrumented EasyImage processor operation")
+@StackTrace(false)
+class OperationEvent extends jdk.jfr.Event {
+  @Label("Operation")
+  String operation;
+
+  @Label("Wall Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long wallTime;
+
+  @Label("Allocated")
+  @Description("Bytes allocated by the calling thread, or -1 if the JVM does not count them")
+  @DataAmount(DataAmount.BYTES)
+  long allocated;
+
+  @Label("Pixels")
+  long pixels;
+}
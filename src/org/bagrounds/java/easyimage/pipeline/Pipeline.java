@@ -0,0 +1,331 @@
+package org.bagrounds.java.easyimage.pipeline;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.geometry.StructuringElement;
+import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.processors.ColorProcessor;
+import org.bagrounds.java.easyimage.processors.StatisticProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records operations on an image and runs them later in as few passes over its pixels as possible. The result is the
+ * same as calling the processor methods of the same names one after another.
+ * <p/>
+ * Consecutive operations on individual samples (invert, threshold, quantizeMod, map and the conversions to gray scale
+ * and black and white) are composed into lookup tables and run as one pass. histNormalize needs the range of its
+ * input, so it ends a pass, which counts the values it writes along the way. Neighborhood operations run through the
+ * processors. Dilation reads its input through any pending table, so the table costs no pass of its own, and erosion
+ * leaves its final inversion pending for the stages after it.
+ * <p/>
+ * <pre>
+ * image.pipeline().convertToGrayScale().histNormalize().convertToBW(128).invert().close(1).run();
+ * </pre>
+ */
+public class Pipeline {
+  private final EasyImage image;
+  private final List<Stage> stages = new ArrayList<Stage>();
+
+  public Pipeline(EasyImage image) {
+    this.image = image;
+  }
+
+  /**
+   * An operation the pipeline cannot look inside, such as a neighborhood filter. Every pending stage is run before it.
+   */
+  public interface Operation {
+    void apply(EasyImage image);
+  }
+
+  private interface Stage {
+    void run(Pass pass);
+  }
+
+  public Pipeline invert() {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.map(ColorProcessor.invertLut(), image.hasAlphaChannel && pass.channels() == 4 ? 1 : 0);
+      }
+    });
+    return this;
+  }
+
+  public Pipeline threshold(int keepBelow, int keepAbove) {
+    return map(ColorProcessor.thresholdLut(keepBelow, keepAbove));
+  }
+
+  public Pipeline quantizeMod(int m) {
+    return map(ColorProcessor.quantizeModLut(m));
+  }
+
+  /**
+   * Replaces every sample s with lut[s].
+   */
+  public Pipeline map(final byte[] lut) {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.map(lut, 0);
+      }
+    });
+    return this;
+  }
+
+  public Pipeline convertToGrayScale() {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.grayScale();
+      }
+    });
+    return this;
+  }
+
+  public Pipeline convertToBW(final int thresh) {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        if (image.isBW) return;
+        pass.grayScale();
+        pass.map(ColorProcessor.bwLut(thresh), 0);
+        image.isBW = true;
+        image.isGrayScale = false;
+      }
+    });
+    return this;
+  }
+
+  public Pipeline histNormalize() {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        int[] histogram = pass.flush(true);
+        pass.map(EasyImage.histNormalizeLut(StatisticProcessor.min(histogram), StatisticProcessor.max(histogram)), 0);
+      }
+    });
+    return this;
+  }
+
+  public Pipeline dilate(final int n) {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.dilate(n);
+      }
+    });
+    return this;
+  }
+
+  public Pipeline erode(final int n) {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.erode(n);
+      }
+    });
+    return this;
+  }
+
+  public Pipeline close(final int n) {
+    return dilate(n).erode(n);
+  }
+
+  public Pipeline open(int n) {
+    return invert().close(n).invert();
+  }
+
+  public Pipeline dilate(final StructuringElement element) {
+    return apply(new Operation() {
+      @Override
+      public void apply(EasyImage image) {
+        image.morphologicalProcessor.dilate(element);
+      }
+    });
+  }
+
+  public Pipeline erode(final StructuringElement element) {
+    return apply(new Operation() {
+      @Override
+      public void apply(EasyImage image) {
+        image.morphologicalProcessor.erode(element);
+      }
+    });
+  }
+
+  public Pipeline filter(final EasyVector.Stat stat, final int r) {
+    return apply(new Operation() {
+      @Override
+      public void apply(EasyImage image) {
+        image.statisticProcessor.filter(stat, r);
+      }
+    });
+  }
+
+  public Pipeline apply(final Operation operation) {
+    stages.add(new Stage() {
+      @Override
+      public void run(Pass pass) {
+        pass.flush(false);
+        operation.apply(image);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Runs every recorded stage on the image and returns it. The stages are kept, so run may be called again.
+   */
+  public EasyImage run() {
+    Pass pass = new Pass();
+    try {
+      for (Stage stage : stages) stage.run(pass);
+      pass.flush(false);
+    } finally {
+      image.modified();
+    }
+    return image;
+  }
+
+  /**
+   * The work recorded but not yet done to the pixels of the image. The flags of the image are updated as stages are
+   * recorded, and its storage catches up on flush.
+   */
+  private class Pass {
+    /**
+     * tables for each channel of the current storage, null where a channel is unchanged, or null if none are pending
+     */
+    private byte[][] luts;
+    /**
+     * set when a conversion to gray scale follows luts
+     */
+    private boolean gray;
+    /**
+     * table for the gray value, or null
+     */
+    private byte[] grayLut;
+
+    int channels() {
+      return gray ? 1 : image.pixelLength;
+    }
+
+    void map(byte[] lut, int firstChannel) {
+      if (gray) {
+        grayLut = compose(grayLut, lut);
+        return;
+      }
+      if (luts == null) luts = new byte[image.pixelLength][];
+      for (int c = firstChannel; c < luts.length; c++) luts[c] = compose(luts[c], lut);
+    }
+
+    void grayScale() {
+      if (image.isGrayScale || image.isBW) return;
+      gray = true;
+      image.isGrayScale = true;
+      image.hasAlphaChannel = false;
+    }
+
+    void dilate(int n) {
+      byte[] lut = commonLut();
+      if (gray || lut == null) {
+        flush(false);
+        lut = null;
+      }
+      luts = null;
+      image.morphologicalProcessor.dilate(n, lut);
+    }
+
+    void erode(int n) {
+      map(ColorProcessor.invertLut(), image.hasAlphaChannel && channels() == 4 ? 1 : 0);
+      dilate(n);
+      map(ColorProcessor.invertLut(), image.hasAlphaChannel && channels() == 4 ? 1 : 0);
+    }
+
+    /**
+     * Returns the table every channel has pending, or null if there is none or the channels differ.
+     */
+    private byte[] commonLut() {
+      if (luts == null || luts[0] == null) return null;
+      for (byte[] lut : luts) if (lut == null || !Arrays.equals(lut, luts[0])) return null;
+      return luts[0];
+    }
+
+    /**
+     * Brings the pixels of the image up to date in one pass and returns the histogram of the result if collect is set.
+     */
+    int[] flush(boolean collect) {
+      int[] histogram = collect ? new int[256] : null;
+      if (gray) toGrayScale(histogram);
+      else if (luts != null) mapInPlace(histogram);
+      else if (collect) image.pixels.histogram(histogram);
+      if (gray || luts != null) image.modified();
+
+      luts = null;
+      gray = false;
+      grayLut = null;
+      return histogram;
+    }
+
+    private void mapInPlace(int[] histogram) {
+      PixelBuffer pixels = image.pixels;
+      byte[] common = commonLut();
+      if (common != null && histogram == null) {
+        pixels.applyLut(common);
+        return;
+      }
+
+      int width = pixels.width;
+      byte[] row = new byte[width * pixels.channels];
+      for (int j = 0; j < pixels.height; j++) {
+        pixels.getRow(0, j, width, row, 0);
+        mapRow(row);
+        pixels.setRow(0, j, width, row, 0);
+        if (histogram != null) for (byte b : row) histogram[b & 0xff]++;
+      }
+    }
+
+    private void mapRow(byte[] row) {
+      int channels = luts.length;
+      for (int c = 0; c < channels; c++) {
+        byte[] lut = luts[c];
+        if (lut != null)
+          for (int p = c; p < row.length; p += channels) row[p] = lut[row[p] & 0xff];
+      }
+    }
+
+    private void toGrayScale(int[] histogram) {
+      PixelBuffer pixels = image.pixels;
+      int width = pixels.width;
+      int pixelLength = pixels.channels;
+      PixelBuffer result = pixels.create(width, pixels.height, 1);
+      byte[] row = new byte[width * pixelLength];
+      byte[] grayRow = new byte[width];
+
+      for (int j = 0; j < pixels.height; j++) {
+        pixels.getRow(0, j, width, row, 0);
+        if (luts != null) mapRow(row);
+        for (int i = 0, pos = 0; i < width; i++, pos += pixelLength) {
+          int value = ColorProcessor.grayValue(row[pos] & 0xff, row[pos + 1] & 0xff, row[pos + 2] & 0xff);
+          if (grayLut != null) value = grayLut[value] & 0xff;
+          grayRow[i] = (byte) value;
+          if (histogram != null) histogram[value]++;
+        }
+        result.setRow(0, j, width, grayRow, 0);
+      }
+      image.setPixels(result);
+    }
+  }
+
+  /**
+   * Returns the table that applies first and then then.
+   */
+  private static byte[] compose(byte[] first, byte[] then) {
+    if (first == null) return then;
+    byte[] lut = new byte[256];
+    for (int v = 0; v < 256; v++) lut[v] = then[first[v] & 0xff];
+    return lut;
+  }
+}
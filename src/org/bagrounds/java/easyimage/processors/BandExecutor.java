@@ -0,0 +1,170 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an image into bands and processes the bands in parallel on a ForkJoinPool. Each band writes only
+ * its own rows, so as long as a task reads rows from outside its band only through Band.getRow, the result is the same
+ * as running the bands one after another, bit for bit.
+ * <p/>
+ * Bands hold at least minBandPixels pixels, so small images run on the calling thread. Buffers that serialize their
+ * access, such as tiled ones, also run as a single band.
+ */
+public class BandExecutor {
+  private static volatile BandExecutor shared = new BandExecutor(ForkJoinPool.commonPool(), 1 << 16);
+
+  public final ForkJoinPool pool;
+  public final int minBandPixels;
+
+  /**
+   * @param pool          - pool the bands run on, or null to run everything on the calling thread
+   * @param minBandPixels - smallest number of pixels worth a band of its own
+   */
+  public BandExecutor(ForkJoinPool pool, int minBandPixels) {
+    this.pool = pool;
+    this.minBandPixels = Math.max(1, minBandPixels);
+  }
+
+  /**
+   * Returns the executor processors use unless they are given their own.
+   */
+  public static BandExecutor getShared() {
+    return shared;
+  }
+
+  public static void setShared(BandExecutor executor) {
+    shared = executor;
+  }
+
+  /**
+   * Returns an executor that runs every task as one band on the calling thread.
+   */
+  public static BandExecutor sequential() {
+    return new BandExecutor(null, Integer.MAX_VALUE);
+  }
+
+  public interface Task {
+    /**
+     * Processes rows start (inclusive) to end (exclusive). Runs concurrently with the other bands.
+     */
+    void run(Band band);
+  }
+
+  /**
+   * A range of rows together with the rows around it that a neighborhood operation reads.
+   */
+  public static class Band {
+    public final int start;
+    public final int end;
+
+    private final PixelBuffer source;
+    private final byte[][] above;
+    private final byte[][] below;
+
+    Band(PixelBuffer source, int start, int end, int halo) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      above = new byte[Math.min(halo, start)][];
+      below = new byte[Math.min(halo, source.height - end)][];
+    }
+
+    private void snapshot() {
+      int rowLength = source.width * source.channels;
+      for (int i = 0; i < above.length; i++) {
+        above[i] = new byte[rowLength];
+        source.getRow(0, start - above.length + i, source.width, above[i], 0);
+      }
+      for (int i = 0; i < below.length; i++) {
+        below[i] = new byte[rowLength];
+        source.getRow(0, end + i, source.width, below[i], 0);
+      }
+    }
+
+    /**
+     * Copies the whole of row y of the source, as it was before any band started, into dst. Rows outside the band
+     * must be within the halo. Rows inside it are read from the source itself, so the task must read each of them
+     * before it overwrites it.
+     */
+    public void getRow(int y, byte[] dst) {
+      getRow(y, dst, 0);
+    }
+
+    /**
+     * Same as getRow(y, dst), but copies the row to dst from offset on.
+     */
+    public void getRow(int y, byte[] dst, int offset) {
+      int rowLength = source.width * source.channels;
+      if (y < start) System.arraycopy(above[y - start + above.length], 0, dst, offset, rowLength);
+      else if (y >= end) System.arraycopy(below[y - end], 0, dst, offset, rowLength);
+      else source.getRow(0, y, source.width, dst, offset);
+    }
+  }
+
+  /**
+   * Runs task over bands of the rows of buffer. Bands do not read each other's rows.
+   */
+  public void run(PixelBuffer buffer, Task task) {
+    run(buffer, 0, task);
+  }
+
+  /**
+   * Runs task over bands of the rows of buffer, which is modified in place. Before any band starts, the halo rows
+   * above and below each band are copied, so a band reads its neighbors' rows as they were at the start.
+   */
+  public void run(PixelBuffer buffer, int halo, Task task) {
+    List<Band> bands = split(buffer, halo);
+    if (bands.size() == 1) {
+      task.run(bands.get(0));
+      return;
+    }
+    for (Band band : bands) band.snapshot();
+    pool.invoke(new BandAction(bands, 0, bands.size(), task));
+  }
+
+  private List<Band> split(PixelBuffer buffer, int halo) {
+    int height = buffer.height;
+    long pixels = (long) buffer.width * height;
+    int count = 1;
+    if (pool != null && buffer.allowsParallelRows()) {
+      long byPixels = pixels / minBandPixels;
+      count = (int) Math.max(1, Math.min(Math.min(byPixels, pool.getParallelism() * 4L), height));
+    }
+
+    List<Band> bands = new ArrayList<Band>(count);
+    for (int b = 0; b < count; b++)
+      bands.add(new Band(buffer, (int) ((long) height * b / count), (int) ((long) height * (b + 1) / count), halo));
+    return bands;
+  }
+
+  private static class BandAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Band> bands;
+    private final int from;
+    private final int to;
+    private final Task task;
+
+    BandAction(List<Band> bands, int from, int to, Task task) {
+      this.bands = bands;
+      this.from = from;
+      this.to = to;
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        task.run(bands.get(from));
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new BandAction(bands, from, middle, task), new BandAction(bands, middle, to, task));
+    }
+  }
+}
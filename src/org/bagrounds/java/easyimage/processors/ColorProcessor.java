@@ -2,192 +2,705 @@ package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.ColorPixel;
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.BinaryPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.IndexedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PackedIntPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+import org.bagrounds.java.easyimage.color.ColorKey;
+import org.bagrounds.java.easyimage.color.ColorTable;
+import org.bagrounds.java.easyimage.color.Palette;
+import org.bagrounds.java.easyimage.math.IntegralImage;
+import org.bagrounds.java.easyimage.metrics.Metrics;
 
 /**
  * Created by bryan on 4/28/15.
+ * <p/>
+ * Operations that look at whole colors map one packed 0xRRGGBB value at a time, which is a single load and store on
+ * packed int storage. Operations on individual samples are expressed as lookup tables. Every storage layout supports
+ * both without conversion.
  */
 public class ColorProcessor extends Processor {
   public ColorProcessor(EasyImage image) {
     super(image);
   }
 
-  public void quantize8Bit() {
-    ColorPixel pixel;
-    double hue, saturation, intensity;
-    double dHue, dSaturation, dIntensity;
-
-    for (int i = 0; i < image.width; i++) {
-      for (int j = 0; j < image.height; j++) {
-        pixel = new ColorPixel(image.getPixelArray(i, j));
-        hue = pixel.getHue();
-        intensity = pixel.getIntensity();
-        saturation = pixel.getSaturation();
-
-        if (saturation < .2) { // 16 Grayscale
-          dIntensity = 255 * Math.round(intensity * 16) / 16.0;
-          image.setPixelArray(i, j, new byte[]{(byte) dIntensity, (byte) dIntensity, (byte) dIntensity});
+  /**
+   * Replaces the color of every pixel, packed as 0xRRGGBB, with the result of map. Packed storage is rewritten in its
+   * array, other color layouts a row at a time through getRow and setRow, and gray ones through getRGB and setRGB, so
+   * the storage is never converted and views stay views. Bands of rows are mapped in parallel, so map is called from
+   * several threads at once. Indexed storage maps its palette entries instead, once each, and keeps its indices.
+   */
+  protected void mapColors(final ColorMap map) {
+    final PixelBuffer buffer = image.pixels;
+    if (buffer instanceof IndexedPixelBuffer) {
+      IndexedPixelBuffer indexed = (IndexedPixelBuffer) buffer;
+      for (int i = 0; i < indexed.paletteSize(); i++) indexed.setPaletteColor(i, map.map(indexed.paletteColor(i)));
+      return;
+    }
+    getExecutor().run(buffer, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        if (buffer instanceof PackedIntPixelBuffer) {
+          PackedIntPixelBuffer packed = (PackedIntPixelBuffer) buffer;
+          int[] data = packed.data;
+          for (int y = band.start; y < band.end; y++)
+            for (int i = packed.indexOf(0, y), end = i + packed.width; i < end; i++)
+              data[i] = (data[i] & 0xff000000) | map.map(data[i] & 0xffffff);
+        } else if (buffer.channels >= 3) {
+          int channels = buffer.channels;
+          byte[] row = ScratchPool.get().borrowBytes(buffer.width * channels);
+          for (int y = band.start; y < band.end; y++) {
+            buffer.getRow(0, y, buffer.width, row, 0);
+            for (int p = 0, end = buffer.width * channels; p < end; p += channels) {
+              int rgb = map.map(((row[p] & 0xff) << 16) | ((row[p + 1] & 0xff) << 8) | (row[p + 2] & 0xff));
+              row[p] = (byte) (rgb >> 16);
+              row[p + 1] = (byte) (rgb >> 8);
+              row[p + 2] = (byte) rgb;
+            }
+            buffer.setRow(0, y, buffer.width, row, 0);
+          }
+          ScratchPool.get().giveBack(row);
         } else {
-          dSaturation = Math.ceil(saturation * 5) / 5.0;
-          dIntensity = Math.round(intensity * 10) / 10.0;
-          dHue = Math.round(hue * 6 / 360) * 360.0 / 6.0;
-          image.setPixelArray(i, j, ColorPixel.rgbFromHsi(dHue, dSaturation, dIntensity));
+          for (int y = band.start; y < band.end; y++)
+            for (int x = 0; x < buffer.width; x++)
+              buffer.setRGB(x, y, map.map(buffer.getRGB(x, y)));
         }
-        //System.out.print(Arrays.toString(pixel.byteArrayValue()) + "/" +Arrays.toString(new double[]{hue, saturation, intensity}) + "/" +Arrays.toString( ColorPixel.rgbFromHsi(dHue,dSaturation,dIntensity)));
-        pixel = null;
       }
-      //System.out.println();
+    });
+  }
+
+  /**
+   * Replaces the color of every pixel with its entry in table.
+   */
+  public void quantize(final ColorTable table) {
+    Metrics.Scope scope = begin("ColorProcessor.quantize");
+    try {
+      mapColors(new ColorMap() {
+        @Override
+        public int map(int rgb) {
+          return table.map(rgb);
+        }
+      });
+    } finally {
+      endUpdate(scope);
     }
   }
 
-  public void quantize3Bit() {
-    ColorPixel p;
-
-    double hue;
-    double intensity;
-    double saturation;
-
-    for (int i = 0; i < image.width; i++)
-      for (int j = 0; j < image.height; j++) {
-        p = new ColorPixel(image.getPixelArray(i, j));
-        intensity = p.getIntensity();
-        saturation = p.getSaturation();
-
-        if (saturation < .2) {
-          if (intensity < .2) image.setPixelArray(i, j, ColorPixel.BLACK.byteArrayValue());
-          else if (intensity < .4) image.setPixelArray(i, j, ColorPixel.DARKGRAY.byteArrayValue());
-          else if (intensity < .6) image.setPixelArray(i, j, ColorPixel.LIGHTGRAY.byteArrayValue());
-          else if (intensity < .8) image.setPixelArray(i, j, ColorPixel.GRAYWHITE.byteArrayValue());
-          else image.setPixelArray(i, j, ColorPixel.WHITE.byteArrayValue());
+  /**
+   * Replaces the color of every pixel with the nearest color of palette.
+   */
+  public void quantize(Palette palette) {
+    quantize(palette.table());
+  }
+
+  /**
+   * Replaces the storage with an IndexedPixelBuffer of the distinct entries of table, each pixel holding the index of
+   * its entry, which gives the same colors as quantize(table). Tables of up to 16 distinct entries get 4 bit indices.
+   *
+   * @throws IllegalStateException if table has more than 256 distinct entries
+   */
+  public void quantizeIndexed(final ColorTable table) {
+    Metrics.Scope scope = begin("ColorProcessor.quantizeIndexed");
+    try {
+      index(table.palette(), new ColorMap() {
+        @Override
+        public int map(int rgb) {
+          return table.paletteIndex(rgb);
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Replaces the storage with an IndexedPixelBuffer of the colors of palette, in their order, each pixel holding the
+   * index of the color nearest to it.
+   */
+  public void quantizeIndexed(final Palette palette) {
+    Metrics.Scope scope = begin("ColorProcessor.quantizeIndexed");
+    try {
+      final ColorTable indexTable = palette.indexTable();
+      index(palette, new ColorMap() {
+        @Override
+        public int map(int rgb) {
+          return indexTable.map(rgb);
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Fills a new IndexedPixelBuffer with the index indexOf gives the color of each pixel, in bands of rows in parallel,
+   * and makes it the storage.
+   */
+  private void index(Palette palette, final ColorMap indexOf) {
+    final PixelBuffer buffer = image.pixels;
+    final IndexedPixelBuffer indexed = new IndexedPixelBuffer(buffer.width, buffer.height,
+        palette.size() <= 16 ? 4 : 8, palette.colors());
+    // rows of indices start on a new byte, so bands of rows never share one
+    getExecutor().run(buffer, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        if (buffer.channels >= 3) {
+          int channels = buffer.channels;
+          byte[] row = ScratchPool.get().borrowBytes(buffer.width * channels);
+          for (int y = band.start; y < band.end; y++) {
+            buffer.getRow(0, y, buffer.width, row, 0);
+            for (int x = 0, p = 0; x < buffer.width; x++, p += channels)
+              indexed.setIndex(x, y, indexOf.map(((row[p] & 0xff) << 16) | ((row[p + 1] & 0xff) << 8) | (row[p + 2] & 0xff)));
+          }
+          ScratchPool.get().giveBack(row);
         } else {
-          hue = p.getHue();
-
-          if (hue >= 345 || hue < 15)
-            image.setPixelArray(i, j, ColorPixel.RED.byteArrayValue());
-          else if (hue < 45)
-            image.setPixelArray(i, j, ColorPixel.REDYELLOW.byteArrayValue());
-          else if (hue < 75)
-            image.setPixelArray(i, j, ColorPixel.YELLOW.byteArrayValue());
-          else if (hue < 105)
-            image.setPixelArray(i, j, ColorPixel.YELLOWGREEN.byteArrayValue());
-          else if (hue < 135)
-            image.setPixelArray(i, j, ColorPixel.GREEN.byteArrayValue());
-          else if (hue < 165)
-            image.setPixelArray(i, j, ColorPixel.GREENCYAN.byteArrayValue());
-          else if (hue < 195)
-            image.setPixelArray(i, j, ColorPixel.CYAN.byteArrayValue());
-          else if (hue < 225)
-            image.setPixelArray(i, j, ColorPixel.CYANBLUE.byteArrayValue());
-          else if (hue < 255)
-            image.setPixelArray(i, j, ColorPixel.BLUE.byteArrayValue());
-          else if (hue < 285)
-            image.setPixelArray(i, j, ColorPixel.BLUEMAGENTA.byteArrayValue());
-          else if (hue < 315)
-            image.setPixelArray(i, j, ColorPixel.MAGENTA.byteArrayValue());
-          else if (hue < 345)
-            image.setPixelArray(i, j, ColorPixel.MAGENTARED.byteArrayValue());
+          for (int y = band.start; y < band.end; y++)
+            for (int x = 0; x < buffer.width; x++) indexed.setIndex(x, y, indexOf.map(buffer.getRGB(x, y)));
         }
       }
+    });
+    image.setPixels(indexed);
+    image.isGrayScale = false;
+    image.isBW = false;
+    image.hasAlphaChannel = false;
+  }
+
+  /**
+   * The tables of quantize8Bit and quantize3Bit, built on first use.
+   */
+  private static final class Tables {
+    static final ColorTable QUANTIZE_8_BIT = ColorTable.compile(new ColorTable.Rule() {
+      @Override
+      public int map(int rgb) {
+        return quantize8Bit(rgb);
+      }
+    });
+    static final ColorTable QUANTIZE_3_BIT = ColorTable.compile(new ColorTable.Rule() {
+      @Override
+      public int map(int rgb) {
+        return quantize3Bit(rgb);
+      }
+    });
+  }
+
+  protected interface ColorMap {
+    int map(int rgb);
+  }
+
+  /**
+   * Quantizes every pixel as quantize8Bit(int) does, through a ColorTable of 18 bit color, so a color within 4 levels
+   * of a boundary of the quantization may be quantized as if it were on the other side.
+   */
+  public void quantize8Bit() {
+    Metrics.Scope scope = begin("ColorProcessor.quantize8Bit");
+    try {
+      quantize(Tables.QUANTIZE_8_BIT);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Same as quantize8Bit(), but leaves the image as a palette of the colors the table maps to and one byte per pixel.
+   */
+  public void quantize8BitIndexed() {
+    Metrics.Scope scope = begin("ColorProcessor.quantize8BitIndexed");
+    try {
+      quantizeIndexed(Tables.QUANTIZE_8_BIT);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * returns the 8 bit quantization of a color packed as 0xRRGGBB.
+   */
+  public static int quantize8Bit(int rgb) {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    double hue = ColorPixel.hue(r, g, b);
+    double intensity = ColorPixel.intensity(r, g, b);
+    double saturation = ColorPixel.saturation(r, g, b);
+    double dHue, dSaturation, dIntensity;
+
+    if (saturation < .2) { // 16 Grayscale
+      int gray = (int) (255 * Math.round(intensity * 16) / 16.0) & 0xff;
+      return (gray << 16) | (gray << 8) | gray;
+    } else {
+      dSaturation = Math.ceil(saturation * 5) / 5.0;
+      dIntensity = Math.round(intensity * 10) / 10.0;
+      dHue = Math.round(hue * 6 / 360) * 360.0 / 6.0;
+      return ColorPixel.packedRgbFromHsi(dHue, dSaturation, dIntensity);
+    }
+  }
+
+  /**
+   * Quantizes every pixel as quantize3Bit(int) does, through a ColorTable of 18 bit color like quantize8Bit.
+   */
+  public void quantize3Bit() {
+    Metrics.Scope scope = begin("ColorProcessor.quantize3Bit");
+    try {
+      quantize(Tables.QUANTIZE_3_BIT);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Same as quantize3Bit(), but leaves the image as a palette of the 17 colors and one byte per pixel.
+   */
+  public void quantize3BitIndexed() {
+    Metrics.Scope scope = begin("ColorProcessor.quantize3BitIndexed");
+    try {
+      quantizeIndexed(Tables.QUANTIZE_3_BIT);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * returns the 3 bit quantization of a color packed as 0xRRGGBB: one of the 17 ColorPixel constants.
+   */
+  public static int quantize3Bit(int rgb) {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    double intensity = ColorPixel.intensity(r, g, b);
+    double saturation = ColorPixel.saturation(r, g, b);
+
+    if (saturation < .2) {
+      if (intensity < .2) return ColorPixel.BLACK.rgbValue();
+      else if (intensity < .4) return ColorPixel.DARKGRAY.rgbValue();
+      else if (intensity < .6) return ColorPixel.LIGHTGRAY.rgbValue();
+      else if (intensity < .8) return ColorPixel.GRAYWHITE.rgbValue();
+      else return ColorPixel.WHITE.rgbValue();
+    }
+
+    double hue = ColorPixel.hue(r, g, b);
+
+    if (hue >= 345 || hue < 15) return ColorPixel.RED.rgbValue();
+    else if (hue < 45) return ColorPixel.REDYELLOW.rgbValue();
+    else if (hue < 75) return ColorPixel.YELLOW.rgbValue();
+    else if (hue < 105) return ColorPixel.YELLOWGREEN.rgbValue();
+    else if (hue < 135) return ColorPixel.GREEN.rgbValue();
+    else if (hue < 165) return ColorPixel.GREENCYAN.rgbValue();
+    else if (hue < 195) return ColorPixel.CYAN.rgbValue();
+    else if (hue < 225) return ColorPixel.CYANBLUE.rgbValue();
+    else if (hue < 255) return ColorPixel.BLUE.rgbValue();
+    else if (hue < 285) return ColorPixel.BLUEMAGENTA.rgbValue();
+    else if (hue < 315) return ColorPixel.MAGENTA.rgbValue();
+    else return ColorPixel.MAGENTARED.rgbValue();
   }
 
   public void quantizeMod(int m) {
-    for (int i = 0; i < image.pixelData.length; i++) {
-      image.pixelData[i] /= m;
-      image.pixelData[i] *= m;
+    Metrics.Scope scope = begin("ColorProcessor.quantizeMod");
+    try {
+      image.pixels.applyLut(quantizeModLut(m));
+    } finally {
+      endUpdate(scope);
     }
   }
 
+  /**
+   * returns the table mapping each sample to its value after quantizeMod(m). Samples are divided as signed bytes.
+   */
+  public static byte[] quantizeModLut(int m) {
+    byte[] lut = new byte[256];
+    for (int v = 0; v < 256; v++) {
+      byte b = (byte) v;
+      b /= m;
+      b *= m;
+      lut[v] = b;
+    }
+    return lut;
+  }
+
 
   public void hueKeeper(ColorPixel color, double hueDistance) {
-    for (int i = 0; i < image.width; i++)
-      for (int j = 0; j < image.height; j++) {
-        if (!(new ColorPixel(image.getPixelArray(i, j)).hueDist(color) < hueDistance))
-          image.setPixelArray(i, j, ColorPixel.BLACK.byteArrayValue());
-      }
+    Metrics.Scope scope = begin("ColorProcessor.hueKeeper");
+    try {
+      keep(new ColorKey().hue(color.getHue(), hueDistance), ColorPixel.BLACK);
+    } finally {
+      endUpdate(scope);
+    }
   }
 
   public void colorKeeper(ColorPixel keep, ColorPixel discardColor, double maxDist) {
-    if (image.isBW || image.isGrayScale) throw new IllegalArgumentException("this is not a color easyimage");
-    ColorPixel temp;
-    for (int i = 0; i < image.width; i++) {
-      for (int j = 0; j < image.height; j++) {
-        temp = new ColorPixel(image.getPixelArray(i, j));
-        //System.out.print(Arrays.toString(temp.byteArrayValue()) + ":" + keep.rgbDist(temp )+ "\t\t\t" );
-        if (keep.rgbDist(temp) > maxDist) image.setPixelArray(i, j, discardColor.byteArrayValue());
-      }
-      //System.out.println();
+    Metrics.Scope scope = begin("ColorProcessor.colorKeeper");
+    try {
+      if (image.isBW || image.isGrayScale) throw new IllegalArgumentException("this is not a color easyimage");
+      keep(new ColorKey().within(keep.rgbValue(), maxDist), discardColor);
+    } finally {
+      endUpdate(scope);
     }
   }
 
   public void colorFilter(ColorPixel filter, ColorPixel discardColor, double maxDist) {
-    if (image.isBW || image.isGrayScale) throw new IllegalArgumentException("this is not a color easyimage");
-    ColorPixel temp;
-    for (int i = 0; i < image.width; i++) {
-      for (int j = 0; j < image.height; j++) {
-        temp = new ColorPixel(image.getPixelArray(i, j));
-        //System.out.print(Arrays.toString(temp.byteArrayValue()) + ":" + keep.rgbDist(temp )+ "\t\t\t" );
-        if (filter.rgbDist(temp) < maxDist) image.setPixelArray(i, j, discardColor.byteArrayValue());
+    Metrics.Scope scope = begin("ColorProcessor.colorFilter");
+    try {
+      if (image.isBW || image.isGrayScale) throw new IllegalArgumentException("this is not a color easyimage");
+      discard(new ColorKey().closerThan(filter.rgbValue(), maxDist), discardColor);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Replaces the color of every pixel that does not match key with discardColor, in one pass however many keys it has.
+   */
+  public void keep(final ColorKey key, ColorPixel discardColor) {
+    Metrics.Scope scope = begin("ColorProcessor.keep");
+    try {
+      final int discardRgb = discardColor.rgbValue();
+      mapColors(new ColorMap() {
+        @Override
+        public int map(int rgb) {
+          return key.matches(rgb) ? rgb : discardRgb;
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Replaces the color of every pixel that matches key with discardColor.
+   */
+  public void discard(final ColorKey key, ColorPixel discardColor) {
+    Metrics.Scope scope = begin("ColorProcessor.discard");
+    try {
+      final int discardRgb = discardColor.rgbValue();
+      mapColors(new ColorMap() {
+        @Override
+        public int map(int rgb) {
+          return key.matches(rgb) ? discardRgb : rgb;
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Returns a bit mask of the pixels that match key, leaving the image as it is. Bands of rows are keyed in parallel,
+   * each writing whole words of its own rows. Indexed storage keys each palette entry once.
+   */
+  public BinaryPixelBuffer mask(final ColorKey key) {
+    Metrics.Scope scope = begin("ColorProcessor.mask");
+    try {
+      final PixelBuffer buffer = image.pixels;
+      final BinaryPixelBuffer mask = new BinaryPixelBuffer(buffer.width, buffer.height);
+      final boolean[] entries;
+      if (buffer instanceof IndexedPixelBuffer) {
+        IndexedPixelBuffer indexed = (IndexedPixelBuffer) buffer;
+        entries = new boolean[indexed.paletteSize()];
+        for (int i = 0; i < entries.length; i++) entries[i] = key.matches(indexed.paletteColor(i));
+      } else {
+        entries = null;
       }
-      //System.out.println();
+
+      getExecutor().run(buffer, new BandExecutor.Task() {
+        @Override
+        public void run(BandExecutor.Band band) {
+          int width = buffer.width;
+          long[] words = mask.words;
+          if (entries != null) {
+            IndexedPixelBuffer indexed = (IndexedPixelBuffer) buffer;
+            for (int y = band.start; y < band.end; y++)
+              for (int x = 0, row = y * mask.wordsPerRow; x < width; x++)
+                if (entries[indexed.getIndex(x, y)]) words[row + (x >>> 6)] |= 1L << x;
+          } else if (buffer.channels >= 3) {
+            int channels = buffer.channels;
+            byte[] row = ScratchPool.get().borrowBytes(width * channels);
+            for (int y = band.start; y < band.end; y++) {
+              buffer.getRow(0, y, width, row, 0);
+              int base = y * mask.wordsPerRow;
+              for (int x = 0, p = 0; x < width; x++, p += channels)
+                if (key.matches(row[p] & 0xff, row[p + 1] & 0xff, row[p + 2] & 0xff)) words[base + (x >>> 6)] |= 1L << x;
+            }
+            ScratchPool.get().giveBack(row);
+          } else {
+            for (int y = band.start; y < band.end; y++)
+              for (int x = 0, base = y * mask.wordsPerRow; x < width; x++)
+                if (key.matches(buffer.getRGB(x, y))) words[base + (x >>> 6)] |= 1L << x;
+          }
+        }
+      });
+      return mask;
+    } finally {
+      Metrics.end(scope);
     }
   }
 
   public void convertToBW(int thresh) {
-    if (!image.isBW) {
-      if (!image.isGrayScale)
-        convertToGrayScale();
-      for (int i = 0; i < image.width; i++)
-        for (int j = 0; j < image.height; j++) {
-          int pos = i + j * image.width;
-          image.pixelData[pos] = (byte) (((image.pixelData[pos] & 0xff) > thresh) ? 255 : 0);
+    Metrics.Scope scope = begin("ColorProcessor.convertToBW");
+    try {
+      if (!image.isBW) {
+        if (!image.isGrayScale)
+          convertToGrayScale();
+        image.pixels.applyLut(bwLut(thresh));
+        image.isBW = true;
+        image.isGrayScale = false;
+      }
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Same as convertToBW(thresh), then stores the image in one bit per pixel. Later operations on it work on 64 pixels at
+   * a time where they can.
+   */
+  public void convertToBinary(int thresh) {
+    Metrics.Scope scope = begin("ColorProcessor.convertToBinary");
+    try {
+      convertToBW(thresh);
+      image.setLayout(PixelBuffer.Layout.BINARY);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Same as convertToBW(thresh), with the threshold Otsu's method picks from the histogram of the gray values.
+   */
+  public void convertToBWOtsu() {
+    Metrics.Scope scope = begin("ColorProcessor.convertToBWOtsu");
+    try {
+      if (!image.isBW) {
+        if (!image.isGrayScale) convertToGrayScale();
+        convertToBW(otsuThreshold(image.statisticProcessor.histogram()));
+      }
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * returns the threshold t of Otsu's method for a histogram of 256 values: the one that splits the values up to t from
+   * those above it with the largest variance between the two classes, the smallest of them on a tie, or 0 if there is
+   * no split with values on both sides.
+   */
+  public static int otsuThreshold(int[] histogram) {
+    long total = 0;
+    long sum = 0;
+    for (int v = 0; v < 256; v++) {
+      total += histogram[v];
+      sum += (long) v * histogram[v];
+    }
+    long weight = 0;
+    long lowerSum = 0;
+    double best = 0;
+    int threshold = 0;
+    for (int t = 0; t < 255; t++) {
+      weight += histogram[t];
+      lowerSum += (long) t * histogram[t];
+      long upperWeight = total - weight;
+      if (weight == 0 || upperWeight == 0) continue;
+      double difference = (double) lowerSum / weight - (double) (sum - lowerSum) / upperWeight;
+      double between = (double) weight * upperWeight * difference * difference;
+      if (between > best) {
+        best = between;
+        threshold = t;
+      }
+    }
+    return threshold;
+  }
+
+  /**
+   * Same as convertToBWSauvola(radius, 0.5, 128), the constants Sauvola and Pietikainen give for documents.
+   */
+  public void convertToBWSauvola(int radius) {
+    convertToBWSauvola(radius, 0.5, 128);
+  }
+
+  /**
+   * Converts the image to black and white by Sauvola's method: a gray value becomes 255 if it is above
+   * m * (1 + k * (s / range - 1)), where m and s are the mean and standard deviation of the gray values in the square
+   * of side 2 * radius + 1 around it, clipped to the image, and 0 otherwise. Costs the same for any radius.
+   */
+  public void convertToBWSauvola(int radius, final double k, final double range) {
+    Metrics.Scope scope = begin("ColorProcessor.convertToBWSauvola");
+    try {
+      localThreshold(radius, true, new LocalRule() {
+        @Override
+        public boolean isWhite(int value, long n, long sum, long squares) {
+          double mean = (double) sum / n;
+          double deviation = Math.sqrt(Math.max(0, (double) squares / n - mean * mean));
+          return value > mean * (1 + k * (deviation / range - 1));
         }
-      image.isBW = true;
-      image.isGrayScale = false;
+      });
+    } finally {
+      endUpdate(scope);
     }
   }
 
-  public void convertToGrayScale() {
-    if (!image.isGrayScale && !image.isBW) {
-      byte[] pixelsGray = new byte[image.width * image.height];
+  /**
+   * Same as convertToBWBradley(radius, 15), the percentage Bradley and Roth suggest.
+   */
+  public void convertToBWBradley(int radius) {
+    convertToBWBradley(radius, 15);
+  }
+
+  /**
+   * Converts the image to black and white by the method of Bradley and Roth: a gray value becomes 0 if it is more
+   * than percent percent below the mean of the gray values in the square of side 2 * radius + 1 around it, clipped to
+   * the image, and 255 otherwise. Compares in integers and costs the same for any radius.
+   */
+  public void convertToBWBradley(int radius, final int percent) {
+    Metrics.Scope scope = begin("ColorProcessor.convertToBWBradley");
+    try {
+      localThreshold(radius, false, new LocalRule() {
+        @Override
+        public boolean isWhite(int value, long n, long sum, long squares) {
+          return value * n * 100 >= sum * (100 - percent);
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Decides from a gray value and the count, sum and sum of squares of the gray values around it whether it becomes
+   * white.
+   */
+  private interface LocalRule {
+    boolean isWhite(int value, long n, long sum, long squares);
+  }
+
+  /**
+   * Converts the image to gray if it is in color, then sets each gray value to 255 or 0 as rule decides from the square
+   * of side 2 * radius + 1 around it. The sums over each square come from the integral image, so every pixel costs the
+   * same, and bands of rows are converted in parallel. Unless rule reads squares, it is passed 0 for them, and the
+   * integral image does not build its table of squares.
+   */
+  private void localThreshold(final int radius, final boolean squares, final LocalRule rule) {
+    if (radius < 0) throw new IllegalArgumentException("negative radius: " + radius);
+    if (image.isBW) return;
+    if (!image.isGrayScale) convertToGrayScale();
+    unindex();
 
-      for (int i = 0; i < image.width; i++) {
-        for (int j = 0; j < image.height; j++) {
-          pixelsGray[i + j * image.width] = (byte) grayValue(image.getPixelArray(i, j));
+    final IntegralImage integral = image.getIntegralImage();
+    final PixelBuffer pixels = image.pixels;
+    final int width = pixels.width;
+    final int height = pixels.height;
+    final int channels = pixels.channels;
+    getExecutor().run(pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        byte[] row = ScratchPool.get().borrowBytes(width * channels);
+        for (int y = band.start; y < band.end; y++) {
+          int y0 = Math.max(0, y - radius);
+          int y1 = Math.min(height, y + radius + 1);
+          pixels.getRow(0, y, width, row, 0);
+          for (int x = 0, p = 0; x < width; x++, p += channels) {
+            int x0 = Math.max(0, x - radius);
+            int x1 = Math.min(width, x + radius + 1);
+            long n = (long) (x1 - x0) * (y1 - y0);
+            boolean white = rule.isWhite(row[p] & 0xff, n, integral.sum(x0, y0, x1, y1, 0),
+                squares ? integral.sumOfSquares(x0, y0, x1, y1, 0) : 0);
+            for (int c = 0; c < channels; c++) row[p + c] = white ? (byte) 255 : 0;
+          }
+          pixels.setRow(0, y, width, row, 0);
         }
+        ScratchPool.get().giveBack(row);
+      }
+    });
+    image.isBW = true;
+    image.isGrayScale = false;
+  }
+
+  /**
+   * returns the table convertToBW(thresh) applies to gray values.
+   */
+  public static byte[] bwLut(int thresh) {
+    byte[] lut = new byte[256];
+    for (int v = 0; v < 256; v++) lut[v] = (byte) (v > thresh ? 255 : 0);
+    return lut;
+  }
+
+  public void convertToGrayScale() {
+    Metrics.Scope scope = begin("ColorProcessor.convertToGrayScale");
+    try {
+      if (!image.isGrayScale && !image.isBW) {
+        final int width = image.width;
+        final int pixelLength = image.pixelLength;
+        final PixelBuffer color = image.pixels;
+        final PixelBuffer gray = color.create(width, image.height, 1);
+
+        getExecutor().run(color, new BandExecutor.Task() {
+          @Override
+          public void run(BandExecutor.Band band) {
+            byte[] row = new byte[width * pixelLength];
+            byte[] grayRow = new byte[width];
+
+            for (int j = band.start; j < band.end; j++) {
+              color.getRow(0, j, width, row, 0);
+              for (int i = 0, pos = 0; i < width; i++, pos += pixelLength)
+                grayRow[i] = (byte) grayValue(row[pos] & 0xff, row[pos + 1] & 0xff, row[pos + 2] & 0xff);
+              gray.setRow(0, j, width, grayRow, 0);
+            }
+          }
+        });
+        image.setPixels(gray);
+        image.isGrayScale = true;
+        image.hasAlphaChannel = false;
       }
-      image.pixelData = pixelsGray;
-      image.isGrayScale = true;
-      image.hasAlphaChannel = false;
-      image.pixelLength = 1;
+    } finally {
+      endUpdate(scope);
     }
   }
 
   public int grayValue(byte[] pixelArray) {
-    int red = pixelArray[0] & 0xff;
-    int green = pixelArray[1] & 0xff;
-    int blue = pixelArray[2] & 0xff;
+    return grayValue(pixelArray[0] & 0xff, pixelArray[1] & 0xff, pixelArray[2] & 0xff);
+  }
 
+  public static int grayValue(int red, int green, int blue) {
     return (int) (.2126 * red + .7152 * green + .0722 * blue);
   }
 
   public void threshold(int keepBelow, int keepAbove) {
-
-    for (int i = 0; i < image.pixelData.length; i++) {
-      if (image.pixelData[i] < keepBelow || image.pixelData[i] > keepAbove) image.pixelData[i] = (byte) 255;
-      else image.pixelData[i] = 0;
+    Metrics.Scope scope = begin("ColorProcessor.threshold");
+    try {
+      image.pixels.applyLut(thresholdLut(keepBelow, keepAbove));
+    } finally {
+      endUpdate(scope);
     }
+  }
 
+  /**
+   * returns the table mapping each sample to its value after threshold(keepBelow, keepAbove). Samples are compared as
+   * signed bytes.
+   */
+  public static byte[] thresholdLut(int keepBelow, int keepAbove) {
+    byte[] lut = new byte[256];
+    for (int v = 0; v < 256; v++) {
+      byte b = (byte) v;
+      if (b < keepBelow || b > keepAbove) lut[v] = (byte) 255;
+    }
+    return lut;
   }
 
   public void invert() {
-    if (image.hasAlphaChannel)
-      for (int i = 0; i < image.pixelData.length; i++) {
-        if (i % 4 != 0)
-          image.pixelData[i] = (byte) (255 - image.pixelData[i]);
-      }
-    else
-      for (int i = 0; i < image.pixelData.length; i++) {
-        image.pixelData[i] = (byte) (255 - image.pixelData[i]);
-      }
+    Metrics.Scope scope = begin("ColorProcessor.invert");
+    try {
+      byte[] lut = invertLut();
+      if (image.hasAlphaChannel && image.pixelLength == 4)
+        for (int c = 1; c < 4; c++) image.pixels.applyLut(c, lut); // leave alpha alone
+      else
+        image.pixels.applyLut(lut);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  public static byte[] invertLut() {
+    byte[] lut = new byte[256];
+    for (int v = 0; v < 256; v++) lut[v] = (byte) (255 - v);
+    return lut;
   }
 
 
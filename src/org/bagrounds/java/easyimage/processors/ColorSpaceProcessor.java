@@ -0,0 +1,125 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.IndexedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PlanarPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+import org.bagrounds.java.easyimage.color.ColorSpace;
+import org.bagrounds.java.easyimage.metrics.Metrics;
+
+/**
+ * Converts whole images between RGB and the ColorSpaces, in bands of rows in parallel. The image side is read and
+ * written a row at a time whatever its layout, and the other side is one plane per channel of the space, so a single
+ * channel such as hue can be read as one contiguous array. Indexed images convert each palette entry once.
+ */
+public class ColorSpaceProcessor extends Processor {
+  public ColorSpaceProcessor(EasyImage image) {
+    super(image);
+  }
+
+  /**
+   * Returns the image in space, one plane per channel. Gray images convert as the gray colors they stand for.
+   */
+  public PlanarPixelBuffer toPlanes(final ColorSpace space) {
+    Metrics.Scope scope = begin("ColorSpaceProcessor.toPlanes");
+    try {
+      final PixelBuffer buffer = image.pixels;
+      final int width = buffer.width;
+      final PlanarPixelBuffer planes = new PlanarPixelBuffer(width, buffer.height, 3);
+      final byte[] p0 = planes.planes[0];
+      final byte[] p1 = planes.planes[1];
+      final byte[] p2 = planes.planes[2];
+
+      if (buffer instanceof IndexedPixelBuffer) {
+        IndexedPixelBuffer indexed = (IndexedPixelBuffer) buffer;
+        int[] entries = new int[indexed.paletteSize()];
+        for (int i = 0; i < entries.length; i++) entries[i] = space.fromRgb(indexed.paletteColor(i));
+        for (int y = 0, i = 0; y < buffer.height; y++)
+          for (int x = 0; x < width; x++, i++) {
+            int color = entries[indexed.getIndex(x, y)];
+            p0[i] = (byte) (color >> 16);
+            p1[i] = (byte) (color >> 8);
+            p2[i] = (byte) color;
+          }
+        return planes;
+      }
+
+      getExecutor().run(buffer, new BandExecutor.Task() {
+        @Override
+        public void run(BandExecutor.Band band) {
+          if (buffer.channels >= 3) {
+            int channels = buffer.channels;
+            byte[] row = ScratchPool.get().borrowBytes(width * channels);
+            for (int y = band.start; y < band.end; y++) {
+              buffer.getRow(0, y, width, row, 0);
+              for (int x = 0, p = 0, i = y * width; x < width; x++, p += channels, i++) {
+                int color = space.fromRgb(row[p] & 0xff, row[p + 1] & 0xff, row[p + 2] & 0xff);
+                p0[i] = (byte) (color >> 16);
+                p1[i] = (byte) (color >> 8);
+                p2[i] = (byte) color;
+              }
+            }
+            ScratchPool.get().giveBack(row);
+          } else {
+            for (int y = band.start; y < band.end; y++)
+              for (int x = 0, i = y * width; x < width; x++, i++) {
+                int color = space.fromRgb(buffer.getRGB(x, y));
+                p0[i] = (byte) (color >> 16);
+                p1[i] = (byte) (color >> 8);
+                p2[i] = (byte) color;
+              }
+          }
+        }
+      });
+      return planes;
+    } finally {
+      Metrics.end(scope);
+    }
+  }
+
+  /**
+   * Replaces the colors of the image with those of planes, three channels in space of the size of the image. Gray and
+   * indexed images cannot hold every color, so they are replaced with interleaved color storage first.
+   */
+  public void fromPlanes(final PixelBuffer planes, final ColorSpace space) {
+    Metrics.Scope scope = begin("ColorSpaceProcessor.fromPlanes");
+    try {
+      if (planes.width != image.width || planes.height != image.height || planes.channels != 3)
+        throw new IllegalArgumentException("planes must be 3 channels of " + image.width + "x" + image.height);
+      if (image.pixels.channels < 3 || image.pixels instanceof IndexedPixelBuffer) {
+        image.setPixels(new InterleavedPixelBuffer(image.width, image.height, 3));
+        image.isGrayScale = false;
+        image.isBW = false;
+      }
+
+      final PixelBuffer buffer = image.pixels;
+      final int width = buffer.width;
+      final int channels = buffer.channels;
+      getExecutor().run(buffer, new BandExecutor.Task() {
+        @Override
+        public void run(BandExecutor.Band band) {
+          ScratchPool pool = ScratchPool.get();
+          byte[] input = pool.borrowBytes(width * 3);
+          byte[] row = pool.borrowBytes(width * channels);
+          for (int y = band.start; y < band.end; y++) {
+            planes.getRow(0, y, width, input, 0);
+            if (channels > 3) buffer.getRow(0, y, width, row, 0);
+            for (int x = 0, q = 0, p = 0; x < width; x++, q += 3, p += channels) {
+              int rgb = space.toRgb(input[q] & 0xff, input[q + 1] & 0xff, input[q + 2] & 0xff);
+              row[p] = (byte) (rgb >> 16);
+              row[p + 1] = (byte) (rgb >> 8);
+              row[p + 2] = (byte) rgb;
+            }
+            buffer.setRow(0, y, width, row, 0);
+          }
+          pool.giveBack(input);
+          pool.giveBack(row);
+        }
+      });
+    } finally {
+      endUpdate(scope);
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.ByteKernels;
+import org.bagrounds.java.easyimage.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A collection of metric algorithms for comparing images.
@@ -13,23 +17,98 @@ public class ComparisonProcessor extends Processor {
   }
 
   public double meanSqrtDiff(EasyImage img) {
-    double value = 0;
+    Metrics.Scope scope = begin("ComparisonProcessor.meanSqrtDiff");
+    try {
+      double[] sqrtDiff = new double[256];
+      for (int d = 0; d < 256; d++) sqrtDiff[d] = Math.pow(d / 255.0, .5);
 
-    for (int i = 0; i < img.pixelData.length; i++)
-      value += Math.pow(Math.abs(((image.pixelData[i] & 0xff) - (img.pixelData[i] & 0xff))) / 255.0, .5);
-    return value;
+      long[] diffHistogram = diffHistogram(img);
+      double value = 0;
+      for (int d = 0; d < 256; d++) value += diffHistogram[d] * sqrtDiff[d];
+      return value;
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public double imageSimilarity(EasyImage img) {
-    return 1 - this.meanAbsDiff(img) / image.pixelData.length;
+    Metrics.Scope scope = begin("ComparisonProcessor.imageSimilarity");
+    try {
+      return 1 - this.meanAbsDiff(img) / image.pixels.sampleCount();
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public double meanAbsDiff(EasyImage img) {
-    double value = 0;
-    double size = image.pixelData.length;
+    Metrics.Scope scope = begin("ComparisonProcessor.meanAbsDiff");
+    try {
+      return sumAbsDiff(img) / 255.0;
+    } finally {
+      Metrics.end(scope);
+    }
+  }
+
+  /**
+   * adds up the absolute differences of the samples of image and img, eight samples at a time, comparing them a row at a
+   * time so that the two images may use different storage layouts.
+   */
+  private long sumAbsDiff(final EasyImage img) {
+    checkSize(img);
+
+    final int rowLength = image.width * image.pixelLength;
+    final AtomicLong sum = new AtomicLong();
+    getExecutor().run(image.pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        byte[] row = new byte[rowLength];
+        byte[] otherRow = new byte[rowLength];
+        long bandSum = 0;
+
+        for (int j = band.start; j < band.end; j++) {
+          image.getRow(0, j, image.width, row, 0);
+          img.getRow(0, j, img.width, otherRow, 0);
+          bandSum += ByteKernels.sumAbsDiff(row, 0, otherRow, 0, rowLength);
+        }
+        sum.addAndGet(bandSum);
+      }
+    });
+    return sum.get();
+  }
+
+  private void checkSize(EasyImage img) {
+    if (img.width != image.width || img.height != image.height || img.pixelLength != image.pixelLength)
+      throw new IllegalArgumentException("image size mismatch");
+  }
+
+  /**
+   * counts how many samples differ by each absolute amount between image and img, comparing them a row at a time so
+   * that the two images may use different storage layouts.
+   */
+  private long[] diffHistogram(final EasyImage img) {
+    checkSize(img);
+
+    final int rowLength = image.width * image.pixelLength;
+    final long[] histogram = new long[256];
+
+    // each band counts on its own and adds its counts at the end, so the total does not depend on the band order
+    getExecutor().run(image.pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        byte[] row = new byte[rowLength];
+        byte[] otherRow = new byte[rowLength];
+        long[] counts = new long[256];
 
-    for (int i = 0; i < image.pixelData.length; i++)
-      value += Math.abs(((image.pixelData[i] & 0xff) - (img.pixelData[i] & 0xff)) / 255.0);
-    return value;
+        for (int j = band.start; j < band.end; j++) {
+          image.getRow(0, j, image.width, row, 0);
+          img.getRow(0, j, img.width, otherRow, 0);
+          for (int i = 0; i < rowLength; i++) counts[Math.abs((row[i] & 0xff) - (otherRow[i] & 0xff))]++;
+        }
+        synchronized (histogram) {
+          for (int d = 0; d < 256; d++) histogram[d] += counts[d];
+        }
+      }
+    });
+    return histogram;
   }
 }
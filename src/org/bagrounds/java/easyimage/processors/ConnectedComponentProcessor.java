@@ -1,12 +1,12 @@
 package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
 import org.bagrounds.java.easyimage.geometry.BoundingBox;
-import org.bagrounds.java.easyimage.geometry.Point;
+import org.bagrounds.java.easyimage.metrics.Metrics;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Created by bryan on 4/28/15.
@@ -17,166 +17,216 @@ public class ConnectedComponentProcessor extends Processor {
   }
 
   public void keepLargestComponent() {
-    image.connectedComponentProcessor.computeConnectedComponents();
-    int[] histogram = new int[256];
-
-    for (byte b : image.pixelData) histogram[b & 0xff]++;
-
-    int max = 0;
-    int maxIndex = 0;
-
-    for (int i = 0; i < histogram.length; i++)
-      if (histogram[i] > max) {
-        max = histogram[i];
-        maxIndex = i;
-      }
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.keepLargestComponent");
+    try {
+      image.connectedComponentProcessor.computeConnectedComponents();
+      int[] histogram = image.statisticProcessor.histogram();
+
+      int max = 0;
+      int maxIndex = 0;
+
+      for (int i = 0; i < histogram.length; i++)
+        if (histogram[i] > max) {
+          max = histogram[i];
+          maxIndex = i;
+        }
 
-    image.keepPixelsWithValues(new byte[]{(byte) maxIndex});
-    image.isBW = false;
-    image.isGrayScale = true;
-    image.colorProcessor.convertToBW(0);
+      image.keepPixelsWithValues(new byte[]{(byte) maxIndex});
+      image.isBW = false;
+      image.isGrayScale = true;
+      image.colorProcessor.convertToBW(0);
+    } finally {
+      endUpdate(scope);
+    }
   }
 
   public BoundingBox[] computeConnectedComponents() {
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.computeConnectedComponents");
+    try {
+      byte[] connected = new byte[image.width * image.height];
+      BoundingBox[] bounds = label(connected);
+
+      image.setPixels(new InterleavedPixelBuffer(image.width, image.height, 1, connected));
+      image.isGrayScale = true;
+      image.isBW = false;
+
+      return bounds;
+    } finally {
+      endUpdate(scope);
+    }
+  }
 
-    byte[] connected = new byte[image.width * image.height];
+  /**
+   * Writes the label of the 8-connected component of white pixels each pixel belongs to into connected, one byte per
+   * pixel in row-major order, with 0 for the background, and returns the bounding boxes of the components. Label a
+   * has box a - 1. The image itself is not changed.
+   */
+  private BoundingBox[] label(byte[] connected) {
+    int width = image.width;
+    int height = image.height;
+    Arrays.fill(connected, (byte) 0);
 
-    Queue<Point> q = new LinkedList<Point>();
+    // each pixel is labeled before it is queued, so a queue the size of the image never overflows
+    ScratchPool pool = ScratchPool.get();
+    int[] q = pool.borrowInts(width * height);
 
     int currentLabel = 1;
-
-    for (int i = 1; i < image.width - 2; i++) {
-      for (int j = 1; j < image.height - 2; j++) {
-
-        if (image.isColor(image.getPixelArray(i, j), (byte) 255) && connected[i + j * image.width] == 0) {
-          Point point = new Point(i, j, image.width - 1, image.height - 1);
-          q.add(point);
-          connected[i + j * image.width] = (byte) currentLabel;
-          while (!q.isEmpty()) {
-            Point member = q.remove();
-            Set<Point> neighbors = member.getNeighbors();
-            for (Point n : neighbors) {
-              if (image.isColor(image.getPixelArray(n.x, n.y), (byte) 255) && connected[n.x + n.y * image.width] == 0) {
-                connected[n.x + n.y * image.width] = (byte) currentLabel;
-                q.add(n);
+    int components = 0;
+
+    for (int i = 1; i < width - 2; i++) {
+      for (int j = 1; j < height - 2; j++) {
+
+        if (image.isColor(i, j, 255) && connected[i + j * width] == 0) {
+          int head = 0;
+          int tail = 0;
+          q[tail++] = i + j * width;
+          connected[i + j * width] = (byte) currentLabel;
+          while (head < tail) {
+            int member = q[head++];
+            int x = member % width;
+            int y = member / width;
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height - 1); ny++)
+              for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width - 1); nx++) {
+                int n = nx + ny * width;
+                if (connected[n] == 0 && image.isColor(nx, ny, 255)) {
+                  connected[n] = (byte) currentLabel;
+                  q[tail++] = n;
+                }
               }
-            }
           }
-          currentLabel = ((currentLabel + 1) % 256);
+          // label 0 marks background, so labels cycle through 1..255
+          currentLabel = currentLabel % 255 + 1;
+          components++;
         }
       }
     }
-
-    BoundingBox[] bounds = new BoundingBox[currentLabel - 1];
-    BoundingBox b;
-
-    int xMin = image.width;
-    int xMax = 0;
-    int yMin = image.height;
-    int yMax = 0;
-
-    for (int a = 1; a < currentLabel; a++) {
-      for (int i = 0; i < image.width; i++)
-        for (int j = 0; j < image.height; j++) {
-          int value = connected[i + j * image.width] & 0xff;
-          if (value == a) {
-            xMin = (xMin < i) ? xMin : i;
-            xMax = (xMax > i) ? xMax : i;
-            yMin = (yMin < j) ? yMin : j;
-            yMax = (yMax > j) ? yMax : j;
-          }
+    pool.giveBack(q);
+
+    int labels = Math.min(components, 255);
+    int[] xMin = new int[labels + 1];
+    int[] xMax = new int[labels + 1];
+    int[] yMin = new int[labels + 1];
+    int[] yMax = new int[labels + 1];
+    Arrays.fill(xMin, width);
+    Arrays.fill(yMin, height);
+
+    for (int j = 0, pos = 0; j < height; j++)
+      for (int i = 0; i < width; i++, pos++) {
+        int value = connected[pos] & 0xff;
+        if (value != 0) {
+          if (i < xMin[value]) xMin[value] = i;
+          if (i > xMax[value]) xMax[value] = i;
+          if (j < yMin[value]) yMin[value] = j;
+          if (j > yMax[value]) yMax[value] = j;
         }
+      }
 
+    BoundingBox[] bounds = new BoundingBox[labels];
+    for (int a = 1; a <= labels; a++) {
       try {
-        b = new BoundingBox(xMin, xMax, yMin, yMax);
-        bounds[a - 1] = b;
+        bounds[a - 1] = new BoundingBox(xMin[a], xMax[a], yMin[a], yMax[a]);
       } catch (IllegalArgumentException e) {
         System.err.println("illegal bounding box parameters in c.c.");
       }
-      xMin = image.width;
-      xMax = 0;
-      yMin = image.height;
-      yMax = 0;
     }
-
-    image.pixelData = connected;
-    image.isGrayScale = true;
-    image.isBW = false;
-
     return bounds;
   }
 
   public void filterComponentsBySize(double smallFraction, double largeFraction) {
-    int size = image.pixelData.length;
-    int small = (int) Math.floor(size * smallFraction);
-    int large = (int) Math.floor(size * largeFraction);
-
-    EasyImage temp = new EasyImage(image);
-    BoundingBox[] boxes = temp.connectedComponentProcessor.computeConnectedComponents();
-    int componentSize = 0;
-
-    size = temp.pixelData.length;
-
-    for (int a = 0; a <= boxes.length; a++) {
-
-      for (int i = 0; i < size; i++)
-        if (temp.pixelData[i] == a) componentSize++;
-
-      if (componentSize > large || componentSize < small)
-        for (int i = 0; i < size; i++)
-          if (temp.pixelData[i] == a) image.pixelData[i] = 0;
-
-      componentSize = 0;
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.filterComponentsBySize");
+    try {
+      byte[] pixelData = image.getPixelData();
+      int size = pixelData.length;
+      int small = (int) Math.floor(size * smallFraction);
+      int large = (int) Math.floor(size * largeFraction);
+
+      ScratchPool pool = ScratchPool.get();
+      byte[] labels = pool.borrowBytes(image.width * image.height);
+      label(labels);
+
+      int[] componentSize = new int[256];
+      for (byte label : labels) componentSize[label & 0xff]++;
+
+      boolean[] remove = new boolean[256];
+      for (int a = 1; a < 256; a++) remove[a] = componentSize[a] > large || componentSize[a] < small;
+      removeLabels(pixelData, labels, remove);
+      pool.giveBack(labels);
+    } finally {
+      endUpdate(scope);
     }
   }
 
   public void filterComponentsByBoundingBoxArea(double smallFraction, double largeFraction) {
-    int size = image.pixelData.length;
-    int small = (int) Math.floor(size * smallFraction);
-    int large = (int) Math.floor(size * largeFraction);
-    int area;
-
-    EasyImage temp = new EasyImage(image);
-    BoundingBox[] boxes = temp.connectedComponentProcessor.computeConnectedComponents();
-
-    for (int a = 0; a <= boxes.length; a++) {
-      area = boxes[a].area();
-
-      if (area > large || area < small)
-        for (int i = 0; i < size; i++)
-          if (temp.pixelData[i] == a) image.pixelData[i] = 0;
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.filterComponentsByBoundingBoxArea");
+    try {
+      byte[] pixelData = image.getPixelData();
+      int size = pixelData.length;
+      int small = (int) Math.floor(size * smallFraction);
+      int large = (int) Math.floor(size * largeFraction);
+
+      ScratchPool pool = ScratchPool.get();
+      byte[] labels = pool.borrowBytes(image.width * image.height);
+      BoundingBox[] boxes = label(labels);
+
+      boolean[] remove = new boolean[256];
+      for (int a = 1; a <= boxes.length; a++)
+        if (boxes[a - 1] != null) remove[a] = boxes[a - 1].area() > large || boxes[a - 1].area() < small;
+      removeLabels(pixelData, labels, remove);
+      pool.giveBack(labels);
+    } finally {
+      endUpdate(scope);
     }
   }
 
   public void filterComponentsByBoundingBoxHeight(int minPixelHeight, int maxPixelHeight) {
-    EasyImage temp = new EasyImage(image);
-    BoundingBox[] boxes = temp.connectedComponentProcessor.computeConnectedComponents();
-    int height;
-
-
-    for (int a = 0; a <= boxes.length; a++) {
-      height = boxes[a].yMax - boxes[a].yMin;
-
-      if (height > maxPixelHeight || height < minPixelHeight)
-        for (int i = 0; i < image.pixelData.length; i++)
-          if (temp.pixelData[i] == a) image.pixelData[i] = 0;
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.filterComponentsByBoundingBoxHeight");
+    try {
+      byte[] pixelData = image.getPixelData();
+      ScratchPool pool = ScratchPool.get();
+      byte[] labels = pool.borrowBytes(image.width * image.height);
+      BoundingBox[] boxes = label(labels);
+
+      boolean[] remove = new boolean[256];
+      for (int a = 1; a <= boxes.length; a++)
+        if (boxes[a - 1] != null) {
+          int height = boxes[a - 1].yMax - boxes[a - 1].yMin;
+          remove[a] = height > maxPixelHeight || height < minPixelHeight;
+        }
+      removeLabels(pixelData, labels, remove);
+      pool.giveBack(labels);
+    } finally {
+      endUpdate(scope);
     }
   }
 
   public void filterComponentsByBoundingBoxWidth(int minPixelWidth, int maxPixelWidth) {
-    EasyImage temp = new EasyImage(image);
-    BoundingBox[] boxes = temp.connectedComponentProcessor.computeConnectedComponents();
-    int width;
-
-
-    for (int a = 0; a < boxes.length; a++) {
-      width = boxes[a].xMax - boxes[a].xMin;
-
-      if (width > maxPixelWidth || width < minPixelWidth)
-        for (int i = 0; i < image.pixelData.length; i++)
-          if (temp.pixelData[i] == a) image.pixelData[i] = 0;
+    Metrics.Scope scope = begin("ConnectedComponentProcessor.filterComponentsByBoundingBoxWidth");
+    try {
+      byte[] pixelData = image.getPixelData();
+      ScratchPool pool = ScratchPool.get();
+      byte[] labels = pool.borrowBytes(image.width * image.height);
+      BoundingBox[] boxes = label(labels);
+
+      boolean[] remove = new boolean[256];
+      for (int a = 1; a <= boxes.length; a++)
+        if (boxes[a - 1] != null) {
+          int width = boxes[a - 1].xMax - boxes[a - 1].xMin;
+          remove[a] = width > maxPixelWidth || width < minPixelWidth;
+        }
+      removeLabels(pixelData, labels, remove);
+      pool.giveBack(labels);
+    } finally {
+      endUpdate(scope);
     }
   }
 
+  /**
+   * clears pixelData wherever the label of the pixel is marked for removal.
+   */
+  private static void removeLabels(byte[] pixelData, byte[] labels, boolean[] remove) {
+    for (int i = 0; i < labels.length; i++)
+      if (remove[labels[i] & 0xff]) pixelData[i] = 0;
+  }
+
 
 }
@@ -0,0 +1,345 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+import org.bagrounds.java.easyimage.math.Kernel;
+import org.bagrounds.java.easyimage.metrics.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * Convolves the image with Kernels, each channel on its own, in bands of rows in parallel and in place. Responses are
+ * rounded to the nearest integer and saturated to 0..255.
+ * <p/>
+ * Each band keeps the input rows the kernel reaches, padded on both sides with the columns it reaches past the edges,
+ * so the inner loops never test for the border. Separable kernels sum the rows under the column factor into one padded
+ * row and then run the row factor along it. Other kernels sum their non-zero cells directly, in ints for integer
+ * kernels.
+ */
+public class ConvolutionProcessor extends Processor {
+  /**
+   * What samples outside the image are taken to be.
+   */
+  public enum BorderMode {
+    /**
+     * the nearest sample on the edge
+     */
+    CLAMP,
+    /**
+     * the sample mirrored through the edge sample, which is not repeated: d c b | a b c d
+     */
+    REFLECT,
+    /**
+     * 0
+     */
+    ZERO
+  }
+
+  public ConvolutionProcessor(EasyImage i) {
+    super(i);
+  }
+
+  /**
+   * Convolves the image with kernel, clamping at the borders.
+   */
+  public void convolve(Kernel kernel) {
+    convolve(kernel, BorderMode.CLAMP);
+  }
+
+  public void convolve(Kernel kernel, BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.convolve");
+    try {
+      run(new Kernel[]{kernel}, ROUND, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Blurs the image with a Gaussian of standard deviation sigma.
+   */
+  public void gaussianBlur(double sigma, BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.gaussianBlur");
+    try {
+      run(new Kernel[]{Kernel.gaussian(sigma)}, ROUND, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Sets each sample to the magnitude of its Sobel gradient, sqrt(gx^2 + gy^2).
+   */
+  public void sobel(BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.sobel");
+    try {
+      run(new Kernel[]{Kernel.sobelX(), Kernel.sobelY()}, new Combiner() {
+        @Override
+        public int combine(double[] responses, int sample) {
+          return saturate(Math.sqrt(responses[0] * responses[0] + responses[1] * responses[1]));
+        }
+      }, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Sets each sample to the response of Kernel.gradient, as EasyVector.Stat.GRADIENT does for a 3x3 neighborhood.
+   */
+  public void gradient(BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.gradient");
+    try {
+      run(new Kernel[]{Kernel.gradient()}, ROUND, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Sets each sample to the largest difference between opposite neighbors, as EasyVector.Stat.MAX_GRADIENT does.
+   */
+  public void maxGradient(BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.maxGradient");
+    try {
+      run(Kernel.oppositeDifferences(), new Combiner() {
+        @Override
+        public int combine(double[] responses, int sample) {
+          return saturate(largestMagnitude(responses));
+        }
+      }, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Sets each sample to its strongest corner response, if that is above 128, and to half of itself otherwise, as
+   * EasyVector.Stat.CORNERS does.
+   */
+  public void corners(BorderMode border) {
+    Metrics.Scope scope = begin("ConvolutionProcessor.corners");
+    try {
+      run(Kernel.corners(), new Combiner() {
+        @Override
+        public int combine(double[] responses, int sample) {
+          double corner = largestMagnitude(responses);
+          return corner > 128 ? saturate(corner) : sample / 2;
+        }
+      }, border);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Returns the largest absolute value in values.
+   */
+  static double largestMagnitude(double[] values) {
+    double largest = 0;
+    for (double value : values) largest = Math.max(largest, Math.abs(value));
+    return largest;
+  }
+
+  /**
+   * Rounds value to the nearest integer, halves up, and saturates it to 0..255.
+   */
+  static int saturate(double value) {
+    if (!(value > -0.5)) return 0;
+    if (value >= 254.5) return 255;
+    return (int) (value + 0.5);
+  }
+
+  /**
+   * Makes one sample out of the responses of all kernels at it and the input sample.
+   */
+  private interface Combiner {
+    int combine(double[] responses, int sample);
+  }
+
+  private static final Combiner ROUND = new Combiner() {
+    @Override
+    public int combine(double[] responses, int sample) {
+      return saturate(responses[0]);
+    }
+  };
+
+  /**
+   * Returns the coordinate of the sample that stands for coordinate i of a line of n samples, or -1 for a zero sample.
+   */
+  static int border(int i, int n, BorderMode mode) {
+    if (i >= 0 && i < n) return i;
+    switch (mode) {
+      case CLAMP:
+        return i < 0 ? 0 : n - 1;
+      case REFLECT:
+        if (n == 1) return 0;
+        int period = 2 * (n - 1);
+        i = Math.abs(i) % period;
+        return i < n ? i : period - i;
+      default:
+        return -1;
+    }
+  }
+
+  private void run(final Kernel[] kernels, final Combiner combiner, final BorderMode border) {
+    unindex();
+    final PixelBuffer pixels = image.pixels;
+    final int width = pixels.width;
+    final int height = pixels.height;
+    final int channels = pixels.channels;
+    if (width == 0 || height == 0) return;
+
+    int up = 0;
+    int down = 0;
+    int left = 0;
+    int right = 0;
+    for (Kernel kernel : kernels) {
+      up = Math.max(up, kernel.originY);
+      down = Math.max(down, kernel.height - 1 - kernel.originY);
+      left = Math.max(left, kernel.originX);
+      right = Math.max(right, kernel.width - 1 - kernel.originX);
+    }
+    // the window reaches as far up as down, so it also holds the rows the border mirrors back into the image
+    final int reach = Math.max(up, down);
+    final int reachLeft = left;
+    final int paddedWidth = width + left + right;
+
+    // the column each padded column stands for, or -1 where it is zero
+    final int[] columns = new int[paddedWidth];
+    for (int p = 0; p < paddedWidth; p++) columns[p] = border(p - left, width, border);
+
+    getExecutor().run(pixels, reach, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        ScratchPool pool = ScratchPool.get();
+        int rowLength = width * channels;
+        int paddedLength = paddedWidth * channels;
+        // input rows from j - reach to j + reach, held by row index modulo size, padded
+        int size = Math.min(2 * reach + 1, height);
+        int[][] window = new int[size][paddedLength];
+        byte[] input = pool.borrowBytes(rowLength);
+        byte[] result = pool.borrowBytes(rowLength);
+        double[][] responses = new double[kernels.length][rowLength];
+        double[] padded = new double[paddedLength];
+        double[] at = new double[kernels.length];
+        Taps[] taps = new Taps[kernels.length];
+        for (int k = 0; k < kernels.length; k++) taps[k] = new Taps(kernels[k], reachLeft, channels);
+
+        for (int y = Math.max(band.start - reach, 0); y < Math.min(band.start + reach, height - 1) + 1; y++)
+          load(band, y, window[y % size], input);
+
+        for (int j = band.start; j < band.end; j++) {
+          if (j > band.start && j + reach < height) load(band, j + reach, window[(j + reach) % size], input);
+          int[] center = window[j % size];
+          for (int k = 0; k < kernels.length; k++) {
+            Kernel kernel = kernels[k];
+            if (kernel.isSeparable()) separable(kernel, taps[k], window, j, padded, responses[k]);
+            else direct(kernel, taps[k], window, j, responses[k]);
+          }
+          for (int i = 0; i < rowLength; i++) {
+            for (int k = 0; k < kernels.length; k++) at[k] = responses[k][i];
+            result[i] = (byte) combiner.combine(at, center[reachLeft * channels + i]);
+          }
+          pixels.setRow(0, j, width, result, 0);
+        }
+        pool.giveBack(input);
+        pool.giveBack(result);
+      }
+
+      /**
+       * Reads row y into padded, filling the columns past the edges as the border mode says.
+       */
+      private void load(BandExecutor.Band band, int y, int[] padded, byte[] input) {
+        band.getRow(y, input);
+        for (int p = 0; p < paddedWidth; p++) {
+          int x = columns[p];
+          for (int c = 0; c < channels; c++) padded[p * channels + c] = x < 0 ? 0 : input[x * channels + c] & 0xff;
+        }
+      }
+
+      /**
+       * Returns the window row that stands for row y, or null for a row of zeros.
+       */
+      private int[] row(int[][] window, int y) {
+        int r = border(y, height, border);
+        return r < 0 ? null : window[r % window.length];
+      }
+
+      private void separable(Kernel kernel, Taps taps, int[][] window, int j, double[] padded, double[] response) {
+        Arrays.fill(padded, 0);
+        double[] column = taps.column;
+        for (int dy = 0; dy < kernel.height; dy++) {
+          double weight = column[dy];
+          int[] row = weight == 0 ? null : row(window, j + dy - kernel.originY);
+          if (row == null) continue;
+          for (int p = 0; p < padded.length; p++) padded[p] += weight * row[p];
+        }
+        double[] factor = taps.row;
+        int shift = (reachLeft - kernel.originX) * channels;
+        for (int i = 0; i < response.length; i++) {
+          double sum = 0;
+          for (int dx = 0, p = shift + i; dx < factor.length; dx++, p += channels) sum += factor[dx] * padded[p];
+          response[i] = sum / kernel.divisor + kernel.offset;
+        }
+      }
+
+      private void direct(Kernel kernel, Taps taps, int[][] window, int j, double[] response) {
+        int[][] rows = new int[taps.count][];
+        for (int t = 0; t < taps.count; t++) rows[t] = row(window, j + taps.dy[t]);
+        if (kernel.integer) {
+          for (int i = 0; i < response.length; i++) {
+            int sum = 0;
+            for (int t = 0; t < taps.count; t++) if (rows[t] != null) sum += taps.weights[t] * rows[t][taps.shift[t] + i];
+            response[i] = sum / kernel.divisor + kernel.offset;
+          }
+        } else {
+          for (int i = 0; i < response.length; i++) {
+            double sum = 0;
+            for (int t = 0; t < taps.count; t++)
+              if (rows[t] != null) sum += taps.doubleWeights[t] * rows[t][taps.shift[t] + i];
+            response[i] = sum / kernel.divisor + kernel.offset;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * The non-zero cells of a kernel, as the row offset from the pixel and the offset into a padded row, and the factors
+   * of a separable one.
+   */
+  private static final class Taps {
+    final int count;
+    final int[] dy;
+    final int[] shift;
+    final int[] weights;
+    final double[] doubleWeights;
+    final double[] column;
+    final double[] row;
+
+    Taps(Kernel kernel, int reachLeft, int channels) {
+      int count = 0;
+      for (int y = 0; y < kernel.height; y++) for (int x = 0; x < kernel.width; x++) if (kernel.weight(x, y) != 0) count++;
+      this.count = count;
+      dy = new int[count];
+      shift = new int[count];
+      weights = new int[count];
+      doubleWeights = new double[count];
+      int t = 0;
+      for (int y = 0; y < kernel.height; y++)
+        for (int x = 0; x < kernel.width; x++) {
+          double weight = kernel.weight(x, y);
+          if (weight == 0) continue;
+          dy[t] = y - kernel.originY;
+          shift[t] = (x - kernel.originX + reachLeft) * channels;
+          weights[t] = (int) weight;
+          doubleWeights[t] = weight;
+          t++;
+        }
+      column = kernel.isSeparable() ? kernel.column() : null;
+      row = kernel.isSeparable() ? kernel.row() : null;
+    }
+  }
+}
@@ -1,12 +1,20 @@
 package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.DirectPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ImageIOTileSource;
+import org.bagrounds.java.easyimage.buffer.TiledPixelBuffer;
+import org.bagrounds.java.easyimage.metrics.Metrics;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 
 /**
  * Created by bryan on 5/3/15.
@@ -17,6 +25,9 @@ public class IOProcessor extends Processor {
     super(i);
   }
 
+  /**
+   * Reads an image file, printing any error and returning a 1x1 image if it cannot be read.
+   */
   public static EasyImage loadImage(String fileName) {
     File file = new File(fileName);
     if (!file.exists() || !file.canRead()) {
@@ -24,38 +35,124 @@ public class IOProcessor extends Processor {
       return new EasyImage();
     }
 
-    EasyImage result = null;
-    BufferedImage img = null;
-    BufferedImage noAlpha = null;
     try {
-      img = ImageIO.read(file);
-      int w = img.getWidth();
-      int h = img.getHeight();
-      noAlpha = new BufferedImage(w, h,
-          BufferedImage.TYPE_3BYTE_BGR);
-      Raster raster = img.getRaster().createChild(0, 0, w, h, 0, 0, new
-          int[]{2, 1, 0});
-      noAlpha.setData(raster);
-      result = new EasyImage(noAlpha);
+      return readImage(file);
     } catch (Exception e) {
       System.err.println("Error reading easyimage");
       e.printStackTrace();
-      result = new EasyImage();
+      return new EasyImage();
+    }
+  }
+
+  /**
+   * Reads an image file into three channel storage, dropping any alpha channel.
+   *
+   * @throws IOException if the file cannot be read or no reader understands it
+   */
+  public static EasyImage readImage(File file) throws IOException {
+    Metrics.Scope scope = Metrics.begin("IOProcessor.readImage", 0);
+    long pixels = -1;
+    try {
+      BufferedImage img = ImageIO.read(file);
+      if (img == null) throw new IOException("no image reader for " + file);
+      BufferedImage noAlpha = null;
+      try {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        noAlpha = new BufferedImage(w, h,
+            BufferedImage.TYPE_3BYTE_BGR);
+        Raster raster = img.getRaster().createChild(0, 0, w, h, 0, 0, new
+            int[]{2, 1, 0});
+        noAlpha.setData(raster);
+        EasyImage image = new EasyImage(noAlpha);
+        pixels = (long) w * h;
+        return image;
+      } finally {
+        img.flush();
+        if (noAlpha != null) noAlpha.flush();
+      }
+    } finally {
+      if (pixels >= 0) Metrics.end(scope, pixels);
+      else Metrics.cancel(scope);
+    }
+  }
+
+  /**
+   * Reads the width and height of an image file from its header, without decoding the pixels.
+   */
+  public static Dimension readSize(File file) throws IOException {
+    Metrics.Scope scope = Metrics.begin("IOProcessor.readSize", 0);
+    Dimension size = null;
+    try {
+      ImageInputStream input = ImageIO.createImageInputStream(file);
+      if (input == null) throw new IOException("cannot read file: " + file);
+      try {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) throw new IOException("no image reader for " + file);
+        ImageReader reader = readers.next();
+        try {
+          reader.setInput(input, true, true);
+          size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+          return size;
+        } finally {
+          reader.dispose();
+        }
+      } finally {
+        input.close();
+      }
     } finally {
-      if (img != null) img.flush();
-      if (noAlpha != null) noAlpha.flush();
+      if (size != null) Metrics.end(scope);
+      else Metrics.cancel(scope);
     }
+  }
 
+  /**
+   * Opens an image file without decoding it. Square tiles of tileSize pixels are decoded when they are first used and
+   * at most memoryBudget bytes of them are kept in memory, so very large images can be processed a region at a time.
+   */
+  public static EasyImage loadTiledImage(String fileName, int tileSize, long memoryBudget) throws IOException {
+    TiledPixelBuffer tiles = new TiledPixelBuffer(new ImageIOTileSource(new File(fileName)), tileSize, memoryBudget);
+    EasyImage result = new EasyImage(tiles);
+    result.isGrayScale = false;
     return result;
   }
 
+  /**
+   * Maps a raw file of interleaved 8 bit samples, with no header, into memory outside the heap. The image can be larger
+   * than 2 GB, and a writable mapping stores every change in the file.
+   */
+  public static EasyImage mapRawImage(String fileName, int width, int height, int channels, boolean writable)
+      throws IOException {
+    return new EasyImage(DirectPixelBuffer.map(new File(fileName), width, height, channels, writable));
+  }
+
   public static void saveImage(String fileName, EasyImage easyImage) {
     try {
-      // retrieve easyimage
-      File out = new File(fileName);
-      ImageIO.write(easyImage.getBufferedImage(), "png", out);
+      writeImage(new File(fileName), easyImage, "png");
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Writes easyImage to file in the given ImageIO format, such as "png".
+   *
+   * @throws IOException if the file cannot be written or there is no writer for the format
+   */
+  public static void writeImage(File file, EasyImage easyImage, String format) throws IOException {
+    Metrics.Scope scope = Metrics.begin("IOProcessor.writeImage", (long) easyImage.width * easyImage.height);
+    boolean written = false;
+    try {
+      BufferedImage image = easyImage.getBufferedImage();
+      try {
+        if (!ImageIO.write(image, format, file)) throw new IOException("no image writer for " + format);
+        written = true;
+      } finally {
+        image.flush();
+      }
+    } finally {
+      if (written) Metrics.end(scope);
+      else Metrics.cancel(scope);
+    }
+  }
 }
@@ -1,7 +1,18 @@
 package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
-import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.buffer.BinaryPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.CityBlockDistance;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+import org.bagrounds.java.easyimage.geometry.StructuringElement;
+import org.bagrounds.java.easyimage.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Created by bryan on 4/28/15.
@@ -12,33 +23,368 @@ public class MorphologicalProcessor extends Processor {
   }
 
   public void open(int iterations) {
-    image.colorProcessor.invert();
-    close(iterations);
-    image.colorProcessor.invert();
+    Metrics.Scope scope = begin("MorphologicalProcessor.open");
+    try {
+      image.colorProcessor.invert();
+      close(iterations);
+      image.colorProcessor.invert();
+    } finally {
+      endUpdate(scope);
+    }
   }
 
   public void close(int iterations) {
-    dilate(iterations);
-    erode(iterations);
+    Metrics.Scope scope = begin("MorphologicalProcessor.close");
+    try {
+      dilate(iterations);
+      erode(iterations);
+    } finally {
+      endUpdate(scope);
+    }
   }
 
+  /**
+   * Sets every sample to 255 if the same channel of any pixel within a city block distance of n is non-zero, and to 0
+   * otherwise, which is what n passes over the four direct neighbors of each pixel give. The cost does not grow with n.
+   */
   public void dilate(int n) {
-    EasyImage temp = new EasyImage(image);
+    dilate(n, null);
+  }
 
-    //System.out.println("width = " + width + " height = " + height + " length = " + pixelData.length + "hxw = " + width*height);
-    for (int a = 0; a < n; a++) {
-      for (int i = 0; i < image.width; i++) {
-        for (int j = 0; j < image.height; j++) {
-          image.setPixelArray(i, j, temp.statisticProcessor.borderlessNeighborhoodStat(i, j, 1, EasyVector.Stat.DILATION));
+  /**
+   * Same as applying lut to every sample and then calling dilate(n), but in a single pass. lut may be null.
+   */
+  public void dilate(int n, byte[] lut) {
+    Metrics.Scope scope = begin("MorphologicalProcessor.dilate");
+    try {
+      if (n < 1) {
+        if (lut != null) image.pixels.applyLut(lut);
+        return;
+      }
+      byte[] binary = new byte[256];
+      for (int v = 0; v < 256; v++) binary[v] = (lut == null ? v : lut[v]) != 0 ? (byte) 255 : 0;
+      if (image.pixels instanceof BinaryPixelBuffer) {
+        BinaryPixelBuffer bits = (BinaryPixelBuffer) image.pixels;
+        bits.applyLut(binary);
+        bits.dilate(n);
+        return;
+      }
+      cityBlockDilate(n, binary);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Dilates the image, mapped through binary, by the diamond of radius n as a threshold of the city block distances to
+   * the non-zero samples, which costs the same for any n. The rows are measured in bands, then the columns in one pass
+   * over the whole image, and the thresholds are written back in bands.
+   */
+  private void cityBlockDilate(int n, final byte[] binary) {
+    unindex();
+    final int width = image.width;
+    final int height = image.height;
+    final int channels = image.pixelLength;
+    final int rowLength = width * channels;
+    final PixelBuffer pixels = image.pixels;
+    final int cap = CityBlockDistance.cap(n, width, height);
+    final int[] distances = ScratchPool.get().borrowInts(rowLength * height);
+    BandExecutor executor = getExecutor();
+
+    executor.run(pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        ScratchPool pool = ScratchPool.get();
+        byte[] row = pool.borrowBytes(rowLength);
+        for (int y = band.start; y < band.end; y++) {
+          readRow(band, y, row, 0, rowLength, binary);
+          CityBlockDistance.rowDistances(row, 0, width, channels, cap, distances, y * rowLength);
+        }
+        pool.giveBack(row);
+      }
+    });
+    CityBlockDistance.columnDistances(distances, rowLength, height);
+    executor.run(pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        ScratchPool pool = ScratchPool.get();
+        byte[] row = pool.borrowBytes(rowLength);
+        for (int y = band.start; y < band.end; y++) {
+          CityBlockDistance.threshold(distances, y * rowLength, rowLength, cap, row, 0);
+          pixels.setRow(0, y, width, row, 0);
         }
+        pool.giveBack(row);
+      }
+    });
+    ScratchPool.get().giveBack(distances);
+  }
+
+  /**
+   * Replaces every sample with the largest sample of the same channel under element, reflected, placed with its origin
+   * on the pixel. Samples outside the image are ignored.
+   */
+  public void dilate(StructuringElement element) {
+    Metrics.Scope scope = begin("MorphologicalProcessor.dilate");
+    try {
+      extremum(element.reflect(), true, null);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Replaces every sample with the smallest sample of the same channel under element placed with its origin on the
+   * pixel. Samples outside the image are ignored.
+   */
+  public void erode(StructuringElement element) {
+    Metrics.Scope scope = begin("MorphologicalProcessor.erode");
+    try {
+      extremum(element, false, null);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Erodes and then dilates by element, removing bright detail that element does not fit into.
+   */
+  public void open(StructuringElement element) {
+    Metrics.Scope scope = begin("MorphologicalProcessor.open");
+    try {
+      erode(element);
+      dilate(element);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Dilates and then erodes by element, filling dark detail that element does not fit into.
+   */
+  public void close(StructuringElement element) {
+    Metrics.Scope scope = begin("MorphologicalProcessor.close");
+    try {
+      dilate(element);
+      erode(element);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * Replaces every sample with the largest, or smallest, sample of the same channel under element, after mapping the
+   * samples through lut unless it is null.
+   * <p/>
+   * element is split into runs of rows that share the same horizontal extent. Each run is a rectangle, which is
+   * separable: a maximum over its width along every row, then over its height down every column, both computed with
+   * the van Herk/Gil-Werman algorithm in about three comparisons per sample whatever the size. Rectangles and crosses
+   * are one and two runs, so their cost does not grow with the radius; a disk or diamond has a run for most of its rows,
+   * which is why dilate(int) measures city block distances instead.
+   * <p/>
+   * Bands of rows run in parallel, each a chunk of rows at a time, keeping the input rows the chunk reads until the
+   * next chunk no longer needs them, so the image is processed in place.
+   */
+  private void extremum(StructuringElement element, final boolean max, final byte[] lut) {
+    unindex();
+    final int width = image.width;
+    final int height = image.height;
+    final int pixelLength = image.pixelLength;
+    final int rowLength = width * pixelLength;
+    final PixelBuffer pixels = image.pixels;
+    final int[][] runs = verticalRuns(element);
+    final int up = element.reachUp();
+    final int down = element.reachDown();
+    final byte identity = max ? 0 : (byte) 255;
+    // chunks at least twice as tall as the element, so recomputing the rows around a chunk costs at most half again
+    final int chunkRows = Math.max(CHUNK_ROWS, 2 * (up + down));
+    int longest = 1;
+    for (int[] run : runs) longest = Math.max(longest, run[1]);
+    final int maxLength = longest;
+
+    getExecutor().run(pixels, Math.max(up, down), new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        ScratchPool pool = ScratchPool.get();
+        int span = up + chunkRows + down;
+        byte[] source = pool.borrowBytes(span * rowLength);
+        byte[] lines = pool.borrowBytes(span * rowLength);
+        byte[] prefix = pool.borrowBytes(span * rowLength);
+        byte[] suffix = pool.borrowBytes(span * rowLength);
+        byte[] result = pool.borrowBytes(chunkRows * rowLength);
+        int[] forward = pool.borrowInts(width + maxLength - 1);
+        int[] backward = pool.borrowInts(width + maxLength - 1);
+
+        // source row i holds image row first + i
+        int first = band.start - up;
+        int count = 0;
+        for (int c0 = band.start; c0 < band.end; c0 += chunkRows) {
+          int rows = Math.min(chunkRows, band.end - c0);
+          int drop = c0 - up - first;
+          if (drop > 0) {
+            System.arraycopy(source, drop * rowLength, source, 0, (count - drop) * rowLength);
+            first += drop;
+            count -= drop;
+          }
+          for (; first + count < c0 + rows + down; count++) {
+            int y = first + count;
+            int offset = count * rowLength;
+            if (y < 0 || y >= height) Arrays.fill(source, offset, offset + rowLength, identity);
+            else readRow(band, y, source, offset, rowLength, lut);
+          }
+
+          Arrays.fill(result, 0, rows * rowLength, identity);
+          for (int[] run : runs) {
+            int dx0 = run[0];
+            int length = run[1];
+            int dy0 = run[2];
+            int runHeight = run[3] - dy0 + 1;
+            int lineCount = rows + runHeight - 1;
+            for (int i = 0; i < lineCount; i++)
+              horizontal(source, (up + dy0 + i) * rowLength, lines, i * rowLength, width, pixelLength, dx0, length, max,
+                  identity & 0xff, forward, backward);
+            if (runHeight == 1) {
+              combine(lines, 0, result, 0, rows * rowLength, max);
+            } else {
+              vertical(lines, prefix, suffix, lineCount, runHeight, rowLength, max);
+              for (int t = 0; t < rows; t++) {
+                combine(suffix, t * rowLength, result, t * rowLength, rowLength, max);
+                combine(prefix, (t + runHeight - 1) * rowLength, result, t * rowLength, rowLength, max);
+              }
+            }
+          }
+          for (int t = 0; t < rows; t++) pixels.setRow(0, c0 + t, width, result, t * rowLength);
+        }
+        pool.giveBack(source);
+        pool.giveBack(lines);
+        pool.giveBack(prefix);
+        pool.giveBack(suffix);
+        pool.giveBack(result);
+        pool.giveBack(forward);
+        pool.giveBack(backward);
+      }
+    });
+  }
+
+  /**
+   * fewest rows of the image a band processes at a time
+   */
+  private static final int CHUNK_ROWS = 64;
+
+  /**
+   * Groups the runs of element into rectangles {dx0, length, dy0, dy1}: runs with the same horizontal extent in
+   * consecutive rows.
+   */
+  private static int[][] verticalRuns(StructuringElement element) {
+    List<StructuringElement.Run> runs = new ArrayList<StructuringElement.Run>(element.runs());
+    Collections.sort(runs, new Comparator<StructuringElement.Run>() {
+      @Override
+      public int compare(StructuringElement.Run a, StructuringElement.Run b) {
+        if (a.dx0 != b.dx0) return a.dx0 < b.dx0 ? -1 : 1;
+        if (a.dx1 != b.dx1) return a.dx1 < b.dx1 ? -1 : 1;
+        return a.dy < b.dy ? -1 : a.dy > b.dy ? 1 : 0;
+      }
+    });
+
+    List<int[]> rectangles = new ArrayList<int[]>();
+    int[] last = null;
+    for (StructuringElement.Run run : runs) {
+      if (last != null && last[0] == run.dx0 && last[1] == run.length() && last[3] == run.dy - 1) {
+        last[3] = run.dy;
+      } else {
+        last = new int[]{run.dx0, run.length(), run.dy, run.dy};
+        rectangles.add(last);
+      }
+    }
+    return rectangles.toArray(new int[rectangles.size()][]);
+  }
+
+  private static void readRow(BandExecutor.Band band, int j, byte[] dst, int offset, int rowLength, byte[] lut) {
+    band.getRow(j, dst, offset);
+    if (lut != null)
+      for (int p = offset; p < offset + rowLength; p++) dst[p] = lut[dst[p] & 0xff];
+  }
+
+  /**
+   * Writes to each pixel x of the dst row the extremum, per channel, of the src row pixels x + dx0 to
+   * x + dx0 + length - 1, pixels outside the row counting as identity. forward and backward hold the running extrema
+   * from the start and from the end of each block of length pixels, so any window is the extremum of two of them.
+   */
+  private static void horizontal(byte[] src, int srcOffset, byte[] dst, int dstOffset, int width, int pixelLength,
+                                 int dx0, int length, boolean max, int identity, int[] forward, int[] backward) {
+    int n = width + length - 1;
+    for (int c = 0; c < pixelLength; c++) {
+      for (int b = 0; b < n; b += length) {
+        int e = Math.min(b + length, n);
+        forward[b] = sample(src, srcOffset, b + dx0, width, pixelLength, c, identity);
+        for (int i = b + 1; i < e; i++) {
+          int v = sample(src, srcOffset, i + dx0, width, pixelLength, c, identity);
+          forward[i] = max ? Math.max(forward[i - 1], v) : Math.min(forward[i - 1], v);
+        }
+        backward[e - 1] = sample(src, srcOffset, e - 1 + dx0, width, pixelLength, c, identity);
+        for (int i = e - 2; i >= b; i--) {
+          int v = sample(src, srcOffset, i + dx0, width, pixelLength, c, identity);
+          backward[i] = max ? Math.max(backward[i + 1], v) : Math.min(backward[i + 1], v);
+        }
+      }
+      for (int x = 0, p = dstOffset + c; x < width; x++, p += pixelLength) {
+        int a = backward[x];
+        int b = forward[x + length - 1];
+        dst[p] = (byte) (max ? Math.max(a, b) : Math.min(a, b));
+      }
+    }
+  }
+
+  private static int sample(byte[] row, int offset, int x, int width, int pixelLength, int c, int identity) {
+    return x < 0 || x >= width ? identity : row[offset + x * pixelLength + c] & 0xff;
+  }
+
+  /**
+   * Fills prefix and suffix with the running extrema of lines down from the top and up from the bottom of each block
+   * of height rows, so the extremum of rows t to t + height - 1 is that of suffix row t and prefix row t + height - 1.
+   */
+  private static void vertical(byte[] lines, byte[] prefix, byte[] suffix, int count, int height, int rowLength,
+                               boolean max) {
+    for (int b = 0; b < count; b += height) {
+      int e = Math.min(b + height, count);
+      System.arraycopy(lines, b * rowLength, prefix, b * rowLength, rowLength);
+      for (int i = b + 1; i < e; i++) {
+        System.arraycopy(lines, i * rowLength, prefix, i * rowLength, rowLength);
+        combine(prefix, (i - 1) * rowLength, prefix, i * rowLength, rowLength, max);
+      }
+      System.arraycopy(lines, (e - 1) * rowLength, suffix, (e - 1) * rowLength, rowLength);
+      for (int i = e - 2; i >= b; i--) {
+        System.arraycopy(lines, i * rowLength, suffix, i * rowLength, rowLength);
+        combine(suffix, (i + 1) * rowLength, suffix, i * rowLength, rowLength, max);
+      }
+    }
+  }
+
+  /**
+   * Sets each of the length samples of dst from dstOffset to the extremum of itself and the matching sample of src.
+   */
+  private static void combine(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length, boolean max) {
+    if (max) {
+      for (int i = 0; i < length; i++) {
+        int a = src[srcOffset + i] & 0xff;
+        if (a > (dst[dstOffset + i] & 0xff)) dst[dstOffset + i] = (byte) a;
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        int a = src[srcOffset + i] & 0xff;
+        if (a < (dst[dstOffset + i] & 0xff)) dst[dstOffset + i] = (byte) a;
       }
     }
   }
 
   public void erode(int n) {
-    image.colorProcessor.invert();
-    dilate(n);
-    image.colorProcessor.invert();
+    Metrics.Scope scope = begin("MorphologicalProcessor.erode");
+    try {
+      image.colorProcessor.invert();
+      dilate(n);
+      image.colorProcessor.invert();
+    } finally {
+      endUpdate(scope);
+    }
   }
 
 
@@ -1,15 +1,64 @@
 package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.metrics.Metrics;
 
 /**
  * Created by bryan on 4/28/15.
  */
 public abstract class Processor {
   protected EasyImage image;
+  private BandExecutor executor;
 
   public Processor(EasyImage i) {
     image = i;
   }
 
+  /**
+   * Returns the executor that runs the row bands of this processor's operations, BandExecutor.getShared() unless
+   * another one was set.
+   */
+  public BandExecutor getExecutor() {
+    return executor != null ? executor : BandExecutor.getShared();
+  }
+
+  /**
+   * Runs this processor's operations on executor, or on the shared executor if it is null.
+   */
+  public void setExecutor(BandExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Starts the metrics of an operation on the whole image. Returns null, at the cost of one volatile read, unless a
+   * MetricsListener is registered.
+   */
+  protected Metrics.Scope begin(String operation) {
+    return Metrics.begin(operation, (long) image.width * image.height);
+  }
+
+  /**
+   * Ends the metrics of an operation that changed the samples of the image, and counts the change on the image so that
+   * results cached from the old samples are recomputed. Called from a finally block, so a change cut short by an
+   * exception is counted too.
+   * <p/>
+   * The change is counted whether or not the operation is reported: only the outermost operation of a thread is
+   * reported, but the one on the stack may be working on another image, so a nested operation that skipped the count
+   * would leave this image's caches stale. Operations that call other operations count a few changes for one call.
+   */
+  protected void endUpdate(Metrics.Scope scope) {
+    Metrics.end(scope);
+    image.modified();
+  }
+
+  /**
+   * Converts indexed storage to interleaved, for operations that compute each sample from several pixels. Their
+   * results are new colors, which the palette of at most 256 would run out of room for partway through the image.
+   * Operations that map each color to one color keep indexed storage and rewrite the palette instead.
+   */
+  protected void unindex() {
+    if (image.pixels.layout() == PixelBuffer.Layout.INDEXED) image.setLayout(PixelBuffer.Layout.INTERLEAVED);
+  }
+
 }
@@ -0,0 +1,308 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+
+import java.util.Arrays;
+
+/**
+ * Rank and mode filters over the square of side 2r + 1 around each pixel, clipped to the image, after the constant time
+ * median filter of Perreault and Hebert.
+ * <p/>
+ * Every column of the image keeps a histogram of the rows in the window, which moves down a row by adding one sample
+ * and removing another. The window histogram moves right along a row by adding the histogram of the column entering
+ * it and removing that of the column leaving it. It has 16 coarse bins, kept current at every pixel, over 256 fine bins
+ * that are brought up to date one coarse bin at a time, only when a query looks inside that bin. A query walks the
+ * coarse bins and then the 16 fine bins of one of them, so the cost per pixel does not grow with r.
+ * <p/>
+ * For small r, keeping the column histograms costs more than it saves, so the window histogram adds and removes the
+ * 2r + 1 samples of the columns entering and leaving it instead, as in Huang's filter, and all of its bins stay current.
+ */
+final class RankFilter {
+  private static final int BINS = 256;
+  private static final int COARSE = 16;
+  /**
+   * largest radius for which adding and removing the samples of whole columns, as Huang's filter does, beats keeping
+   * column histograms
+   */
+  private static final int DIRECT_RADIUS = 5;
+
+  private final int r;
+  private final boolean mode;
+  private final double percentile;
+
+  /**
+   * @param percentile - rank to select, from 0 for the smallest sample to 1 for the largest; the sample at index
+   *                   min(n - 1, floor(percentile * n)) of the n sorted samples of the window is selected, which for
+   *                   0.5 is the median as EasyVector.Stat.MEDIAN computes it
+   */
+  static RankFilter percentile(int r, double percentile) {
+    if (!(percentile >= 0 && percentile <= 1)) throw new IllegalArgumentException("percentile out of [0, 1]: " + percentile);
+    return new RankFilter(r, false, percentile);
+  }
+
+  /**
+   * Selects the most frequent sample of the window, the smallest of them if several are equally frequent.
+   */
+  static RankFilter mode(int r) {
+    return new RankFilter(r, true, 0);
+  }
+
+  private RankFilter(int r, boolean mode, double percentile) {
+    if (r < 0) throw new IllegalArgumentException("negative radius: " + r);
+    this.r = r;
+    this.mode = mode;
+    this.percentile = percentile;
+  }
+
+  /**
+   * Filters pixels in place, in bands of rows on executor.
+   */
+  void run(BandExecutor executor, final PixelBuffer pixels) {
+    executor.run(pixels, r, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        filter(pixels, band);
+      }
+    });
+  }
+
+  private void filter(PixelBuffer pixels, BandExecutor.Band band) {
+    int width = pixels.width;
+    int height = pixels.height;
+    int rowLength = width * pixels.channels;
+    ScratchPool pool = ScratchPool.get();
+
+    // the input rows from j - r to j + r; rows are written in place, so the ones leaving the window are kept here
+    int size = Math.min(2 * r + 1, height);
+    byte[][] window = new byte[size][];
+    for (int k = 0; k < size; k++) window[k] = pool.borrowBytes(rowLength);
+    byte[] result = pool.borrowBytes(rowLength);
+    boolean direct = r <= DIRECT_RADIUS;
+    // column histograms count at most size rows each, so chars are enough; the fine bins are stored by coarse bin, so
+    // that the 16 fine bins of one coarse bin of consecutive columns lie next to each other
+    if (size > Character.MAX_VALUE) throw new IllegalArgumentException("radius too large: " + r);
+    char[] columnFine = direct ? null : new char[rowLength * BINS];
+    char[] columnCoarse = direct ? null : new char[rowLength * COARSE];
+    Kernel kernel = new Kernel(columnFine, columnCoarse, pixels.channels);
+
+    for (int y = Math.max(band.start - r, 0); y < Math.min(band.start + r, height - 1) + 1; y++) {
+      band.getRow(y, window[y % size]);
+      if (!direct) count(window[y % size], columnFine, columnCoarse, 1);
+    }
+
+    for (int j = band.start; j < band.end; j++) {
+      if (j > band.start) {
+        if (j - r - 1 >= 0 && !direct) count(window[(j - r - 1) % size], columnFine, columnCoarse, -1);
+        if (j + r < height) {
+          band.getRow(j + r, window[(j + r) % size]);
+          if (!direct) count(window[(j + r) % size], columnFine, columnCoarse, 1);
+        }
+      }
+      int top = Math.max(j - r, 0);
+      int bottom = Math.min(j + r, height - 1);
+      for (int a = 0; a < pixels.channels; a++) {
+        if (direct) kernel.reset(a, window, top, bottom);
+        else kernel.reset(a);
+        filterRow(kernel, width, bottom - top + 1, result);
+      }
+      pixels.setRow(0, j, width, result, 0);
+    }
+
+    for (byte[] row : window) pool.giveBack(row);
+    pool.giveBack(result);
+  }
+
+  private static void count(byte[] row, char[] columnFine, char[] columnCoarse, int delta) {
+    int plane = row.length * COARSE;
+    for (int p = 0; p < row.length; p++) {
+      int v = row[p] & 0xff;
+      columnFine[(v >> 4) * plane + p * COARSE + (v & 15)] += delta;
+      columnCoarse[p * COARSE + (v >> 4)] += delta;
+    }
+  }
+
+  private void filterRow(Kernel kernel, int width, int rows, byte[] result) {
+    int channels = kernel.channels;
+    int channel = kernel.channel;
+    for (int x = 0; x <= Math.min(r, width - 1); x++) kernel.add(x);
+    int n = -1;
+    int k = 0;
+    for (int x = 0; x < width; x++) {
+      if (x > 0) {
+        if (x + r < width) kernel.add(x + r);
+        if (x - r - 1 >= 0) kernel.remove(x - r - 1);
+      }
+      int left = Math.max(x - r, 0);
+      int right = Math.min(x + r, width - 1);
+      kernel.left = left;
+      kernel.right = right;
+
+      int value;
+      if (mode) value = kernel.mode();
+      else {
+        // the window only changes size near the left and right edges
+        if ((right - left + 1) * rows != n) {
+          n = (right - left + 1) * rows;
+          k = (int) Math.min(n - 1, (long) Math.floor(percentile * n));
+        }
+        value = kernel.select(k);
+      }
+      result[x * channels + channel] = (byte) value;
+    }
+  }
+
+  /**
+   * The histogram of the window around one pixel, for one channel.
+   */
+  private static final class Kernel {
+    final char[] columnFine;
+    final char[] columnCoarse;
+    final int channels;
+
+    final int[] fine = new int[BINS];
+    final int[] coarse = new int[COARSE];
+    /**
+     * the columns the fine bins of each coarse bin cover, empty when last < first
+     */
+    final int[] first = new int[COARSE];
+    final int[] last = new int[COARSE];
+    int channel;
+    int left;
+    int right;
+    /**
+     * the input rows, when samples are added directly rather than through column histograms
+     */
+    byte[][] window;
+    int top;
+    int bottom;
+
+    Kernel(char[] columnFine, char[] columnCoarse, int channels) {
+      this.columnFine = columnFine;
+      this.columnCoarse = columnCoarse;
+      this.channels = channels;
+    }
+
+    /**
+     * Empties the window, to slide it along a row of the given channel using the column histograms.
+     */
+    void reset(int channel) {
+      this.channel = channel;
+      window = null;
+      Arrays.fill(fine, 0);
+      Arrays.fill(coarse, 0);
+      Arrays.fill(first, 0);
+      Arrays.fill(last, -1);
+    }
+
+    /**
+     * Empties the window, to slide it along a row of the given channel by adding and removing the samples of rows top
+     * to bottom of window, as Huang's filter does. All fine bins are then kept current.
+     */
+    void reset(int channel, byte[][] window, int top, int bottom) {
+      reset(channel);
+      this.window = window;
+      this.top = top;
+      this.bottom = bottom;
+    }
+
+    void add(int x) {
+      if (window != null) {
+        int p = x * channels + channel;
+        for (int y = top; y <= bottom; y++) {
+          int v = window[y % window.length][p] & 0xff;
+          fine[v]++;
+          coarse[v >> 4]++;
+        }
+        return;
+      }
+      int base = (x * channels + channel) * COARSE;
+      for (int c = 0; c < COARSE; c++) coarse[c] += columnCoarse[base + c];
+    }
+
+    void remove(int x) {
+      if (window != null) {
+        int p = x * channels + channel;
+        for (int y = top; y <= bottom; y++) {
+          int v = window[y % window.length][p] & 0xff;
+          fine[v]--;
+          coarse[v >> 4]--;
+        }
+        return;
+      }
+      int base = (x * channels + channel) * COARSE;
+      for (int c = 0; c < COARSE; c++) coarse[c] -= columnCoarse[base + c];
+    }
+
+    /**
+     * Adds the fine bins of coarse bin c of columns from to to, both inclusive.
+     */
+    private void addFine(int c, int from, int to) {
+      int bins = c * COARSE;
+      for (int x = from; x <= to; x++) {
+        int base = (c * columnFine.length / COARSE) + (x * channels + channel) * COARSE;
+        for (int v = 0; v < COARSE; v++) fine[bins + v] += columnFine[base + v];
+      }
+    }
+
+    private void removeFine(int c, int from, int to) {
+      int bins = c * COARSE;
+      for (int x = from; x <= to; x++) {
+        int base = (c * columnFine.length / COARSE) + (x * channels + channel) * COARSE;
+        for (int v = 0; v < COARSE; v++) fine[bins + v] -= columnFine[base + v];
+      }
+    }
+
+    /**
+     * Brings the fine bins of coarse bin c up to the columns from left to right, by moving the columns they cover or,
+     * if that is more work, counting them again.
+     */
+    private void update(int c) {
+      int from = first[c];
+      int to = last[c];
+      if (window != null || from == left && to == right) return;
+      int moves = Math.abs(left - from) + Math.abs(right - to);
+      if (to < from || to < left || moves > right - left + 1) {
+        Arrays.fill(fine, c * COARSE, (c + 1) * COARSE, 0);
+        addFine(c, left, right);
+      } else {
+        removeFine(c, from, left - 1);
+        addFine(c, to + 1, right);
+      }
+      first[c] = left;
+      last[c] = right;
+    }
+
+    /**
+     * Returns the sample at index k of the sorted samples of the window.
+     */
+    int select(int k) {
+      int c = 0;
+      int below = 0;
+      while (below + coarse[c] <= k) below += coarse[c++];
+      update(c);
+      int v = c * COARSE;
+      while (below + fine[v] <= k) below += fine[v++];
+      return v;
+    }
+
+    /**
+     * Returns the most frequent sample of the window, the smallest of them on a tie. A coarse bin holding no more
+     * samples than the best fine bin so far cannot beat it, so its fine bins are skipped.
+     */
+    int mode() {
+      int best = 0;
+      int value = 0;
+      for (int c = 0; c < COARSE; c++) {
+        if (coarse[c] <= best) continue;
+        update(c);
+        for (int v = c * COARSE; v < (c + 1) * COARSE; v++)
+          if (fine[v] > best) {
+            best = fine[v];
+            value = v;
+          }
+      }
+      return value;
+    }
+  }
+}
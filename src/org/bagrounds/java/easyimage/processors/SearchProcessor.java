@@ -2,9 +2,9 @@ package org.bagrounds.java.easyimage.processors;
 
 import org.bagrounds.java.easyimage.EasyImage;
 import org.bagrounds.java.easyimage.geometry.BoundingBox;
+import org.bagrounds.java.easyimage.metrics.Metrics;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 /**
  * Created by bryan on 4/29/15.
@@ -16,23 +16,25 @@ public class SearchProcessor extends Processor {
   }
 
   public ArrayList<BoundingBox> findPattern(EasyImage pattern) {
-    byte[] firstPixel = pattern.getPixelArray(0, 0);
-    System.out.println("find pattern");
-    ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>();
+    Metrics.Scope scope = begin("SearchProcessor.findPattern");
+    try {
+      int firstPixel = pattern.getRGB(0, 0);
+      ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>();
 
-    for (int i = 0; i < image.width; i++) {
-      for (int j = 0; j < image.height; j++) {
-        if (Arrays.equals(image.getPixelArray(i, j), firstPixel)) {
-          BoundingBox patternBox = new BoundingBox(i, i + pattern.width, j, j + pattern.height);
-          EasyImage subImage = image.getSubImage(patternBox);
-          if (subImage.equals(pattern)) {
-            System.out.println("match found!");
-            boxes.add(patternBox);
+      for (int i = 0; i + pattern.width <= image.width; i++) {
+        for (int j = 0; j + pattern.height <= image.height; j++) {
+          if (image.getRGB(i, j) == firstPixel) {
+            BoundingBox patternBox = new BoundingBox(i, i + pattern.width, j, j + pattern.height);
+            EasyImage subImage = image.getSubImageView(patternBox);
+            if (subImage.equals(pattern)) {
+              boxes.add(patternBox);
+            }
           }
         }
       }
+      return boxes;
+    } finally {
+      Metrics.end(scope);
     }
-    System.out.println("done finding patterns");
-    return boxes;
   }
 }
@@ -1,8 +1,16 @@
 package org.bagrounds.java.easyimage.processors;
 
-import org.bagrounds.java.easyimage.ColorPixel;
 import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.buffer.ScratchPool;
+import org.bagrounds.java.easyimage.color.ColorSpace;
 import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.math.ImageSummary;
+import org.bagrounds.java.easyimage.math.IntVector;
+import org.bagrounds.java.easyimage.math.IntegralImage;
+import org.bagrounds.java.easyimage.metrics.Metrics;
+
+import java.util.Arrays;
 
 import static java.lang.Math.pow;
 
@@ -14,110 +22,325 @@ public class StatisticProcessor extends Processor {
     super(image);
   }
 
+  /**
+   * returns the counts of the HSI hues of the pixels in 256 bins, each 360 / 255 degrees wide, read from the hue plane
+   * of EasyImage.getColorPlanes(ColorSpace.HSI).
+   */
   public int[] hueHistogram() {
-    int[] histogram = new int[256];
-    double hue;
-
-    for (int i = 0; i < image.width; i++)
-      for (int j = 0; j < image.height; j++) {
-        hue = ColorPixel.rgbToHue(image.getPixelArray(i, j));
-        hue = hue * 255 / 360;
-        histogram[(int) Math.floor(hue)]++;
-      }
-    return histogram;
+    Metrics.Scope scope = begin("StatisticProcessor.hueHistogram");
+    try {
+      int[] histogram = new int[256];
+      image.getColorPlanes(ColorSpace.HSI).histogram(0, histogram);
+      return histogram;
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public byte mode() {
-    int[] histogram = histogram();
-
-    int max = 0;
-    int maxIndex = 0;
-
-    for (int i = 0; i < histogram.length; i++)
-      if (histogram[i] > max) {
-        max = histogram[i];
-        maxIndex = i;
-      }
-
-    return (byte) maxIndex;
+    Metrics.Scope scope = begin("StatisticProcessor.mode");
+    try {
+      return (byte) image.getSummary().mode();
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public int[] histogram() {
-    int[] histogram = new int[256];
-
-    for (byte b : image.pixelData) histogram[b & 0xff]++;
+    Metrics.Scope scope = begin("StatisticProcessor.histogram");
+    try {
+      return image.getSummary().histogram();
+    } finally {
+      Metrics.end(scope);
+    }
+  }
 
-    return histogram;
+  /**
+   * returns the histogram of a single channel.
+   */
+  public int[] histogram(int channel) {
+    Metrics.Scope scope = begin("StatisticProcessor.histogram");
+    try {
+      return image.getSummary().histogram(channel);
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public double norm2() {
-    double value = 0;
+    Metrics.Scope scope = begin("StatisticProcessor.norm2");
+    try {
+      double value = 0;
 
-    double max = max();
+      int[] histogram = histogram();
+      double max = max(histogram);
 
-    for (byte b : image.pixelData) value += pow((b & 0xff) / max, 2);
+      for (int v = 0; v < 256; v++) value += histogram[v] * pow(v / max, 2);
 
-    value = Math.sqrt(value) * max;
-    return value;
+      value = Math.sqrt(value) * max;
+      return value;
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
   public int max() {
-    //if (!isGrayScale) throw new InvalidParameterException();
+    Metrics.Scope scope = begin("StatisticProcessor.max");
+    try {
+      //if (!isGrayScale) throw new InvalidParameterException();
 
-    int max = 0;
+      return image.getSummary().max();
+    } finally {
+      Metrics.end(scope);
+    }
+  }
 
-    for (byte b : image.pixelData) if ((b & 0xff) > max) max = (b & 0xff);
+  /**
+   * counts the samples of each channel of the image in one pass, in parallel bands, and returns the statistics that
+   * follow from the counts. EasyImage.getSummary caches the result; this always counts again.
+   */
+  public ImageSummary summarize() {
+    Metrics.Scope scope = begin("StatisticProcessor.summarize");
+    try {
+      final PixelBuffer pixels = image.pixels;
+      final long[][] histograms = new long[pixels.channels][256];
 
-    return max;
+      // each band counts on its own and adds its counts at the end, so the total does not depend on the band order
+      getExecutor().run(pixels, new BandExecutor.Task() {
+        @Override
+        public void run(BandExecutor.Band band) {
+          PixelBuffer rows = band.start == 0 && band.end == pixels.height
+              ? pixels : pixels.view(0, band.start, pixels.width, band.end - band.start);
+          int[] counts = new int[256];
+          for (int c = 0; c < pixels.channels; c++) {
+            Arrays.fill(counts, 0);
+            rows.histogram(c, counts);
+            synchronized (histograms) {
+              for (int v = 0; v < 256; v++) histograms[c][v] += counts[v];
+            }
+          }
+        }
+      });
+      return new ImageSummary(histograms);
+    } finally {
+      Metrics.end(scope);
+    }
   }
 
-  public int min() {
-    //if (!isGrayScale) throw new InvalidParameterException();
+  /**
+   * returns the largest value counted in histogram, or 0 if it is empty.
+   */
+  public static int max(int[] histogram) {
+    for (int v = 255; v > 0; v--) if (histogram[v] > 0) return v;
+    return 0;
+  }
 
-    int min = 255;
+  public int min() {
+    Metrics.Scope scope = begin("StatisticProcessor.min");
+    try {
+      //if (!isGrayScale) throw new InvalidParameterException();
 
-    for (byte b : image.pixelData) if ((b & 0xff) < min) min = (b & 0xff);
+      return image.getSummary().min();
+    } finally {
+      Metrics.end(scope);
+    }
+  }
 
-    return min;
+  /**
+   * returns the smallest value counted in histogram, or 255 if it is empty.
+   */
+  public static int min(int[] histogram) {
+    for (int v = 0; v < 255; v++) if (histogram[v] > 0) return v;
+    return 255;
   }
 
   /**
    * sets the value of each pixel to the value of the statistic specified by the stat param taken over the neighborhood
    * specified by the r param.
    *
+   * MEDIAN, MIN, MAX and MODE are computed from sliding histograms, and MEAN and SUM from the integral image, at a cost
+   * per pixel that does not grow with r. MODE picks the most frequent value of the neighborhood, the smallest of them on
+   * a tie. GRADIENT, MAX_GRADIENT and CORNERS always look at the 3x3 neighborhood, whatever r is, through the
+   * ConvolutionProcessor, with the edge samples repeated past the borders.
+   *
    * @param stat - local statistic to be computed
    * @param r    - half side length minus 1 of the square defining the local area surrounding each pixel
    */
 
-  public void filter(EasyVector.Stat stat, int r) {
-    EasyImage temp = new EasyImage(image);
-
-    for (int i = 0; i < image.width; i++) {
-      for (int j = 0; j < image.height; j++) {
-        image.setPixelArray(i, j, temp.statisticProcessor.borderlessNeighborhoodStat(i, j, r, stat));
+  public void filter(final EasyVector.Stat stat, final int r) {
+    Metrics.Scope scope = begin("StatisticProcessor.filter");
+    try {
+      if (r < 0) throw new IllegalArgumentException("negative radius: " + r);
+      unindex();
+      switch (stat) {
+        case MEDIAN:
+          RankFilter.percentile(r, .5).run(getExecutor(), image.pixels);
+          return;
+        case MIN:
+          RankFilter.percentile(r, 0).run(getExecutor(), image.pixels);
+          return;
+        case MAX:
+          RankFilter.percentile(r, 1).run(getExecutor(), image.pixels);
+          return;
+        case MODE:
+          RankFilter.mode(r).run(getExecutor(), image.pixels);
+          return;
+        case MEAN:
+          box(r, r, true);
+          return;
+        case SUM:
+          box(r, r, false);
+          return;
+        case GRADIENT:
+          image.convolutionProcessor.gradient(ConvolutionProcessor.BorderMode.CLAMP);
+          return;
+        case MAX_GRADIENT:
+          image.convolutionProcessor.maxGradient(ConvolutionProcessor.BorderMode.CLAMP);
+          return;
+        case CORNERS:
+          image.convolutionProcessor.corners(ConvolutionProcessor.BorderMode.CLAMP);
+          return;
+        default:
+          break;
       }
+      final int width = image.width;
+      final int height = image.height;
+      final int pixelLength = image.pixelLength;
+      final PixelBuffer pixels = image.pixels;
+
+      // bands of rows in parallel, each keeping the 2r + 1 input rows around the row it writes, so the image is filtered
+      // in place and tiled images work through one row of tiles at a time
+      getExecutor().run(pixels, r, new BandExecutor.Task() {
+        @Override
+        public void run(BandExecutor.Band band) {
+          ScratchPool pool = ScratchPool.get();
+          int size = 2 * r + 1;
+          byte[][] window = new byte[size][];
+          for (int k = 0; k < size; k++) window[k] = pool.borrowBytes(width * pixelLength);
+          byte[] result = pool.borrowBytes(width * pixelLength);
+          IntVector neighborhood = new IntVector(size * size);
+
+          for (int j = Math.max(band.start - r, 0); j < Math.min(band.start + r, height); j++)
+            band.getRow(j, window[j % size]);
+
+          for (int j = band.start; j < band.end; j++) {
+            if (j + r < height) band.getRow(j + r, window[(j + r) % size]);
+            int yMin = Math.max(j - r, 0);
+            int yMax = Math.min(j + r, height - 1);
+
+            for (int i = 0; i < width; i++) {
+              int xMin = Math.max(i - r, 0);
+              int xMax = Math.min(i + r, width - 1);
+              for (int a = 0; a < pixelLength; a++) {
+                neighborhood.clear();
+                for (int x = xMin; x <= xMax; x++)
+                  for (int y = yMin; y <= yMax; y++)
+                    neighborhood.add(window[y % size][x * pixelLength + a] & 0xff);
+                result[i * pixelLength + a] = (byte) neighborhood.stat(stat);
+              }
+            }
+            pixels.setRow(0, j, width, result, 0);
+          }
+          for (byte[] row : window) pool.giveBack(row);
+          pool.giveBack(result);
+        }
+      });
+    } finally {
+      endUpdate(scope);
     }
   }
 
-  public byte[] borderlessNeighborhoodStat(int x, int y, int r, EasyVector.Stat stat) {
-    byte[] result = new byte[image.pixelLength];
-
-    EasyVector neighborhood = new EasyVector();
-
-    for (int a = 0; a < image.pixelLength; a++) {
-      for (int i = x - r; i <= x + r; i++)
-        for (int j = y - r; j <= y + r; j++) {
-          byte[] pixelArray;
-          try {
-            pixelArray = image.getPixelArray(i, j);
-          } catch (java.lang.ArrayIndexOutOfBoundsException e) {
-            pixelArray = null;
+  /**
+   * sets the value of each sample to the given percentile of the samples of the same channel in the square of side
+   * 2r + 1 around it, clipped to the image: the sample at index min(n - 1, floor(percentile * n)) of the n sorted
+   * samples, so 0 is the minimum, 0.5 the median and 1 the maximum.
+   */
+  public void percentileFilter(double percentile, int r) {
+    Metrics.Scope scope = begin("StatisticProcessor.percentileFilter");
+    try {
+      unindex();
+      RankFilter.percentile(r, percentile).run(getExecutor(), image.pixels);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * sets the value of each sample to the mean, rounded down, of the samples of the same channel in the rectangle of
+   * 2rx + 1 by 2ry + 1 pixels around it, clipped to the image. The sums come from the integral image, so the cost does
+   * not depend on the radii.
+   */
+  public void boxMean(int rx, int ry) {
+    Metrics.Scope scope = begin("StatisticProcessor.boxMean");
+    try {
+      if (rx < 0 || ry < 0) throw new IllegalArgumentException("negative radius: " + rx + ", " + ry);
+      unindex();
+      box(rx, ry, true);
+    } finally {
+      endUpdate(scope);
+    }
+  }
+
+  /**
+   * sets each sample to the sum, or the mean if mean is set, of its channel over the rectangle around it.
+   */
+  private void box(final int rx, final int ry, final boolean mean) {
+    final IntegralImage integral = image.getIntegralImage();
+    final int width = image.width;
+    final int height = image.height;
+    final int pixelLength = image.pixelLength;
+    final PixelBuffer pixels = image.pixels;
+
+    // the sums come from the table, not the image, so bands need no halo
+    getExecutor().run(pixels, new BandExecutor.Task() {
+      @Override
+      public void run(BandExecutor.Band band) {
+        ScratchPool pool = ScratchPool.get();
+        byte[] result = pool.borrowBytes(width * pixelLength);
+        for (int j = band.start; j < band.end; j++) {
+          int y0 = Math.max(j - ry, 0);
+          int y1 = Math.min(j + ry + 1, height);
+          for (int i = 0; i < width; i++) {
+            int x0 = Math.max(i - rx, 0);
+            int x1 = Math.min(i + rx + 1, width);
+            long n = (long) (x1 - x0) * (y1 - y0);
+            for (int a = 0; a < pixelLength; a++) {
+              long sum = integral.sum(x0, y0, x1, y1, a);
+              result[i * pixelLength + a] = (byte) (mean ? sum / n : sum);
+            }
           }
-          if (pixelArray != null) neighborhood.add(pixelArray[a] & 0xff);
+          pixels.setRow(0, j, width, result, 0);
         }
-      result[a] = (byte) neighborhood.stat(stat);
-      neighborhood.clear();
+        pool.giveBack(result);
+      }
+    });
+  }
+
+  public byte[] borderlessNeighborhoodStat(int x, int y, int r, EasyVector.Stat stat) {
+    Metrics.Scope scope = begin("StatisticProcessor.borderlessNeighborhoodStat");
+    try {
+      byte[] result = new byte[image.pixelLength];
+
+      IntVector neighborhood = new IntVector((2 * r + 1) * (2 * r + 1));
+
+      for (int a = 0; a < image.pixelLength; a++) {
+        result[a] = (byte) neighborhoodStat(x, y, a, r, stat, neighborhood);
+      }
+      return result;
+    } finally {
+      Metrics.end(scope);
     }
-    return result;
+  }
+
+  /**
+   * computes stat over channel a of the pixels within distance r of (x, y) that lie inside the image, using
+   * neighborhood as scratch space.
+   */
+  private double neighborhoodStat(int x, int y, int a, int r, EasyVector.Stat stat, IntVector neighborhood) {
+    neighborhood.clear();
+    for (int i = Math.max(x - r, 0); i <= Math.min(x + r, image.width - 1); i++)
+      for (int j = Math.max(y - r, 0); j <= Math.min(y + r, image.height - 1); j++)
+        neighborhood.add(image.getChannel(i, j, a));
+    return neighborhood.stat(stat);
   }
 }
@@ -0,0 +1,163 @@
+package org.bagrounds.java.easyimage.buffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the word at a time kernels give the same results as the byte at a time loops that
+ * -Deasyimage.scalarKernels=true selects, on runs that start and end anywhere within a word.
+ */
+public class ByteKernelsTest {
+  /**
+   * values next to the byte and sign boundaries, where a borrow or carry would leak into the next lane
+   */
+  private static final int[] EDGES = {0x00, 0x01, 0x7e, 0x7f, 0x80, 0x81, 0xfe, 0xff};
+
+  private final Random random = new Random(14);
+
+  @Test
+  public void identityTables() {
+    byte[] table = new byte[256];
+    for (int v = 0; v < 256; v++) table[v] = (byte) v;
+    assertSameAsScalar(table, ByteKernels.Lut.Kind.IDENTITY);
+  }
+
+  @Test
+  public void xorTables() {
+    for (int flip : new int[]{0xff, 0x80, 0x7f, 0x01, 0x5a}) {
+      byte[] table = new byte[256];
+      for (int v = 0; v < 256; v++) table[v] = (byte) (v ^ flip);
+      assertSameAsScalar(table, ByteKernels.Lut.Kind.XOR);
+    }
+  }
+
+  @Test
+  public void unsignedRangeTables() {
+    int[][] ranges = {{0, 128}, {128, 256}, {1, 255}, {0x7f, 0x81}, {200, 201}, {0, 1}, {255, 256}};
+    for (int[] range : ranges) assertRange(range[0], range[1], 0);
+    for (int i = 0; i < 50; i++) {
+      int from = random.nextInt(256);
+      assertRange(from, from + 1 + random.nextInt(256 - from), 0);
+    }
+  }
+
+  @Test
+  public void signedRangeTables() {
+    // samples in [from, to) once the sign bit is flipped, such as -20 <= (byte) v < 50, which select on the unsigned
+    // complement of a range when they span the sign change
+    int[][] ranges = {{128 - 20, 128 + 50}, {1, 255}, {0x7f, 0x81}, {0, 200}, {100, 256}};
+    for (int[] range : ranges) assertRange(range[0], range[1], 0x80);
+    for (int i = 0; i < 50; i++) {
+      int from = 1 + random.nextInt(254);
+      assertRange(from, from + 1 + random.nextInt(255 - from), 0x80);
+    }
+  }
+
+  @Test
+  public void constantTables() {
+    byte[] table = new byte[256];
+    Arrays.fill(table, (byte) 0x80);
+    assertSameAsScalar(table, ByteKernels.Lut.Kind.SELECT);
+  }
+
+  @Test
+  public void randomTables() {
+    for (int i = 0; i < 20; i++) {
+      byte[] table = new byte[256];
+      random.nextBytes(table);
+      assertSameAsScalar(table, ByteKernels.Lut.Kind.TABLE);
+    }
+  }
+
+  @Test
+  public void sumAbsDiffMatchesScalar() {
+    for (int length : new int[]{0, 7, 8, 15, 16, 17, 100, 8 * 128 - 3, 8 * 128, 8 * 128 + 9, 8 * 300 + 5}) {
+      for (int i = 0; i < 20; i++) {
+        byte[] a = randomData(length + 16);
+        byte[] b = randomData(length + 16);
+        int aOffset = random.nextInt(9);
+        int bOffset = random.nextInt(9);
+        Assert.assertEquals("length " + length + " at " + aOffset + ", " + bOffset,
+            ByteKernels.sumAbsDiff(a, aOffset, b, bOffset, length, true),
+            ByteKernels.sumAbsDiff(a, aOffset, b, bOffset, length, false));
+      }
+    }
+  }
+
+  @Test
+  public void sumAbsDiffDoesNotOverflowItsLanes() {
+    // every lane gains 2 * 255 per word, the most it can, for more than SUM_WORDS = 128 words in a row
+    int length = 8 * 3 * 128 + 5;
+    byte[] zeros = new byte[length];
+    byte[] full = new byte[length];
+    Arrays.fill(full, (byte) 255);
+    Assert.assertEquals(255L * length, ByteKernels.sumAbsDiff(zeros, 0, full, 0, length, false));
+    Assert.assertEquals(255L * length, ByteKernels.sumAbsDiff(full, 0, zeros, 0, length, false));
+    Assert.assertEquals(255L * (length - 3), ByteKernels.sumAbsDiff(full, 3, zeros, 1, length - 3, false));
+  }
+
+  @Test
+  public void atLeastAndSubtractOnEveryPairOfEdges() {
+    for (int x : EDGES)
+      for (int y : EDGES) {
+        long xs = x * 0x0101010101010101L;
+        long ys = y * 0x0101010101010101L;
+        // neighbors that would borrow from or carry into the lanes under test if the kernels leaked
+        long xMixed = xs & 0x00ff00ff00ff00ffL | 0xff00ff00ff00ff00L;
+        long yMixed = ys & 0x00ff00ff00ff00ffL;
+        for (int lane = 0; lane < 8; lane++) {
+          int shift = 8 * lane;
+          Assert.assertEquals(x >= y ? 0x80 : 0, (ByteKernels.atLeast(xs, ys) >>> shift) & 0xff);
+          Assert.assertEquals((x - y) & 0xff, (ByteKernels.subtract(xs, ys) >>> shift) & 0xff);
+          int xl = (int) (xMixed >>> shift) & 0xff;
+          int yl = (int) (yMixed >>> shift) & 0xff;
+          Assert.assertEquals(xl >= yl ? 0x80 : 0, (ByteKernels.atLeast(xMixed, yMixed) >>> shift) & 0xff);
+          Assert.assertEquals((xl - yl) & 0xff, (ByteKernels.subtract(xMixed, yMixed) >>> shift) & 0xff);
+        }
+      }
+  }
+
+  /**
+   * Checks a table of one value on the samples v with v ^ bias in [from, to) and another elsewhere.
+   */
+  private void assertRange(int from, int to, int bias) {
+    byte inside = (byte) random.nextInt(256);
+    byte outside = (byte) (inside + 1 + random.nextInt(255));
+    byte[] table = new byte[256];
+    for (int v = 0; v < 256; v++) {
+      int u = v ^ bias;
+      table[v] = u >= from && u < to ? inside : outside;
+    }
+    assertSameAsScalar(table, ByteKernels.Lut.Kind.SELECT);
+  }
+
+  private void assertSameAsScalar(byte[] table, ByteKernels.Lut.Kind kind) {
+    ByteKernels.Lut lut = new ByteKernels.Lut(table);
+    Assert.assertEquals(kind, lut.kind);
+    for (int length : new int[]{0, 1, 7, 8, 15, 16, 17, 23, 64, 129, 1000}) {
+      for (int i = 0; i < 10; i++) {
+        byte[] data = randomData(length + 16);
+        int start = random.nextInt(9);
+        int end = start + length;
+        byte[] expected = data.clone();
+        byte[] actual = data.clone();
+        lut.apply(expected, start, end, true);
+        lut.apply(actual, start, end, false);
+        Assert.assertArrayEquals(kind + " table, bytes " + start + " to " + end, expected, actual);
+      }
+    }
+  }
+
+  /**
+   * Returns random bytes, half of them drawn from EDGES.
+   */
+  private byte[] randomData(int length) {
+    byte[] data = new byte[length];
+    random.nextBytes(data);
+    for (int i = 0; i < length; i++) if (random.nextBoolean()) data[i] = (byte) EDGES[random.nextInt(EDGES.length)];
+    return data;
+  }
+}
@@ -0,0 +1,53 @@
+package org.bagrounds.java.easyimage.math;
+
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.TiledPixelBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the box sums against sums taken pixel by pixel, and the refusal of images too large for one table.
+ */
+public class IntegralImageTest {
+  @Test
+  public void boxesMatchDirectSums() {
+    int width = 37;
+    int height = 23;
+    int channels = 3;
+    byte[] data = new byte[width * height * channels];
+    Random random = new Random(16);
+    random.nextBytes(data);
+    IntegralImage integral = new IntegralImage(new InterleavedPixelBuffer(width, height, channels, data));
+
+    for (int i = 0; i < 200; i++) {
+      int x0 = random.nextInt(width + 1);
+      int y0 = random.nextInt(height + 1);
+      int x1 = x0 + random.nextInt(width + 1 - x0);
+      int y1 = y0 + random.nextInt(height + 1 - y0);
+      int c = random.nextInt(channels);
+      long sum = 0;
+      long squares = 0;
+      for (int y = y0; y < y1; y++)
+        for (int x = x0; x < x1; x++) {
+          int v = data[(y * width + x) * channels + c] & 0xff;
+          sum += v;
+          squares += v * v;
+        }
+      Assert.assertEquals(sum, integral.sum(x0, y0, x1, y1, c));
+      Assert.assertEquals(squares, integral.sumOfSquares(x0, y0, x1, y1, c));
+    }
+  }
+
+  @Test
+  public void refusesImagesTooLargeForOneTable() {
+    // 2^31 entries and more; the tiles are never loaded, so nothing of that size is allocated
+    try {
+      new IntegralImage(new TiledPixelBuffer(46341, 46341, 1, 256, 1 << 20));
+      Assert.fail("built a table of more than 2^31 entries");
+    } catch (IllegalArgumentException expected) {
+      Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("46341x46341x1"));
+    }
+  }
+}
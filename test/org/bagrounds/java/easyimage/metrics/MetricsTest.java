@@ -0,0 +1,90 @@
+package org.bagrounds.java.easyimage.metrics;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.math.IntegralImage;
+import org.bagrounds.java.easyimage.processors.IOProcessor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that operations calling other operations are reported once, and that every change is counted on the image.
+ */
+public class MetricsTest {
+  private final MetricsRegistry registry = new MetricsRegistry();
+
+  @Before
+  public void register() {
+    Metrics.addListener(registry);
+  }
+
+  @After
+  public void unregister() {
+    Metrics.removeListener(registry);
+  }
+
+  @Test
+  public void nestedOperationsAreReportedOnce() {
+    EasyImage image = colorImage();
+    image.colorProcessor.convertToBinary(128);
+    image.morphologicalProcessor.open(1);
+
+    Assert.assertEquals(1, registry.get("ColorProcessor.convertToBinary").invocations());
+    Assert.assertEquals(1, registry.get("MorphologicalProcessor.open").invocations());
+    Assert.assertNull(registry.get("ColorProcessor.convertToBW"));
+    Assert.assertNull(registry.get("ColorProcessor.convertToGrayScale"));
+    Assert.assertNull(registry.get("MorphologicalProcessor.dilate"));
+    Assert.assertNull(registry.get("ColorProcessor.invert"));
+  }
+
+  @Test
+  public void nestedOperationsCountTheirChanges() {
+    EasyImage image = colorImage();
+    int before = image.getModCount();
+    image.colorProcessor.quantize8Bit();
+    Assert.assertTrue(image.getModCount() > before);
+
+    before = image.getModCount();
+    image.morphologicalProcessor.erode(1);
+    Assert.assertTrue(image.getModCount() > before);
+  }
+
+  @Test
+  public void changesInsideAnotherImagesOperationAreCounted() {
+    EasyImage image = colorImage();
+    IntegralImage stale = image.getIntegralImage();
+    // as when an operation on one image works on another one it made
+    Metrics.Scope outer = Metrics.begin("MetricsTest.outer", 0);
+    try {
+      image.colorProcessor.invert();
+    } finally {
+      Metrics.end(outer);
+    }
+    Assert.assertNotSame(stale, image.getIntegralImage());
+    Assert.assertEquals(255 - image.getChannel(0, 0, 0), stale.sum(0, 0, 1, 1, 0));
+  }
+
+  @Test
+  public void failedReadsLeaveLaterOperationsReported() {
+    try {
+      IOProcessor.readImage(new File("no such file.png"));
+      Assert.fail("read a file that does not exist");
+    } catch (IOException expected) {
+      // the read is cancelled, so the thread is no longer inside an operation
+    }
+    colorImage().colorProcessor.invert();
+    Assert.assertEquals(1, registry.get("ColorProcessor.invert").invocations());
+  }
+
+  private static EasyImage colorImage() {
+    byte[] data = new byte[64 * 48 * 3];
+    new Random(3).nextBytes(data);
+    return new EasyImage(new InterleavedPixelBuffer(64, 48, 3, data));
+  }
+}
@@ -0,0 +1,130 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.math.ImageSummary;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs processor operations as one band on the calling thread and as many bands on a pool, and checks that the
+ * results are the same bit for bit. The band sizes are chosen so that bands start and end in the middle of the halo of
+ * the neighborhood operations.
+ */
+public class BandExecutorTest {
+  private static final BandExecutor SHARED = BandExecutor.getShared();
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  private interface Operation {
+    void apply(EasyImage image);
+  }
+
+  @After
+  public void restoreShared() {
+    BandExecutor.setShared(SHARED);
+  }
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void filterMatchesSequential() {
+    for (final EasyVector.Stat stat : new EasyVector.Stat[]{EasyVector.Stat.MEAN, EasyVector.Stat.MEDIAN,
+        EasyVector.Stat.MODE, EasyVector.Stat.GRADIENT, EasyVector.Stat.CORNERS, EasyVector.Stat.NORM2,
+        EasyVector.Stat.DILATION}) {
+      for (final int r : new int[]{1, 3}) {
+        assertSameResults(stat + " r=" + r, new Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.filter(stat, r);
+          }
+        });
+      }
+    }
+  }
+
+  @Test
+  public void dilateMatchesSequential() {
+    assertSameResults("dilate", new Operation() {
+      @Override
+      public void apply(EasyImage image) {
+        image.morphologicalProcessor.dilate(1);
+      }
+    });
+  }
+
+  @Test
+  public void convertToGrayScaleMatchesSequential() {
+    assertSameResults("convertToGrayScale", new Operation() {
+      @Override
+      public void apply(EasyImage image) {
+        image.colorProcessor.convertToGrayScale();
+      }
+    });
+  }
+
+  @Test
+  public void summarizeMatchesSequential() {
+    for (int channels : new int[]{1, 3}) {
+      ImageSummary expected = summarize(randomImage(channels, 1), BandExecutor.sequential());
+      for (BandExecutor executor : parallelExecutors()) {
+        ImageSummary actual = summarize(randomImage(channels, 1), executor);
+        Assert.assertEquals(expected.count, actual.count);
+        for (int c = 0; c < channels; c++)
+          Assert.assertArrayEquals("channel " + c, expected.histogram(c), actual.histogram(c));
+      }
+    }
+  }
+
+  private static ImageSummary summarize(EasyImage image, BandExecutor executor) {
+    BandExecutor.setShared(executor);
+    return image.statisticProcessor.summarize();
+  }
+
+  private static BandExecutor[] parallelExecutors() {
+    return new BandExecutor[]{SHARED, new BandExecutor(POOL, 1000), new BandExecutor(POOL, 1)};
+  }
+
+  private static void assertSameResults(String name, Operation operation) {
+    for (int channels : new int[]{1, 3}) {
+      byte[] expected = run(operation, randomImage(channels, 1), BandExecutor.sequential());
+      for (BandExecutor executor : parallelExecutors()) {
+        byte[] actual = run(operation, randomImage(channels, 1), executor);
+        Assert.assertArrayEquals(name + ", " + channels + " channels, bands of " + executor.minBandPixels + " pixels",
+            expected, actual);
+      }
+    }
+  }
+
+  private static byte[] run(Operation operation, EasyImage image, BandExecutor executor) {
+    BandExecutor.setShared(executor);
+    operation.apply(image);
+    return image.getPixelData();
+  }
+
+  /**
+   * Returns an image of noise with blocks of white, so that dilation and the gradients have edges to work on.
+   */
+  private static EasyImage randomImage(int channels, long seed) {
+    int width = 157;
+    int height = 131;
+    Random random = new Random(seed);
+    byte[] data = new byte[width * height * channels];
+    random.nextBytes(data);
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        if ((x / 16 + y / 16) % 3 == 0)
+          for (int c = 0; c < channels; c++) data[(y * width + x) * channels + c] = (byte) 255;
+    PixelBuffer buffer = new InterleavedPixelBuffer(width, height, channels, data);
+    return new EasyImage(buffer);
+  }
+}
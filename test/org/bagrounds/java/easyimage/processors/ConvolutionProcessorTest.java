@@ -0,0 +1,179 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.math.Kernel;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares convolutions with the weighted sum over every cell of the kernel, its samples outside the image looked up
+ * one at a time, on images smaller and larger than the kernels and with origins anywhere in them.
+ */
+public class ConvolutionProcessorTest {
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  private final Random random = new Random(19);
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void integerKernelsMatchBruteForce() {
+    for (int t = 0; t < 80; t++) {
+      int width = 1 + random.nextInt(7);
+      int height = 1 + random.nextInt(7);
+      int[][] weights = new int[height][width];
+      for (int[] row : weights)
+        for (int x = 0; x < width; x++) row[x] = random.nextInt(7) - 3;
+      weights[random.nextInt(height)][random.nextInt(width)] = 1 + random.nextInt(3);
+      check(new Kernel(toDoubles(weights), random.nextInt(width), random.nextInt(height), 1 + random.nextInt(9),
+          random.nextInt(100)));
+    }
+  }
+
+  @Test
+  public void floatKernelsMatchBruteForce() {
+    for (int t = 0; t < 60; t++) {
+      int width = 1 + random.nextInt(6);
+      int height = 1 + random.nextInt(6);
+      double[][] weights = new double[height][width];
+      for (double[] row : weights)
+        for (int x = 0; x < width; x++) row[x] = random.nextDouble() - .3;
+      check(new Kernel(weights, random.nextInt(width), random.nextInt(height), .5 + random.nextDouble(), 60));
+    }
+  }
+
+  @Test
+  public void separableKernelsMatchBruteForce() {
+    for (int t = 0; t < 80; t++) {
+      double[] column = new double[2 + random.nextInt(6)];
+      double[] row = new double[2 + random.nextInt(6)];
+      for (int y = 0; y < column.length; y++) column[y] = random.nextDouble() - .3;
+      for (int x = 0; x < row.length; x++) row[x] = random.nextDouble() - .3;
+      double[][] weights = new double[column.length][row.length];
+      for (int y = 0; y < column.length; y++)
+        for (int x = 0; x < row.length; x++) weights[y][x] = column[y] * row[x];
+      Kernel kernel = new Kernel(weights, random.nextInt(row.length), random.nextInt(column.length), .5, 60);
+      Assert.assertTrue(kernel.isSeparable());
+      check(kernel);
+    }
+  }
+
+  @Test
+  public void namedKernelsMatchBruteForce() {
+    for (int t = 0; t < 40; t++) {
+      check(Kernel.gaussian(.5 + 3 * random.nextDouble()));
+      check(Kernel.box(random.nextInt(5)));
+      check(Kernel.sobelX());
+      check(Kernel.gradient());
+    }
+  }
+
+  @Test
+  public void reflectMirrorsThroughTheEdgeSample() {
+    ConvolutionProcessor.BorderMode reflect = ConvolutionProcessor.BorderMode.REFLECT;
+    for (int n = 1; n < 12; n++)
+      for (int i = -40; i < 40; i++)
+        Assert.assertEquals(n + ", " + i, mirror(i, n), ConvolutionProcessor.border(i, n, reflect));
+  }
+
+  /**
+   * Convolves a random image with kernel, at every border mode, sequentially and in bands, and compares the results
+   * with bruteForce. Rounding may differ by one where the sums are made in a different order, but not for integer
+   * kernels, which are summed exactly.
+   */
+  private void check(Kernel kernel) {
+    BandExecutor[] executors = {BandExecutor.sequential(), new BandExecutor(POOL, 1), new BandExecutor(POOL, 2000)};
+    int width = 1 + random.nextInt(40);
+    int height = 1 + random.nextInt(40);
+    int channels = random.nextBoolean() ? 1 : 3;
+    byte[] data = new byte[width * height * channels];
+    random.nextBytes(data);
+    int tolerance = kernel.integer && !kernel.isSeparable() ? 0 : 1;
+
+    for (ConvolutionProcessor.BorderMode border : ConvolutionProcessor.BorderMode.values()) {
+      int[] expected = bruteForce(data, width, height, channels, kernel, border);
+      for (BandExecutor executor : executors) {
+        EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+        image.convolutionProcessor.setExecutor(executor);
+        image.convolutionProcessor.convolve(kernel, border);
+        byte[] actual = image.getPixelData();
+        for (int i = 0; i < expected.length; i++)
+          if (Math.abs((actual[i] & 0xff) - expected[i]) > tolerance)
+            Assert.fail(border + " " + describe(kernel) + " on " + width + "x" + height + "x" + channels + ": sample "
+                + i + " is " + (actual[i] & 0xff) + ", not " + expected[i]);
+      }
+    }
+  }
+
+  private static String describe(Kernel kernel) {
+    StringBuilder text = new StringBuilder(kernel.width + "x" + kernel.height + " kernel, origin " + kernel.originX
+        + ", " + kernel.originY + (kernel.isSeparable() ? ", separable" : ""));
+    for (int y = 0; y < kernel.height; y++)
+      for (int x = 0; x < kernel.width; x++) text.append(x == 0 ? " |" : " ").append(kernel.weight(x, y));
+    return text.toString();
+  }
+
+  /**
+   * Sums kernel over the samples around each one, placed with its origin on it and not mirrored, rounds the sum and
+   * saturates it to 0..255.
+   */
+  private static int[] bruteForce(byte[] data, int width, int height, int channels, Kernel kernel,
+                                  ConvolutionProcessor.BorderMode border) {
+    int[] result = new int[data.length];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        for (int c = 0; c < channels; c++) {
+          double sum = 0;
+          for (int ky = 0; ky < kernel.height; ky++)
+            for (int kx = 0; kx < kernel.width; kx++) {
+              int sx = outside(x + kx - kernel.originX, width, border);
+              int sy = outside(y + ky - kernel.originY, height, border);
+              if (sx < 0 || sy < 0) continue;
+              sum += kernel.weight(kx, ky) * (data[(sy * width + sx) * channels + c] & 0xff);
+            }
+          double response = sum / kernel.divisor + kernel.offset;
+          result[(y * width + x) * channels + c] =
+              response <= -.5 ? 0 : response >= 254.5 ? 255 : (int) (response + .5);
+        }
+    return result;
+  }
+
+  /**
+   * Returns the coordinate that stands for i on a line of n samples, or -1 for a zero sample.
+   */
+  private static int outside(int i, int n, ConvolutionProcessor.BorderMode border) {
+    if (i >= 0 && i < n) return i;
+    switch (border) {
+      case CLAMP:
+        return i < 0 ? 0 : n - 1;
+      case REFLECT:
+        return mirror(i, n);
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Mirrors i through the edges of a line of n samples until it lands on it: d c b | a b c d | c b a.
+   */
+  private static int mirror(int i, int n) {
+    if (n == 1) return 0;
+    while (i < 0 || i >= n) i = i < 0 ? -i : 2 * (n - 1) - i;
+    return i;
+  }
+
+  private static double[][] toDoubles(int[][] weights) {
+    double[][] doubles = new double[weights.length][weights[0].length];
+    for (int y = 0; y < weights.length; y++)
+      for (int x = 0; x < weights[y].length; x++) doubles[y][x] = weights[y][x];
+    return doubles;
+  }
+}
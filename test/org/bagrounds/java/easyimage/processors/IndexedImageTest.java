@@ -0,0 +1,110 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.PixelBuffer;
+import org.bagrounds.java.easyimage.geometry.StructuringElement;
+import org.bagrounds.java.easyimage.math.EasyVector;
+import org.bagrounds.java.easyimage.pipeline.Pipeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Runs operations on quantized images stored as a palette and indices, and compares them with the same operations on
+ * interleaved copies. Those that make new colors from several pixels would fill the palette partway through.
+ */
+public class IndexedImageTest {
+  private final Random random = new Random(22);
+
+  @Test
+  public void neighborhoodOperationsLeaveThePalette() {
+    Pipeline.Operation[] operations = {
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.filter(EasyVector.Stat.MEAN, 2);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.filter(EasyVector.Stat.GRADIENT, 1);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.filter(EasyVector.Stat.NORM2, 1);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.percentileFilter(.25, 2);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.statisticProcessor.boxMean(3, 1);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.convolutionProcessor.gaussianBlur(1.5, ConvolutionProcessor.BorderMode.REFLECT);
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.morphologicalProcessor.erode(StructuringElement.disk(2));
+          }
+        },
+        new Pipeline.Operation() {
+          @Override
+          public void apply(EasyImage image) {
+            image.morphologicalProcessor.dilate(StructuringElement.cross(3));
+          }
+        }};
+
+    for (int k = 0; k < operations.length; k++) {
+      EasyImage indexed = quantized();
+      Assert.assertEquals(PixelBuffer.Layout.INDEXED, indexed.getLayout());
+      EasyImage interleaved = new EasyImage(indexed);
+      interleaved.setLayout(PixelBuffer.Layout.INTERLEAVED);
+
+      operations[k].apply(indexed);
+      operations[k].apply(interleaved);
+      Assert.assertEquals("operation " + k, PixelBuffer.Layout.INTERLEAVED, indexed.getLayout());
+      Assert.assertArrayEquals("operation " + k, interleaved.getPixelData(), indexed.getPixelData());
+    }
+  }
+
+  @Test
+  public void colorMappingsKeepThePalette() {
+    EasyImage indexed = quantized();
+    EasyImage interleaved = new EasyImage(indexed);
+    interleaved.setLayout(PixelBuffer.Layout.INTERLEAVED);
+
+    indexed.colorProcessor.invert();
+    interleaved.colorProcessor.invert();
+    Assert.assertEquals(PixelBuffer.Layout.INDEXED, indexed.getLayout());
+    Assert.assertArrayEquals(interleaved.getPixelData(), indexed.getPixelData());
+  }
+
+  /**
+   * Returns random colors quantized to the 8 colors of 3 bit color, stored indexed.
+   */
+  private EasyImage quantized() {
+    int width = 40 + random.nextInt(40);
+    int height = 30 + random.nextInt(30);
+    byte[] data = new byte[width * height * 3];
+    random.nextBytes(data);
+    EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, 3, data));
+    image.colorProcessor.quantize3BitIndexed();
+    return image;
+  }
+}
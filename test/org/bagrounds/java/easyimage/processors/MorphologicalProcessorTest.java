@@ -0,0 +1,206 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.BinaryPixelBuffer;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.geometry.StructuringElement;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the morphology engines with dilations and erosions computed by looking at every cell of the neighborhood.
+ */
+public class MorphologicalProcessorTest {
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  private final Random random = new Random(12);
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void dilateMatchesBruteForce() {
+    for (int t = 0; t < 200; t++) {
+      int width = 1 + random.nextInt(70);
+      int height = 1 + random.nextInt(50);
+      int channels = random.nextBoolean() ? 1 : 3;
+      int n = randomRadius();
+      byte[] data = sparse(width * height * channels);
+      EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+      image.morphologicalProcessor.dilate(n);
+      Assert.assertArrayEquals(width + "x" + height + "x" + channels + ", n=" + n,
+          bruteDiamond(data, width, height, channels, n, true), image.getPixelData());
+    }
+  }
+
+  @Test
+  public void erodeMatchesBruteForce() {
+    for (int t = 0; t < 100; t++) {
+      int width = 1 + random.nextInt(70);
+      int height = 1 + random.nextInt(50);
+      int n = randomRadius();
+      byte[] data = sparse(width * height);
+      for (int i = 0; i < data.length; i++) data[i] = data[i] != 0 ? 0 : (byte) 255;
+      EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, 1, data.clone()));
+      image.morphologicalProcessor.erode(n);
+      Assert.assertArrayEquals(width + "x" + height + ", n=" + n, bruteDiamond(data, width, height, 1, n, false),
+          image.getPixelData());
+    }
+  }
+
+  @Test
+  public void binaryDilateMatchesBruteForce() {
+    for (int t = 0; t < 200; t++) {
+      int width = 1 + random.nextInt(150);
+      int height = 1 + random.nextInt(50);
+      // both sides of the switch from passes over words to distances
+      int n = random.nextBoolean() ? randomRadius() : 120 + random.nextInt(20);
+      byte[] data = sparse(width * height);
+      BinaryPixelBuffer bits = new BinaryPixelBuffer(width, height);
+      for (int y = 0; y < height; y++) bits.setRow(0, y, width, data, y * width);
+      bits.dilate(n);
+      byte[] actual = new byte[width * height];
+      for (int y = 0; y < height; y++) bits.getRow(0, y, width, actual, y * width);
+      Assert.assertArrayEquals(width + "x" + height + ", n=" + n, bruteDiamond(data, width, height, 1, n, true),
+          actual);
+    }
+  }
+
+  @Test
+  public void structuringElementsMatchBruteForce() {
+    BandExecutor[] executors = {BandExecutor.sequential(), new BandExecutor(POOL, 1), new BandExecutor(POOL, 2000)};
+    for (int t = 0; t < 60; t++) {
+      // tall enough for several chunks of rows per band, so rows are carried from one chunk to the next
+      int width = 1 + random.nextInt(60);
+      int height = 1 + random.nextInt(220);
+      int channels = random.nextBoolean() ? 1 : 3;
+      StructuringElement element = randomElement();
+      byte[] data = new byte[width * height * channels];
+      random.nextBytes(data);
+      String name = width + "x" + height + "x" + channels + ", " + describe(element);
+      byte[] eroded = bruteElement(data, width, height, channels, element, false);
+      byte[] dilated = bruteElement(data, width, height, channels, element, true);
+
+      for (BandExecutor executor : executors) {
+        EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+        image.morphologicalProcessor.setExecutor(executor);
+        image.morphologicalProcessor.erode(element);
+        Assert.assertArrayEquals("erode " + name, eroded, image.getPixelData());
+
+        image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+        image.morphologicalProcessor.setExecutor(executor);
+        image.morphologicalProcessor.dilate(element);
+        Assert.assertArrayEquals("dilate " + name, dilated, image.getPixelData());
+
+        image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+        image.morphologicalProcessor.setExecutor(executor);
+        image.morphologicalProcessor.open(element);
+        Assert.assertArrayEquals("open " + name, bruteElement(eroded, width, height, channels, element, true),
+            image.getPixelData());
+      }
+    }
+  }
+
+  @Test
+  public void reflectMirrorsThroughTheOrigin() {
+    for (int t = 0; t < 50; t++) {
+      StructuringElement element = randomElement();
+      StructuringElement reflected = element.reflect();
+      for (int dy = -30; dy <= 30; dy++)
+        for (int dx = -30; dx <= 30; dx++)
+          Assert.assertEquals(describe(element) + " at " + dx + ", " + dy, element.contains(dx, dy),
+              reflected.contains(-dx, -dy));
+    }
+  }
+
+  /**
+   * Returns a random mask of up to 9 by 9 cells, with its origin anywhere within 6 cells of it, inside or not.
+   */
+  private StructuringElement randomElement() {
+    int width = 1 + random.nextInt(9);
+    int height = 1 + random.nextInt(9);
+    boolean[][] mask = new boolean[height][width];
+    int fill = 1 + random.nextInt(4);
+    for (boolean[] row : mask)
+      for (int x = 0; x < width; x++) row[x] = random.nextInt(fill) == 0;
+    mask[random.nextInt(height)][random.nextInt(width)] = true;
+    return new StructuringElement(mask, random.nextInt(width + 12) - 6, random.nextInt(height + 12) - 6);
+  }
+
+  private static String describe(StructuringElement element) {
+    StringBuilder text = new StringBuilder("origin " + element.originX + ", " + element.originY + " of");
+    for (int y = 0; y < element.height; y++) {
+      text.append(' ');
+      for (int x = 0; x < element.width; x++)
+        text.append(element.contains(x - element.originX, y - element.originY) ? '#' : '.');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Erodes by element, taking the smallest sample under it placed with its origin on each pixel, or dilates, taking
+   * the largest under it reflected, ignoring pixels outside the image.
+   */
+  private static byte[] bruteElement(byte[] data, int width, int height, int channels, StructuringElement element,
+                                     boolean max) {
+    byte[] result = new byte[data.length];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        for (int c = 0; c < channels; c++) {
+          int extremum = max ? 0 : 255;
+          for (int ey = 0; ey < element.height; ey++)
+            for (int ex = 0; ex < element.width; ex++) {
+              int dx = ex - element.originX;
+              int dy = ey - element.originY;
+              if (!element.contains(dx, dy)) continue;
+              int sx = max ? x - dx : x + dx;
+              int sy = max ? y - dy : y + dy;
+              if (sx < 0 || sx >= width || sy < 0 || sy >= height) continue;
+              int v = data[(sy * width + sx) * channels + c] & 0xff;
+              extremum = max ? Math.max(extremum, v) : Math.min(extremum, v);
+            }
+          result[(y * width + x) * channels + c] = (byte) extremum;
+        }
+    return result;
+  }
+
+  private int randomRadius() {
+    return random.nextInt(4) == 0 ? random.nextInt(200) : 1 + random.nextInt(12);
+  }
+
+  /**
+   * Returns samples that are mostly 0, at a density that differs from call to call.
+   */
+  private byte[] sparse(int length) {
+    byte[] data = new byte[length];
+    int oneIn = 1 + random.nextInt(300);
+    for (int i = 0; i < length; i++) if (random.nextInt(oneIn) == 0) data[i] = (byte) (1 + random.nextInt(255));
+    return data;
+  }
+
+  /**
+   * Dilates, or erodes, the non-zero samples of each channel by the pixels within a city block distance of n, ignoring
+   * pixels outside the image.
+   */
+  private static byte[] bruteDiamond(byte[] data, int width, int height, int channels, int n, boolean max) {
+    byte[] result = new byte[data.length];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        for (int c = 0; c < channels; c++) {
+          boolean found = false;
+          for (int yy = Math.max(0, y - n); yy <= Math.min(height - 1, y + n) && !found; yy++) {
+            int reach = n - Math.abs(yy - y);
+            for (int xx = Math.max(0, x - reach); xx <= Math.min(width - 1, x + reach) && !found; xx++)
+              found = (data[(yy * width + xx) * channels + c] != 0) == max;
+          }
+          result[(y * width + x) * channels + c] = found == max ? (byte) 255 : 0;
+        }
+    return result;
+  }
+}
@@ -0,0 +1,109 @@
+package org.bagrounds.java.easyimage.processors;
+
+import org.bagrounds.java.easyimage.EasyImage;
+import org.bagrounds.java.easyimage.buffer.InterleavedPixelBuffer;
+import org.bagrounds.java.easyimage.math.EasyVector;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the sliding histogram filters with a histogram of every window counted from scratch, on radii on both sides
+ * of the switch from Huang's filter to column histograms.
+ */
+public class RankFilterTest {
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  private final Random random = new Random(15);
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void medianMatchesBruteForce() {
+    check(EasyVector.Stat.MEDIAN, .5);
+  }
+
+  @Test
+  public void minMatchesBruteForce() {
+    check(EasyVector.Stat.MIN, 0);
+  }
+
+  @Test
+  public void maxMatchesBruteForce() {
+    check(EasyVector.Stat.MAX, 1);
+  }
+
+  @Test
+  public void modeMatchesBruteForce() {
+    check(EasyVector.Stat.MODE, -1);
+  }
+
+  @Test
+  public void percentilesMatchBruteForce() {
+    check(null, -1);
+  }
+
+  /**
+   * Filters random images with stat, or with percentileFilter at a random percentile if stat is null, and compares
+   * them with the brute force filter at percentile, or at the mode if it is negative.
+   */
+  private void check(EasyVector.Stat stat, double percentile) {
+    for (int t = 0; t < 60; t++) {
+      int width = 1 + random.nextInt(60);
+      int height = 1 + random.nextInt(60);
+      int channels = random.nextBoolean() ? 1 : 3;
+      int r = random.nextInt(12);
+      byte[] data = new byte[width * height * channels];
+      random.nextBytes(data);
+      // few distinct values, so the windows have ties and the modes mean something
+      if (random.nextBoolean()) for (int i = 0; i < data.length; i++) data[i] = (byte) (random.nextInt(6) * 40);
+      double p = stat == null ? random.nextDouble() : percentile;
+      boolean mode = stat == EasyVector.Stat.MODE;
+
+      EasyImage image = new EasyImage(new InterleavedPixelBuffer(width, height, channels, data.clone()));
+      image.statisticProcessor.setExecutor(random.nextBoolean() ? BandExecutor.sequential() : new BandExecutor(POOL, 1));
+      if (stat == null) image.statisticProcessor.percentileFilter(p, r);
+      else image.statisticProcessor.filter(stat, r);
+
+      Assert.assertArrayEquals((stat == null ? "percentile " + p : stat.toString()) + ", r=" + r + ", " + width + "x"
+          + height + "x" + channels, bruteForce(data, width, height, channels, r, mode, p), image.getPixelData());
+    }
+  }
+
+  /**
+   * Selects, from the histogram of the square of side 2r + 1 around each pixel clipped to the image, the most frequent
+   * sample, the smallest of them on a tie, or the sample at index min(n - 1, floor(percentile * n)) of the n sorted
+   * samples.
+   */
+  private static byte[] bruteForce(byte[] data, int width, int height, int channels, int r, boolean mode,
+                                   double percentile) {
+    byte[] result = new byte[data.length];
+    int[] histogram = new int[256];
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++)
+        for (int c = 0; c < channels; c++) {
+          Arrays.fill(histogram, 0);
+          int n = 0;
+          for (int yy = Math.max(0, y - r); yy <= Math.min(height - 1, y + r); yy++)
+            for (int xx = Math.max(0, x - r); xx <= Math.min(width - 1, x + r); xx++, n++)
+              histogram[data[(yy * width + xx) * channels + c] & 0xff]++;
+          int value = 0;
+          if (mode) {
+            for (int v = 1; v < 256; v++) if (histogram[v] > histogram[value]) value = v;
+          } else {
+            int k = (int) Math.min(n - 1, (long) Math.floor(percentile * n));
+            int seen = histogram[0];
+            while (seen <= k) seen += histogram[++value];
+          }
+          result[(y * width + x) * channels + c] = (byte) value;
+        }
+    return result;
+  }
+}